@@ -0,0 +1,27 @@
+package com.microsoft.migration.assets.common.image;
+
+import lombok.AllArgsConstructor;
+import lombok.Value;
+import lombok.With;
+
+/**
+ * Outcome of encoding a rendition, recorded against the image's metadata.
+ */
+@Value
+@AllArgsConstructor
+public class EncodedImage {
+    public static final String ENCODING_ORIGINAL = "original";
+
+    String format;
+    String contentType;
+    long size;
+    // e.g. "jpeg q=0.80 progressive", "png deflate=9", or "original" when stored unchanged
+    String encoding;
+    // PerceptualHash of the rendered raster, when it was hashed
+    @With
+    Long perceptualHash;
+
+    public EncodedImage(String format, String contentType, long size, String encoding) {
+        this(format, contentType, size, encoding, null);
+    }
+}
@@ -0,0 +1,22 @@
+package com.microsoft.migration.assets.common.image;
+
+import lombok.Data;
+
+/**
+ * How a rendition is encoded. Lossy output starts at {@code maxQuality} and, if that
+ * exceeds {@code maxBytes}, searches down towards {@code minQuality} for the highest
+ * quality that fits the budget.
+ */
+@Data
+public class EncodingProfile {
+    // Target size of the encoded rendition; 0 disables the search
+    private int maxBytes = 100 * 1024;
+    private float maxQuality = 0.85f;
+    private float minQuality = 0.5f;
+    // Bisection steps between minQuality and maxQuality, each one a trial encode
+    private int searchSteps = 5;
+    // Progressive JPEG, so browsers can paint a coarse image before the last scan arrives
+    private boolean progressive = true;
+    // zlib level 0-9 for PNG output
+    private int pngDeflateLevel = 9;
+}
@@ -0,0 +1,98 @@
+package com.microsoft.migration.assets.common.image;
+
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Image formats recognised from their leading magic bytes, whatever the key's extension says.
+ */
+@Getter
+public enum ImageFormat {
+    JPEG("jpeg", "image/jpeg"),
+    PNG("png", "image/png"),
+    GIF("gif", "image/gif"),
+    BMP("bmp", "image/bmp"),
+    TIFF("tiff", "image/tiff"),
+    WEBP("webp", "image/webp");
+
+    private static final int SNIFF_BYTES = 12;
+
+    // ImageIO format name
+    private final String formatName;
+    private final String contentType;
+
+    ImageFormat(String formatName, String contentType) {
+        this.formatName = formatName;
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return the format of the file's content, or null if it is not a recognised image
+     */
+    public static ImageFormat sniff(Path file) throws IOException {
+        byte[] head = new byte[SNIFF_BYTES];
+        int length;
+        try (InputStream in = Files.newInputStream(file)) {
+            length = in.readNBytes(head, 0, head.length);
+        }
+        return sniff(Arrays.copyOf(head, length));
+    }
+
+    /**
+     * @return the format of data starting with these bytes, or null if it is not a recognised image
+     */
+    public static ImageFormat sniff(byte[] head) {
+        if (startsWith(head, 0xFF, 0xD8, 0xFF)) {
+            return JPEG;
+        } else if (startsWith(head, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return PNG;
+        } else if (startsWith(head, 'G', 'I', 'F', '8')) {
+            return GIF;
+        } else if (startsWith(head, 'B', 'M')) {
+            return BMP;
+        } else if (startsWith(head, 'I', 'I', 0x2A, 0x00) || startsWith(head, 'M', 'M', 0x00, 0x2A)) {
+            return TIFF;
+        } else if (startsWith(head, 'R', 'I', 'F', 'F') && head.length >= 12
+                && new String(head, 8, 4, StandardCharsets.US_ASCII).equals("WEBP")) {
+            return WEBP;
+        }
+        return null;
+    }
+
+    /**
+     * The format for an ImageIO reader or writer format name, or null if it is not one of ours.
+     */
+    public static ImageFormat forFormatName(String formatName) {
+        String name = formatName.toLowerCase(Locale.ROOT);
+        if (name.equals("jpg")) {
+            return JPEG;
+        } else if (name.equals("tif")) {
+            return TIFF;
+        }
+        for (ImageFormat format : values()) {
+            if (format.formatName.equals(name)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] data, int... prefix) {
+        if (data.length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((data[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,67 @@
+package com.microsoft.migration.assets.common.image;
+
+import lombok.Value;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * Format and dimensions of an image, read from its header by an {@link ImageReader}
+ * without decoding any pixels.
+ */
+@Value
+public class ImageProbe {
+    String formatName;
+    int width;
+    int height;
+    // Bytes per pixel of the decoder's native image type, 4 if the reader does not say
+    int bytesPerPixel;
+
+    /**
+     * Probe a file, which may hold only the leading bytes of the image.
+     *
+     * @return the probe, or null if no reader recognises the data or the header is incomplete
+     */
+    public static ImageProbe probe(Path file) throws IOException {
+        try (ImageInputStream in = MappedImageInputStream.open(file)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                return new ImageProbe(reader.getFormatName(), width, height, bytesPerPixel(reader));
+            } catch (IOException | IndexOutOfBoundsException e) {
+                // Truncated or malformed header; the caller falls back to a full decode
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static int bytesPerPixel(ImageReader reader) {
+        try {
+            ImageTypeSpecifier type = reader.getRawImageType(0);
+            return type == null ? 4 : Math.max(1, (type.getColorModel().getPixelSize() + 7) / 8);
+        } catch (IOException | RuntimeException e) {
+            return 4;
+        }
+    }
+
+    public long pixels() {
+        return (long) width * height;
+    }
+
+    public boolean fitsWithin(int maxDimension) {
+        return width <= maxDimension && height <= maxDimension;
+    }
+}
@@ -0,0 +1,161 @@
+package com.microsoft.migration.assets.common.image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Iterator;
+
+/**
+ * The resize steps every rendition goes through: fit the bounds, decode, scale down in
+ * steps and sharpen. Shared by the worker's thumbnail jobs and the web's on-demand
+ * renditions so both produce the same output for the same size.
+ */
+public final class ImageResizer {
+
+    private ImageResizer() {
+    }
+
+    /**
+     * Dimensions with the longer side at {@code maxDimension}, preserving the aspect ratio.
+     */
+    public static Dimension fitWithin(int width, int height, int maxDimension) {
+        double aspectRatio = (double) width / height;
+        if (width > height) {
+            return new Dimension(maxDimension, Math.max(1, (int) (maxDimension / aspectRatio)));
+        }
+        return new Dimension(Math.max(1, (int) (maxDimension * aspectRatio)), maxDimension);
+    }
+
+    /**
+     * The largest subsampling factor that still leaves at least twice the target size,
+     * so the final bicubic steps have real detail to work from.
+     */
+    public static int subsampling(ImageProbe probe, int targetWidth, int targetHeight) {
+        return Math.max(1, Math.min(probe.getWidth() / (2 * targetWidth), probe.getHeight() / (2 * targetHeight)));
+    }
+
+    /**
+     * Decode an image keeping only every {@code factor}-th pixel in each direction, so
+     * the full-size raster is never held in memory.
+     *
+     * @return the decoded image, or null if no decoder recognises the data
+     */
+    public static BufferedImage readSubsampled(Path input, int factor) throws IOException {
+        try (ImageInputStream in = MappedImageInputStream.open(input)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Performs progressive scaling of the image for better quality.
+     * This method gradually scales down the image in multiple steps rather than all at once.
+     */
+    public static BufferedImage progressiveScaling(BufferedImage source, int targetWidth, int targetHeight) {
+        // Current dimensions
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+
+        // Don't scale up images that are already smaller than target size
+        if (currentWidth <= targetWidth && currentHeight <= targetHeight) {
+            return source;
+        }
+
+        // Use a multi-step approach for higher quality
+        BufferedImage result = source;
+
+        // Scale down in multiple steps for better quality (not more than 50% each step)
+        while (currentWidth > targetWidth * 1.5 || currentHeight > targetHeight * 1.5) {
+            int newWidth = Math.max(currentWidth / 2, targetWidth);
+            int newHeight = Math.max(currentHeight / 2, targetHeight);
+
+            result = scaleImage(result, newWidth, newHeight);
+
+            currentWidth = newWidth;
+            currentHeight = newHeight;
+        }
+
+        // Final scaling to exact target dimensions
+        if (currentWidth != targetWidth || currentHeight != targetHeight) {
+            result = scaleImage(result, targetWidth, targetHeight);
+        }
+
+        return result;
+    }
+
+    /**
+     * Scale an image to specific dimensions using high quality settings.
+     */
+    private static BufferedImage scaleImage(BufferedImage source, int width, int height) {
+        // Create a new BufferedImage for the result
+        BufferedImage result;
+
+        // Preserve transparency for images with alpha channel
+        if (source.getTransparency() != BufferedImage.OPAQUE) {
+            result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        } else {
+            result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+
+        // Set up the rendering process with maximum quality settings
+        Graphics2D g2d = result.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
+        g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
+        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+
+        // Draw the scaled image
+        g2d.drawImage(source, 0, 0, width, height, null);
+        g2d.dispose();
+
+        return result;
+    }
+
+    /**
+     * Apply a sharpening filter to enhance image clarity
+     */
+    public static BufferedImage sharpenImage(BufferedImage image) {
+        float[] sharpenMatrix = {
+            0, -0.2f, 0,
+            -0.2f, 1.8f, -0.2f,
+            0, -0.2f, 0
+        };
+
+        Kernel kernel = new Kernel(3, 3, sharpenMatrix);
+        ConvolveOp convolveOp = new ConvolveOp(kernel, ConvolveOp.EDGE_NO_OP, null);
+
+        // Create a compatible destination image to avoid potential issues with some image types
+        BufferedImage output;
+        if (image.getTransparency() != BufferedImage.OPAQUE) {
+            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
+        } else {
+            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        }
+
+        // Apply the filter
+        return convolveOp.filter(image, output);
+    }
+}
@@ -0,0 +1,75 @@
+package com.microsoft.migration.assets.common.image;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * {@link ImageInputStream} over a memory-mapped file, so decoders read straight from
+ * the page cache instead of through {@code RandomAccessFile} calls or an extra copy.
+ */
+public class MappedImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuffer buffer;
+
+    private MappedImageInputStream(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Open a file for decoding, falling back to a file-backed stream for files too
+     * large to map into a single buffer.
+     */
+    public static ImageInputStream open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                return new FileImageInputStream(file.toFile());
+            }
+            // The mapping stays valid after the channel is closed
+            return new MappedImageInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= buffer.limit()) {
+            return -1;
+        }
+        return buffer.get((int) streamPos++) & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        long remaining = buffer.limit() - streamPos;
+        if (remaining <= 0) {
+            return -1;
+        }
+        int count = (int) Math.min(len, remaining);
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) streamPos);
+        view.get(b, off, count);
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+}
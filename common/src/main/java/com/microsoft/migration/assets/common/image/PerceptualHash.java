@@ -0,0 +1,129 @@
+package com.microsoft.migration.assets.common.image;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * A 64-bit DCT perceptual hash: visually similar images, such as re-exports, re-encodes,
+ * resizes, slight crops and touch-ups of the same picture, hash to values a small
+ * Hamming distance apart.
+ * <p>
+ * The image is reduced to a 32x32 grayscale raster and transformed with a 2-D DCT; each
+ * bit records whether one of the 8x8 lowest-frequency coefficients (the DC term
+ * excluded) is above their median. Hashing an already downscaled raster, such as a
+ * thumbnail before it is sharpened, costs a millisecond or two.
+ */
+public final class PerceptualHash {
+    public static final int BITS = 64;
+    private static final int SIZE = 32;
+    private static final int LOW = 8;
+    // COSINES[u][x] = cos((2x + 1) * u * pi / (2 * SIZE)), for the LOW frequencies kept
+    private static final double[][] COSINES = new double[LOW][SIZE];
+
+    static {
+        for (int u = 0; u < LOW; u++) {
+            for (int x = 0; x < SIZE; x++) {
+                COSINES[u][x] = Math.cos((2 * x + 1) * u * Math.PI / (2 * SIZE));
+            }
+        }
+    }
+
+    private PerceptualHash() {
+    }
+
+    /**
+     * The perceptual hash of an image. Transparent areas are hashed as if on white.
+     */
+    public static long of(BufferedImage image) {
+        double[][] pixels = grayscale(image);
+
+        // Separable DCT, restricted to the low frequencies that make up the hash
+        double[][] rows = new double[SIZE][LOW];
+        for (int y = 0; y < SIZE; y++) {
+            for (int u = 0; u < LOW; u++) {
+                double sum = 0;
+                for (int x = 0; x < SIZE; x++) {
+                    sum += pixels[y][x] * COSINES[u][x];
+                }
+                rows[y][u] = sum;
+            }
+        }
+        double[] coefficients = new double[LOW * LOW];
+        for (int v = 0; v < LOW; v++) {
+            for (int u = 0; u < LOW; u++) {
+                double sum = 0;
+                for (int y = 0; y < SIZE; y++) {
+                    sum += rows[y][u] * COSINES[v][y];
+                }
+                coefficients[v * LOW + u] = sum;
+            }
+        }
+
+        // The DC term is the mean brightness and says nothing about structure
+        double[] ac = Arrays.copyOfRange(coefficients, 1, coefficients.length);
+        Arrays.sort(ac);
+        double median = (ac[ac.length / 2 - 1] + ac[ac.length / 2]) / 2;
+        long hash = 0;
+        for (int i = 0; i < coefficients.length; i++) {
+            hash <<= 1;
+            if (i > 0 && coefficients[i] > median) {
+                hash |= 1;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * The number of bits two hashes differ in; 0 for the same picture, up to about 10 for
+     * near-duplicates, around 32 for unrelated images.
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    /**
+     * Box-average the image into a SIZE x SIZE luminance grid. Averaging every pixel,
+     * rather than sampling, keeps the hash stable across the scaling an image went through.
+     */
+    private static double[][] grayscale(BufferedImage image) {
+        if (image.getWidth() < SIZE || image.getHeight() < SIZE) {
+            // Tiny images are stretched so every cell covers at least one pixel
+            image = stretch(image, Math.max(image.getWidth(), SIZE), Math.max(image.getHeight(), SIZE));
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double[][] pixels = new double[SIZE][SIZE];
+        int[][] counts = new int[SIZE][SIZE];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int cellY = (int) ((long) y * SIZE / height);
+            for (int x = 0; x < width; x++) {
+                int argb = row[x];
+                double alpha = (argb >>> 24) / 255.0;
+                double luma = 0.299 * ((argb >> 16) & 0xff) + 0.587 * ((argb >> 8) & 0xff) + 0.114 * (argb & 0xff);
+                int cellX = (int) ((long) x * SIZE / width);
+                // Composite over white
+                pixels[cellY][cellX] += luma * alpha + 255 * (1 - alpha);
+                counts[cellY][cellX]++;
+            }
+        }
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                pixels[y][x] /= counts[y][x];
+            }
+        }
+        return pixels;
+    }
+
+    private static BufferedImage stretch(BufferedImage image, int width, int height) {
+        BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = result.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2d.drawImage(image, 0, 0, width, height, null);
+        g2d.dispose();
+        return result;
+    }
+}
@@ -0,0 +1,163 @@
+package com.microsoft.migration.assets.common.image;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Encodes renditions according to an {@link EncodingProfile}. Renditions are small,
+ * so trial encodes are done in memory and only the chosen one is written out.
+ */
+public final class ThumbnailEncoder {
+    // Sources with at most this many distinct colours are treated as graphics, not photos
+    private static final int MAX_GRAPHIC_COLOURS = 256;
+    // Pixels sampled from the source when choosing the output format
+    private static final int SAMPLE_PIXELS = 1 << 16;
+
+    private ThumbnailEncoder() {
+    }
+
+    /**
+     * Pick the output format from the decoded source: PNG for images with transparency or
+     * only a few colours (logos, screenshots, line art), where it is lossless and compact,
+     * and JPEG for opaque photographic content. A grid sample of the source keeps this
+     * cheap on large images, at the risk of missing a few isolated transparent pixels.
+     */
+    public static ImageFormat chooseFormat(BufferedImage source) {
+        boolean hasAlpha = source.getColorModel().hasAlpha();
+        int width = source.getWidth();
+        int height = source.getHeight();
+        int stride = (int) Math.max(1, Math.ceil(Math.sqrt((double) width * height / SAMPLE_PIXELS)));
+
+        Set<Integer> colours = new HashSet<>();
+        for (int y = 0; y < height; y += stride) {
+            for (int x = 0; x < width; x += stride) {
+                int argb = source.getRGB(x, y);
+                if (hasAlpha && (argb >>> 24) != 0xFF) {
+                    return ImageFormat.PNG;
+                }
+                if (colours.size() <= MAX_GRAPHIC_COLOURS) {
+                    colours.add(argb);
+                } else if (!hasAlpha) {
+                    // Photographic, and there is no alpha left to look for
+                    return ImageFormat.JPEG;
+                }
+            }
+        }
+        return colours.size() <= MAX_GRAPHIC_COLOURS ? ImageFormat.PNG : ImageFormat.JPEG;
+    }
+
+    public static EncodedImage encode(BufferedImage image, ImageFormat format, EncodingProfile profile, Path output)
+            throws IOException {
+        byte[] data;
+        String encoding;
+        if (format == ImageFormat.JPEG) {
+            BufferedImage opaque = withoutAlpha(image);
+            float quality = profile.getMaxQuality();
+            data = encodeJpeg(opaque, quality, profile.isProgressive());
+            if (profile.getMaxBytes() > 0 && data.length > profile.getMaxBytes()) {
+                // Bisect for the highest quality within budget; if even the floor is over,
+                // the floor is the best available
+                float low = profile.getMinQuality();
+                float high = quality;
+                quality = low;
+                data = encodeJpeg(opaque, low, profile.isProgressive());
+                if (data.length <= profile.getMaxBytes()) {
+                    for (int step = 0; step < profile.getSearchSteps(); step++) {
+                        float mid = (low + high) / 2;
+                        byte[] candidate = encodeJpeg(opaque, mid, profile.isProgressive());
+                        if (candidate.length <= profile.getMaxBytes()) {
+                            low = mid;
+                            quality = mid;
+                            data = candidate;
+                        } else {
+                            high = mid;
+                        }
+                    }
+                }
+            }
+            encoding = String.format(Locale.ROOT, "jpeg q=%.2f%s", quality, profile.isProgressive() ? " progressive" : "");
+        } else if (format == ImageFormat.PNG) {
+            data = encodePng(image, profile.getPngDeflateLevel());
+            encoding = "png deflate=" + profile.getPngDeflateLevel();
+        } else {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            if (!ImageIO.write(image, format.getFormatName(), out)) {
+                throw new IOException("No image writer for format: " + format);
+            }
+            data = out.toByteArray();
+            encoding = format.getFormatName();
+        }
+        Files.write(output, data);
+        return new EncodedImage(format.getFormatName(), format.getContentType(), data.length, encoding);
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image, float quality, boolean progressive) throws IOException {
+        ImageWriter writer = writer("jpeg");
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality);
+        if (progressive) {
+            param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+        }
+        return write(writer, image, param);
+    }
+
+    private static byte[] encodePng(BufferedImage image, int deflateLevel) throws IOException {
+        ImageWriter writer = writer("png");
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (param.canWriteCompressed()) {
+            // The JDK writer maps quality q to zlib level 9 * (1 - q): 0.0 is the smallest output
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionType("Deflate");
+            param.setCompressionQuality(1.0f - Math.max(0, Math.min(9, deflateLevel)) / 9.0f);
+        }
+        return write(writer, image, param);
+    }
+
+    private static byte[] write(ImageWriter writer, BufferedImage image, ImageWriteParam param) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static ImageWriter writer(String format) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No image writer for format: " + format);
+        }
+        return writers.next();
+    }
+
+    /**
+     * JPEG has no alpha channel; flatten transparent pixels onto white.
+     */
+    private static BufferedImage withoutAlpha(BufferedImage image) {
+        if (image.getTransparency() == BufferedImage.OPAQUE) {
+            return image;
+        }
+        BufferedImage opaque = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = opaque.createGraphics();
+        g2d.drawImage(image, 0, 0, Color.WHITE, null);
+        g2d.dispose();
+        return opaque;
+    }
+}
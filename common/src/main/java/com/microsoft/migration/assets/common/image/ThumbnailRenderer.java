@@ -0,0 +1,66 @@
+package com.microsoft.migration.assets.common.image;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * The resize pipeline behind every thumbnail and rendition, so the worker's thumbnails,
+ * on-demand renditions and thumbnails rendered during an upload come out alike: the
+ * output format is chosen from the decoded content, the image is scaled progressively,
+ * hashed, sharpened and encoded with the rendition's profile.
+ */
+public final class ThumbnailRenderer {
+    public static final String STAGE_SCALE = "scale";
+    public static final String STAGE_HASH = "hash";
+    public static final String STAGE_SHARPEN = "sharpen";
+    public static final String STAGE_ENCODE = "encode";
+
+    private ThumbnailRenderer() {
+    }
+
+    /**
+     * Receives the time spent in each stage, for callers that report it.
+     */
+    public interface StageTimer {
+        StageTimer NONE = (stage, nanos) -> {
+        };
+
+        void record(String stage, long nanos);
+    }
+
+    /**
+     * Scale a decoded image to {@code width} x {@code height} and encode it to {@code output}.
+     *
+     * @return the encoded thumbnail, with the perceptual hash of the scaled raster
+     */
+    public static EncodedImage render(BufferedImage source, int width, int height, EncodingProfile profile,
+                                      Path output, StageTimer timer) throws IOException {
+        // Photographic content is encoded as JPEG, transparency and flat graphics as PNG
+        ImageFormat format = ThumbnailEncoder.chooseFormat(source);
+        long start = System.nanoTime();
+        BufferedImage scaled = ImageResizer.progressiveScaling(source, width, height);
+        timer.record(STAGE_SCALE, System.nanoTime() - start);
+        return finish(scaled, format, profile, output, timer);
+    }
+
+    /**
+     * Hash, sharpen and encode an image already scaled to its final size.
+     */
+    public static EncodedImage finish(BufferedImage scaled, ImageFormat format, EncodingProfile profile,
+                                      Path output, StageTimer timer) throws IOException {
+        // Hash the scaled raster before sharpening, the same whichever way it was scaled
+        long start = System.nanoTime();
+        long perceptualHash = PerceptualHash.of(scaled);
+        timer.record(STAGE_HASH, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        BufferedImage sharpened = ImageResizer.sharpenImage(scaled);
+        timer.record(STAGE_SHARPEN, System.nanoTime() - start);
+
+        start = System.nanoTime();
+        EncodedImage encoded = ThumbnailEncoder.encode(sharpened, format, profile, output);
+        timer.record(STAGE_ENCODE, System.nanoTime() - start);
+        return encoded.withPerceptualHash(perceptualHash);
+    }
+}
@@ -0,0 +1,24 @@
+package com.microsoft.migration.assets.common.messaging;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Sent by the web instance that stored or deleted originals, so the open listings of
+ * every instance follow the change, not only those served by the one that made it.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CatalogChangeMessage {
+    public enum Type {
+        UPLOADED, DELETED
+    }
+
+    private Type type;
+    // Keys of the originals concerned
+    private List<String> keys;
+}
@@ -1,4 +1,4 @@
-package com.microsoft.migration.assets.model;
+package com.microsoft.migration.assets.common.messaging;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -0,0 +1,67 @@
+package com.microsoft.migration.assets.common.messaging;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConversionException;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+/**
+ * Sends thumbnail jobs in the {@link ImageProcessingMessageCodec binary encoding} and
+ * picks the decoding by each message's content type, so consumers accept both binary and
+ * JSON jobs while publishers are switched over. Anything other than a job is left to the
+ * JSON converter.
+ * <p>
+ * JSON jobs published before the message contract moved to this module name the web's
+ * old class in their type header; they are read as jobs all the same, so jobs queued
+ * across an upgrade are not lost to a consumer that does not name the type it expects.
+ */
+public class ImageProcessingMessageConverter implements MessageConverter {
+    public static final String CONTENT_TYPE = "application/x-image-processing-message";
+    static final String LEGACY_TYPE_ID = "com.microsoft.migration.assets.model.ImageProcessingMessage";
+
+    public enum Format {
+        BINARY, JSON
+    }
+
+    private final Format format;
+    private final Jackson2JsonMessageConverter json = new Jackson2JsonMessageConverter();
+
+    /**
+     * @param format the encoding jobs are sent in; consumers must accept it before a
+     *               publisher switches to binary
+     */
+    public ImageProcessingMessageConverter(Format format) {
+        this.format = format;
+    }
+
+    @Override
+    public Message toMessage(Object object, MessageProperties messageProperties) {
+        if (format == Format.BINARY && object instanceof ImageProcessingMessage) {
+            byte[] body = ImageProcessingMessageCodec.encode((ImageProcessingMessage) object);
+            messageProperties.setContentType(CONTENT_TYPE);
+            messageProperties.setContentLength(body.length);
+            return new Message(body, messageProperties);
+        }
+        return json.toMessage(object, messageProperties);
+    }
+
+    @Override
+    public Object fromMessage(Message message) {
+        String contentType = message.getMessageProperties().getContentType();
+        if (contentType != null && contentType.startsWith(CONTENT_TYPE)) {
+            try {
+                return ImageProcessingMessageCodec.decode(message.getBody());
+            } catch (IllegalArgumentException e) {
+                throw new MessageConversionException("Cannot decode image processing message", e);
+            }
+        }
+        MessageProperties properties = message.getMessageProperties();
+        if (properties.getInferredArgumentType() == null
+                && LEGACY_TYPE_ID.equals(properties.getHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME))) {
+            properties.setInferredArgumentType(ImageProcessingMessage.class);
+        }
+        return json.fromMessage(message);
+    }
+}
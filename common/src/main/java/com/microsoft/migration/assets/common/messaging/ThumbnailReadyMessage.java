@@ -0,0 +1,17 @@
+package com.microsoft.migration.assets.common.messaging;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Sent by the worker once an original's thumbnail is stored and recorded, so open
+ * listings can show it without polling.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ThumbnailReadyMessage {
+    private String key;
+    private String thumbnailKey;
+}
@@ -0,0 +1,53 @@
+package com.microsoft.migration.assets.common.model;
+
+import javax.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Entity
+@Table(indexes = {
+    // Keyset pagination of the listing, newest first
+    @Index(name = "idx_image_metadata_uploaded_at_id", columnList = "uploadedAt, id"),
+    @Index(name = "idx_image_metadata_s3key", columnList = "s3Key"),
+    @Index(name = "idx_image_metadata_thumbnail_key", columnList = "thumbnailKey"),
+    // Incremental refresh of the web's similarity index
+    @Index(name = "idx_image_metadata_last_modified_id", columnList = "lastModified, id")
+})
+@Data
+@NoArgsConstructor
+public class ImageMetadata {
+    @Id
+    private String id;
+    private String filename;
+    private String contentType;
+    private Long size;
+    private String s3Key;
+    private String s3Url;
+    private String thumbnailKey;
+    private String thumbnailUrl;
+    // Encoded size and settings of the thumbnail, e.g. "jpeg q=0.80 progressive"
+    private Long thumbnailSize;
+    private String thumbnailEncoding;
+    // Chosen from the image content, so it can differ from what the thumbnail key's extension suggests
+    private String thumbnailContentType;
+    // 64-bit perceptual hash of the thumbnail raster, for near-duplicate search
+    private Long perceptualHash;
+    private LocalDateTime uploadedAt;
+    private LocalDateTime lastModified;
+
+    @PrePersist
+    protected void onCreate() {
+        // Rows recreated by catalog reconciliation keep the object's own timestamp
+        if (uploadedAt == null) {
+            uploadedAt = LocalDateTime.now();
+        }
+        lastModified = LocalDateTime.now();
+    }
+
+    @PreUpdate
+    protected void onUpdate() {
+        lastModified = LocalDateTime.now();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.microsoft.migration.assets.common.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import java.time.LocalDateTime;
+
+/**
+ * Records that an original was deleted, so the worker can cancel a thumbnail job still
+ * queued for it. Tombstones expire once no such job can remain.
+ */
+@Entity
+@Table(indexes = {
+    @Index(name = "idx_tombstone_deleted_at", columnList = "deletedAt")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class Tombstone {
+    @Id
+    private String s3Key;
+    private LocalDateTime deletedAt;
+}
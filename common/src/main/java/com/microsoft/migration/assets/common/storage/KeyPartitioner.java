@@ -0,0 +1,95 @@
+package com.microsoft.migration.assets.common.storage;
+
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Spreads new objects over hash-derived key prefixes, and optionally over several
+ * buckets, so no single S3 prefix takes the whole request rate.
+ * <p>
+ * A partitioned key looks like {@code 0a~<uuid>-<filename>}: two hex digits naming the
+ * partition, then {@code ~}, which keeps keys usable as a single URL path segment.
+ * Partition {@code p} lives in bucket {@code p % buckets}, counting the primary
+ * {@code aws.s3.bucket} as bucket 0. Flat {@code <uuid>-<filename>} keys written before
+ * partitioning have no prefix and stay in the primary bucket. Thumbnail keys keep the
+ * original's prefix, so a thumbnail always sits in its original's partition.
+ * <p>
+ * The web and the worker each build one from {@code aws.s3.bucket},
+ * {@code aws.s3.partition.buckets} and {@code aws.s3.partition.count}, and must be given
+ * the same buckets, in the same order.
+ */
+public class KeyPartitioner {
+    public static final int MAX_PARTITIONS = 256;
+    private static final char SEPARATOR = '~';
+    private static final int PREFIX_LENGTH = 3;
+
+    private final int partitions;
+    private final List<String> buckets;
+
+    public KeyPartitioner(String bucket, List<String> extraBuckets, int partitions) {
+        if (partitions < 0 || partitions > MAX_PARTITIONS) {
+            throw new IllegalArgumentException("aws.s3.partition.count must be between 0 and " + MAX_PARTITIONS
+                    + ": " + partitions);
+        }
+        List<String> all = new ArrayList<>();
+        all.add(bucket);
+        for (String extra : extraBuckets) {
+            if (StringUtils.hasText(extra) && !all.contains(extra.trim())) {
+                all.add(extra.trim());
+            }
+        }
+        this.partitions = partitions;
+        this.buckets = Collections.unmodifiableList(all);
+    }
+
+    /**
+     * A new key for an uploaded file; flat when partitioning is off (count 0 or 1).
+     */
+    public String newKey(String filename) {
+        String id = UUID.randomUUID().toString();
+        if (partitions <= 1) {
+            return id + "-" + filename;
+        }
+        int partition = Math.floorMod(id.hashCode(), partitions);
+        return String.format(Locale.ROOT, "%02x%c%s-%s", partition, SEPARATOR, id, filename);
+    }
+
+    /**
+     * The bucket holding an object, from the partition in its key.
+     */
+    public String bucketFor(String key) {
+        int partition = partitionOf(key);
+        return partition < 0 ? buckets.get(0) : buckets.get(partition % buckets.size());
+    }
+
+    /**
+     * Every bucket objects may be in, the primary first.
+     */
+    public List<String> buckets() {
+        return buckets;
+    }
+
+    /**
+     * The partition named by a key's prefix, or -1 for a flat key.
+     */
+    public static int partitionOf(String key) {
+        if (key.length() <= PREFIX_LENGTH || key.charAt(PREFIX_LENGTH - 1) != SEPARATOR) {
+            return -1;
+        }
+        int high = Character.digit(key.charAt(0), 16);
+        int low = Character.digit(key.charAt(1), 16);
+        return high < 0 || low < 0 ? -1 : high * 16 + low;
+    }
+
+    /**
+     * The key without its partition prefix, i.e. {@code <uuid>-<filename>}.
+     */
+    public static String stripPartition(String key) {
+        return partitionOf(key) < 0 ? key : key.substring(PREFIX_LENGTH);
+    }
+}
@@ -0,0 +1,391 @@
+package com.microsoft.migration.assets.common.storage;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * On-disk layout of local storage. Files are spread over two levels of
+ * hash-prefixed directories so that no single directory grows without bound:
+ * <pre>
+ *   objects/3f/a2/&lt;key&gt;       originals
+ *   thumbnails/9c/04/&lt;key&gt;    thumbnails, written by the worker
+ *   renditions/5e/17/&lt;key&gt;    on-demand renditions, not indexed or listed
+ *   index.bin                  append-only log of every put and delete
+ *   index.lock                 serializes index writers across processes
+ * </pre>
+ * Listing replays the index from a memory-mapped view, reading only the records
+ * appended since the previous call, instead of walking and stat-ing every file.
+ * The web app stores, lists and deletes originals through it; the worker only adds
+ * thumbnails, and never replays the index beyond finding where to append.
+ */
+@Slf4j
+public class LocalStorageLayout {
+    public static final byte KIND_ORIGINAL = 0;
+    public static final byte KIND_THUMBNAIL = 1;
+
+    static final String OBJECTS_DIR = "objects";
+    static final String THUMBNAILS_DIR = "thumbnails";
+    static final String RENDITIONS_DIR = "renditions";
+    static final String INDEX_FILE = "index.bin";
+    static final String LOCK_FILE = "index.lock";
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_DELETE = 2;
+    // Record: int length, then op, kind, size, lastModified, created, key length, key (UTF-8)
+    private static final int FIXED_BYTES = 1 + 1 + Long.BYTES * 3 + Short.BYTES;
+    // Rewrite the index once it holds this many records and more than twice the live entries
+    private static final long COMPACT_MIN_RECORDS = 10_000;
+
+    private final Path root;
+    private final Path index;
+    private final Path lockFile;
+    private final Object monitor = new Object();
+
+    // Replayed index state, guarded by monitor
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private Object indexFileKey;
+    private long indexPosition;
+    private long indexRecords;
+    // End of the complete records as last seen by a writer, guarded by monitor
+    private Object appendFileKey;
+    private long appendPosition;
+
+    public LocalStorageLayout(Path root) throws IOException {
+        this.root = root;
+        this.index = root.resolve(INDEX_FILE);
+        this.lockFile = root.resolve(LOCK_FILE);
+        Files.createDirectories(root.resolve(OBJECTS_DIR));
+        Files.createDirectories(root.resolve(THUMBNAILS_DIR));
+        Files.createDirectories(root.resolve(RENDITIONS_DIR));
+    }
+
+    public Path originalPath(String key) {
+        return inShard(OBJECTS_DIR, key);
+    }
+
+    public Path thumbnailPath(String key) {
+        return inShard(THUMBNAILS_DIR, key);
+    }
+
+    public Path renditionPath(String key) {
+        return inShard(RENDITIONS_DIR, key);
+    }
+
+    /**
+     * Where a file sat before the sharded layout; {@link #migrateFlatFiles} moves these.
+     */
+    public Path legacyPath(String key) {
+        return root.resolve(key);
+    }
+
+    private Path inShard(String subtree, String key) {
+        Path shardDir = root.resolve(subtree).resolve(shard(key));
+        Path path = shardDir.resolve(key).normalize();
+        if (!path.startsWith(shardDir) || path.equals(shardDir)) {
+            throw new IllegalArgumentException("Invalid storage key: " + key);
+        }
+        return path;
+    }
+
+    /**
+     * Path of a listed key, whichever subtree it lives in.
+     */
+    public Path resolve(String key) throws IOException {
+        Optional<Entry> entry = find(key);
+        if (entry.isPresent()) {
+            return entry.get().getKind() == KIND_THUMBNAIL ? thumbnailPath(key) : originalPath(key);
+        }
+        Path original = originalPath(key);
+        return Files.exists(original) ? original : thumbnailPath(key);
+    }
+
+    public List<Entry> list() throws IOException {
+        synchronized (monitor) {
+            refresh();
+            return new ArrayList<>(entries.values());
+        }
+    }
+
+    public Optional<Entry> find(String key) throws IOException {
+        synchronized (monitor) {
+            refresh();
+            return Optional.ofNullable(entries.get(key));
+        }
+    }
+
+    public void recordPut(String key, byte kind, long size, Instant lastModified, Instant created) throws IOException {
+        append(encode(OP_PUT, key, kind, size, lastModified.toEpochMilli(), created.toEpochMilli()));
+    }
+
+    public void recordDelete(String key, byte kind) throws IOException {
+        append(encode(OP_DELETE, key, kind, 0, 0, 0));
+    }
+
+    /**
+     * Move files left over from the flat layout into their shards and index them.
+     * Cheap once migrated, since the root then only holds the layout's own entries.
+     */
+    public void migrateFlatFiles() throws IOException {
+        Set<String> names = new HashSet<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(root, Files::isRegularFile)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (!name.equals(INDEX_FILE) && !name.equals(LOCK_FILE) && !name.startsWith(INDEX_FILE + ".")) {
+                    names.add(name);
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+
+        log.info("Migrating {} files from the flat local storage layout", names.size());
+        for (String name : names) {
+            String original = originalKeyOf(name);
+            boolean thumbnail = original != null && names.contains(original);
+            Path source = root.resolve(name);
+            Path target = thumbnail ? thumbnailPath(name) : originalPath(name);
+            BasicFileAttributes attrs = Files.readAttributes(source, BasicFileAttributes.class);
+            Files.createDirectories(target.getParent());
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+            recordPut(name, thumbnail ? KIND_THUMBNAIL : KIND_ORIGINAL, attrs.size(),
+                    attrs.lastModifiedTime().toInstant(), attrs.creationTime().toInstant());
+        }
+        log.info("Local storage migration complete");
+    }
+
+    /**
+     * Append a record under the exclusive lock. The lock file is never replaced, so appends
+     * cannot race compaction, in this process or another.
+     */
+    private void append(ByteBuffer record) throws IOException {
+        synchronized (monitor) {
+            try (FileChannel lockChannel = openLockChannel();
+                 FileLock ignored = lockChannel.lock();
+                 FileChannel channel = FileChannel.open(index, StandardOpenOption.CREATE,
+                         StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long end = completeRecordsEnd(channel);
+                // Anything past the last complete record was torn by a writer that died; appending
+                // after it would leave it in the middle of the log
+                if (channel.size() > end) {
+                    log.warn("Truncating {} bytes of incomplete records from the local storage index",
+                            channel.size() - end);
+                    channel.truncate(end);
+                }
+                while (record.hasRemaining()) {
+                    end += channel.write(record, end);
+                }
+                appendPosition = end;
+            }
+        }
+    }
+
+    /**
+     * Skip the records appended since the last append, starting over if compaction
+     * replaced the file.
+     */
+    private long completeRecordsEnd(FileChannel channel) throws IOException {
+        Object fileKey = Files.readAttributes(index, BasicFileAttributes.class).fileKey();
+        long size = channel.size();
+        if (!Objects.equals(fileKey, appendFileKey) || size < appendPosition) {
+            appendPosition = 0;
+            appendFileKey = fileKey;
+        }
+        if (size > appendPosition) {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, appendPosition, size - appendPosition);
+            for (int end = recordEnd(buffer); end >= 0; end = recordEnd(buffer)) {
+                buffer.position(end);
+            }
+            appendPosition += buffer.position();
+        }
+        return appendPosition;
+    }
+
+    /**
+     * Apply records appended since the last call; start over if the file was replaced by compaction.
+     */
+    private void refresh() throws IOException {
+        if (!Files.exists(index)) {
+            return;
+        }
+        boolean compact;
+        try (FileChannel lockChannel = openLockChannel();
+             FileLock ignored = lockChannel.lock(0, Long.MAX_VALUE, true);
+             FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+            catchUp(channel);
+            compact = indexRecords >= COMPACT_MIN_RECORDS && indexRecords > 2L * entries.size();
+        }
+        if (compact) {
+            compact();
+        }
+    }
+
+    /**
+     * Replay the index from where the last call stopped, under a lock on it.
+     */
+    private void catchUp(FileChannel channel) throws IOException {
+        Object fileKey = Files.readAttributes(index, BasicFileAttributes.class).fileKey();
+        long size = channel.size();
+        if (!Objects.equals(fileKey, indexFileKey) || size < indexPosition) {
+            entries.clear();
+            indexPosition = 0;
+            indexRecords = 0;
+            indexFileKey = fileKey;
+        }
+        if (size > indexPosition) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, indexPosition, size - indexPosition);
+            indexPosition += replay(buffer);
+        }
+    }
+
+    /**
+     * @return the bytes of complete records applied; an incomplete tail is left for the
+     * writer that is still appending it, or truncated by the next one if its writer died
+     */
+    private int replay(ByteBuffer buffer) {
+        while (recordEnd(buffer) >= 0) {
+            buffer.getInt();
+            byte op = buffer.get();
+            byte kind = buffer.get();
+            long size = buffer.getLong();
+            long lastModified = buffer.getLong();
+            long created = buffer.getLong();
+            byte[] key = new byte[buffer.getShort() & 0xFFFF];
+            buffer.get(key);
+            String name = new String(key, StandardCharsets.UTF_8);
+            if (op == OP_PUT) {
+                entries.put(name, new Entry(name, kind, size,
+                        Instant.ofEpochMilli(lastModified), Instant.ofEpochMilli(created)));
+            } else if (op == OP_DELETE) {
+                entries.remove(name);
+            }
+            indexRecords++;
+        }
+        return buffer.position();
+    }
+
+    /**
+     * End of the record at the buffer's position, or -1 if it is incomplete or its lengths
+     * do not agree.
+     */
+    private static int recordEnd(ByteBuffer buffer) {
+        int start = buffer.position();
+        if (buffer.remaining() < Integer.BYTES) {
+            return -1;
+        }
+        int length = buffer.getInt(start);
+        if (length < FIXED_BYTES || buffer.remaining() - Integer.BYTES < length) {
+            return -1;
+        }
+        int keyLength = buffer.getShort(start + Integer.BYTES + FIXED_BYTES - Short.BYTES) & 0xFFFF;
+        return keyLength == length - FIXED_BYTES ? start + Integer.BYTES + length : -1;
+    }
+
+    /**
+     * Rewrite the index with one record per live entry and swap it in atomically.
+     */
+    private void compact() throws IOException {
+        Path tmp = root.resolve(INDEX_FILE + ".tmp");
+        try (FileChannel lockChannel = openLockChannel();
+             FileLock ignored = lockChannel.lock()) {
+            // Pick up anything appended between the refresh and taking the exclusive lock
+            try (FileChannel channel = FileChannel.open(index, StandardOpenOption.READ)) {
+                catchUp(channel);
+            }
+            long written = 0;
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Entry entry : entries.values()) {
+                    ByteBuffer record = encode(OP_PUT, entry.getKey(), entry.getKind(), entry.getSize(),
+                            entry.getLastModified().toEpochMilli(), entry.getCreated().toEpochMilli());
+                    while (record.hasRemaining()) {
+                        written += out.write(record);
+                    }
+                }
+                out.force(true);
+            }
+            Files.move(tmp, index, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Compacted local storage index from {} to {} records", indexRecords, entries.size());
+            indexFileKey = Files.readAttributes(index, BasicFileAttributes.class).fileKey();
+            indexPosition = written;
+            indexRecords = entries.size();
+        }
+    }
+
+    private FileChannel openLockChannel() throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static ByteBuffer encode(byte op, String key, byte kind, long size, long lastModified, long created) {
+        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 0xFFFF) {
+            throw new IllegalArgumentException("Key too long for the storage index: " + key);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + FIXED_BYTES + name.length);
+        buffer.putInt(FIXED_BYTES + name.length)
+                .put(op)
+                .put(kind)
+                .putLong(size)
+                .putLong(lastModified)
+                .putLong(created)
+                .putShort((short) name.length)
+                .put(name);
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Two directory levels from the first bytes of the key's SHA-256, e.g. {@code 3f/a2}.
+     */
+    static String shard(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return String.format("%02x/%02x", hash[0], hash[1]);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * The original key a thumbnail key was derived from, or null if it is not a thumbnail name.
+     */
+    private static String originalKeyOf(String name) {
+        int dotIndex = name.lastIndexOf('.');
+        String base = dotIndex > 0 ? name.substring(0, dotIndex) : name;
+        String extension = dotIndex > 0 ? name.substring(dotIndex) : "";
+        return base.endsWith("_thumbnail") ? base.substring(0, base.length() - "_thumbnail".length()) + extension : null;
+    }
+
+    @Value
+    public static class Entry {
+        String key;
+        byte kind;
+        long size;
+        Instant lastModified;
+        Instant created;
+    }
+}
@@ -0,0 +1,126 @@
+package com.microsoft.migration.assets.common.messaging;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageProcessingMessageCodecTest {
+    // U+00E9 and U+4E2D take two and three bytes, U+1F600 is a surrogate pair taking four
+    private static final String NON_ASCII = "photos/caf\u00E9/\u4E2D\uD83D\uDE00.jpg";
+
+    @Test
+    void roundTrips() {
+        ImageProcessingMessage message = new ImageProcessingMessage("photos/a.jpg", "image/jpeg", "s3", 123_456_789L);
+
+        assertThat(ImageProcessingMessageCodec.decode(ImageProcessingMessageCodec.encode(message))).isEqualTo(message);
+    }
+
+    @Test
+    void roundTripsNullFields() {
+        ImageProcessingMessage message = new ImageProcessingMessage(null, null, null, 0);
+
+        byte[] encoded = ImageProcessingMessageCodec.encode(message);
+
+        assertThat(encoded).containsExactly(ImageProcessingMessageCodec.VERSION, 0, 0, 0, 0);
+        assertThat(ImageProcessingMessageCodec.decode(encoded)).isEqualTo(message);
+    }
+
+    @Test
+    void roundTripsEmptyAndLargeValues() {
+        ImageProcessingMessage message = new ImageProcessingMessage("", "", "local", Long.MAX_VALUE);
+
+        assertThat(ImageProcessingMessageCodec.decode(ImageProcessingMessageCodec.encode(message))).isEqualTo(message);
+    }
+
+    @Test
+    void encodesNonAsciiKeysAsUtf8() {
+        ImageProcessingMessage message = new ImageProcessingMessage(NON_ASCII, "image/png", "s3", 42);
+
+        byte[] encoded = ImageProcessingMessageCodec.encode(message);
+        byte[] utf8 = NON_ASCII.getBytes(StandardCharsets.UTF_8);
+
+        assertThat(encoded[1]).isEqualTo((byte) (utf8.length + 1));
+        assertThat(Arrays.copyOfRange(encoded, 2, 2 + utf8.length)).isEqualTo(utf8);
+        assertThat(ImageProcessingMessageCodec.decode(encoded)).isEqualTo(message);
+    }
+
+    @Test
+    void replacesUnpairedSurrogatesLikeGetBytes() {
+        String key = "photos/\uD83D.jpg/\uDE00";
+        ImageProcessingMessage message = new ImageProcessingMessage(key, null, null, 1);
+
+        ImageProcessingMessage decoded = ImageProcessingMessageCodec.decode(ImageProcessingMessageCodec.encode(message));
+
+        assertThat(decoded.getKey())
+                .isEqualTo("photos/?.jpg/?")
+                .isEqualTo(new String(key.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void rejectsEveryTruncation() {
+        byte[] encoded = ImageProcessingMessageCodec.encode(
+                new ImageProcessingMessage(NON_ASCII, "image/png", "s3", 1L << 40));
+
+        for (int length = 0; length < encoded.length; length++) {
+            byte[] truncated = Arrays.copyOf(encoded, length);
+            assertThatThrownBy(() -> ImageProcessingMessageCodec.decode(truncated))
+                    .as("truncated to %d bytes", length)
+                    .isInstanceOf(IllegalArgumentException.class);
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        byte[] encoded = ImageProcessingMessageCodec.encode(new ImageProcessingMessage("a", null, null, 0));
+        encoded[0] = 2;
+
+        assertThatThrownBy(() -> ImageProcessingMessageCodec.decode(encoded))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("version 2");
+    }
+
+    @Test
+    void rejectsNegativeStringLength() {
+        // A ten byte varint of all ones decodes to -1
+        byte[] data = {ImageProcessingMessageCodec.VERSION,
+                -1, -1, -1, -1, -1, -1, -1, -1, -1, 1, 'a', 'b'};
+
+        assertThatThrownBy(() -> ImageProcessingMessageCodec.decode(data))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Malformed string length");
+    }
+
+    @Test
+    void rejectsStringLongerThanMessage() {
+        byte[] data = {ImageProcessingMessageCodec.VERSION, 10, 'a', 'b'};
+
+        assertThatThrownBy(() -> ImageProcessingMessageCodec.decode(data))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Truncated");
+    }
+
+    @Test
+    void rejectsOverlongVarint() {
+        byte[] data = new byte[12];
+        data[0] = ImageProcessingMessageCodec.VERSION;
+        Arrays.fill(data, 1, data.length, (byte) 0x80);
+
+        assertThatThrownBy(() -> ImageProcessingMessageCodec.decode(data))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Malformed varint");
+    }
+
+    @Test
+    void ignoresTrailingFields() {
+        ImageProcessingMessage message = new ImageProcessingMessage("photos/a.jpg", "image/jpeg", "s3", 7);
+        byte[] encoded = ImageProcessingMessageCodec.encode(message);
+        byte[] extended = Arrays.copyOf(encoded, encoded.length + 3);
+        extended[encoded.length] = 3;
+
+        assertThat(ImageProcessingMessageCodec.decode(extended)).isEqualTo(message);
+    }
+}
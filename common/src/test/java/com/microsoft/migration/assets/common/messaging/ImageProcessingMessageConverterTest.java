@@ -0,0 +1,59 @@
+package com.microsoft.migration.assets.common.messaging;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.AbstractJavaTypeMapper;
+import org.springframework.amqp.support.converter.MessageConversionException;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ImageProcessingMessageConverterTest {
+    private static final ImageProcessingMessage JOB = new ImageProcessingMessage("photos/a.jpg", "image/jpeg", "s3", 1234);
+
+    private final ImageProcessingMessageConverter binary =
+            new ImageProcessingMessageConverter(ImageProcessingMessageConverter.Format.BINARY);
+    private final ImageProcessingMessageConverter json =
+            new ImageProcessingMessageConverter(ImageProcessingMessageConverter.Format.JSON);
+
+    @Test
+    void readsBinaryJobs() {
+        Message message = binary.toMessage(JOB, new MessageProperties());
+
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(ImageProcessingMessageConverter.CONTENT_TYPE);
+        assertThat(binary.fromMessage(message)).isEqualTo(JOB);
+    }
+
+    @Test
+    void readsJsonJobs() {
+        Message message = json.toMessage(JOB, new MessageProperties());
+
+        assertThat(message.getMessageProperties().getContentType()).isEqualTo(MessageProperties.CONTENT_TYPE_JSON);
+        assertThat(binary.fromMessage(message)).isEqualTo(JOB);
+    }
+
+    @Test
+    void readsJsonJobsNamingTheLegacyClass() {
+        // As published by the web before the contract moved to common, with no inferred type
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(MessageProperties.CONTENT_TYPE_JSON);
+        properties.setContentEncoding(StandardCharsets.UTF_8.name());
+        properties.setHeader(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME, ImageProcessingMessageConverter.LEGACY_TYPE_ID);
+        Message message = new Message(("{\"key\":\"photos/a.jpg\",\"contentType\":\"image/jpeg\","
+                + "\"storageType\":\"s3\",\"size\":1234}").getBytes(StandardCharsets.UTF_8), properties);
+
+        assertThat(binary.fromMessage(message)).isEqualTo(JOB);
+    }
+
+    @Test
+    void rejectsCorruptBinaryJobs() {
+        MessageProperties properties = new MessageProperties();
+        properties.setContentType(ImageProcessingMessageConverter.CONTENT_TYPE);
+        Message message = new Message(new byte[]{ImageProcessingMessageCodec.VERSION, 5, 'a'}, properties);
+
+        assertThatThrownBy(() -> binary.fromMessage(message)).isInstanceOf(MessageConversionException.class);
+    }
+}
@@ -0,0 +1,120 @@
+package com.microsoft.migration.assets.common.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LocalStorageLayoutTest {
+    private static final Instant STORED_AT = Instant.parse("2024-01-01T00:00:00Z");
+
+    @TempDir
+    Path root;
+
+    @Test
+    void replaysPutsAndDeletes() throws IOException {
+        LocalStorageLayout writer = new LocalStorageLayout(root);
+        writer.recordPut("a.jpg", LocalStorageLayout.KIND_ORIGINAL, 10, STORED_AT, STORED_AT);
+        writer.recordPut("a_thumbnail.jpg", LocalStorageLayout.KIND_THUMBNAIL, 2, STORED_AT, STORED_AT);
+        writer.recordPut("b.jpg", LocalStorageLayout.KIND_ORIGINAL, 20, STORED_AT, STORED_AT);
+        writer.recordDelete("b.jpg", LocalStorageLayout.KIND_ORIGINAL);
+
+        LocalStorageLayout reader = new LocalStorageLayout(root);
+        assertThat(reader.list()).extracting(LocalStorageLayout.Entry::getKey)
+                .containsExactly("a.jpg", "a_thumbnail.jpg");
+        assertThat(reader.find("a_thumbnail.jpg")).get()
+                .extracting(LocalStorageLayout.Entry::getKind).isEqualTo(LocalStorageLayout.KIND_THUMBNAIL);
+
+        // Only the records appended since are read on the next call
+        writer.recordPut("c.jpg", LocalStorageLayout.KIND_ORIGINAL, 30, STORED_AT, STORED_AT);
+        assertThat(reader.list()).extracting(LocalStorageLayout.Entry::getKey)
+                .containsExactly("a.jpg", "a_thumbnail.jpg", "c.jpg");
+    }
+
+    @Test
+    void compactsOnceMostRecordsAreDead() throws IOException {
+        LocalStorageLayout layout = new LocalStorageLayout(root);
+        for (int i = 0; i < 6000; i++) {
+            layout.recordPut("key-" + i, LocalStorageLayout.KIND_ORIGINAL, i, STORED_AT, STORED_AT);
+        }
+        for (int i = 0; i < 5000; i++) {
+            layout.recordDelete("key-" + i, LocalStorageLayout.KIND_ORIGINAL);
+        }
+        long before = Files.size(index());
+
+        assertThat(layout.list()).hasSize(1000);
+        assertThat(Files.size(index())).isLessThan(before / 5);
+        assertThat(new LocalStorageLayout(root).list())
+                .extracting(LocalStorageLayout.Entry::getKey)
+                .startsWith("key-5000")
+                .hasSize(1000);
+
+        // Appends after the swap are picked up from the new file
+        layout.recordPut("after", LocalStorageLayout.KIND_ORIGINAL, 1, STORED_AT, STORED_AT);
+        assertThat(layout.find("after")).isPresent();
+    }
+
+    @Test
+    void truncatesTornTailBeforeAppending() throws IOException {
+        LocalStorageLayout writer = new LocalStorageLayout(root);
+        writer.recordPut("a.jpg", LocalStorageLayout.KIND_ORIGINAL, 10, STORED_AT, STORED_AT);
+        long complete = Files.size(index());
+        // A writer that died part-way through its record
+        byte[] torn = Arrays.copyOf(record("torn.jpg", "torn.jpg".length()), 12);
+        Files.write(index(), torn, StandardOpenOption.APPEND);
+
+        LocalStorageLayout reader = new LocalStorageLayout(root);
+        assertThat(reader.list()).extracting(LocalStorageLayout.Entry::getKey).containsExactly("a.jpg");
+
+        writer.recordPut("b.jpg", LocalStorageLayout.KIND_ORIGINAL, 20, STORED_AT, STORED_AT);
+        assertThat(Files.size(index())).isEqualTo(2 * complete);
+        assertThat(reader.list()).extracting(LocalStorageLayout.Entry::getKey).containsExactly("a.jpg", "b.jpg");
+        assertThat(new LocalStorageLayout(root).list()).extracting(LocalStorageLayout.Entry::getKey)
+                .containsExactly("a.jpg", "b.jpg");
+    }
+
+    @Test
+    void stopsAtRecordWhoseKeyLengthDisagrees() throws IOException {
+        LocalStorageLayout writer = new LocalStorageLayout(root);
+        writer.recordPut("a.jpg", LocalStorageLayout.KIND_ORIGINAL, 10, STORED_AT, STORED_AT);
+        Files.write(index(), record("bad.jpg", 0xFFFF), StandardOpenOption.APPEND);
+
+        assertThat(new LocalStorageLayout(root).list()).extracting(LocalStorageLayout.Entry::getKey)
+                .containsExactly("a.jpg");
+
+        writer.recordPut("b.jpg", LocalStorageLayout.KIND_ORIGINAL, 20, STORED_AT, STORED_AT);
+        assertThat(new LocalStorageLayout(root).list()).extracting(LocalStorageLayout.Entry::getKey)
+                .containsExactly("a.jpg", "b.jpg");
+    }
+
+    private Path index() {
+        return root.resolve(LocalStorageLayout.INDEX_FILE);
+    }
+
+    /**
+     * A put record for the key, claiming the given key length.
+     */
+    private static byte[] record(String key, int keyLength) {
+        byte[] name = key.getBytes(StandardCharsets.UTF_8);
+        int fixedBytes = 1 + 1 + Long.BYTES * 3 + Short.BYTES;
+        ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES + fixedBytes + name.length);
+        buffer.putInt(fixedBytes + name.length)
+                .put((byte) 1)
+                .put(LocalStorageLayout.KIND_ORIGINAL)
+                .putLong(1)
+                .putLong(0)
+                .putLong(0)
+                .putShort((short) keyLength)
+                .put(name);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,158 @@
+package com.microsoft.migration.assets.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One of the application modules running from its executable jar in a child JVM.
+ * Extra jars (such as the H2 driver) are added through Spring Boot's
+ * PropertiesLauncher, so the production jars are used unmodified.
+ */
+@Slf4j
+public class ApplicationProcess implements AutoCloseable {
+
+    private final String name;
+    private final int port;
+    private final Process process;
+
+    private ApplicationProcess(String name, int port, Process process) {
+        this.name = name;
+        this.port = port;
+        this.process = process;
+    }
+
+    public static ApplicationProcess start(String name, Path jar, String mainClass, List<Path> extraJars,
+                                           List<String> jvmArgs, Map<String, String> properties,
+                                           List<String> args, Path workDir) throws IOException {
+        if (!Files.isRegularFile(jar)) {
+            throw new IOException("Application jar not found: " + jar + " (build with: ./mvnw -Ploadtest -DskipTests package)");
+        }
+        int port = EmbeddedBroker.freePort();
+        Path appDir = Files.createDirectories(workDir.resolve(name));
+
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmArgs);
+        command.add("-Dloader.main=" + mainClass);
+        if (!extraJars.isEmpty()) {
+            StringBuilder loaderPath = new StringBuilder();
+            for (Path extraJar : extraJars) {
+                loaderPath.append(loaderPath.length() == 0 ? "" : ",").append(extraJar);
+            }
+            command.add("-Dloader.path=" + loaderPath);
+        }
+        command.add("-cp");
+        command.add(jar.toString());
+        command.add("org.springframework.boot.loader.PropertiesLauncher");
+        command.add("--server.port=" + port);
+        command.add("--spring.pid.file=" + appDir.resolve("application.pid"));
+        properties.forEach((key, value) -> command.add("--" + key + "=" + value));
+        command.addAll(args);
+
+        Path logFile = appDir.resolve(name + ".log");
+        Process process = new ProcessBuilder(command)
+                .directory(appDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(logFile.toFile())
+                .start();
+        log.info("Started {} on port {} (pid {}), logging to {}", name, port, process.pid(), logFile);
+        return new ApplicationProcess(name, port, process);
+    }
+
+    /**
+     * Poll the given path until it answers without a server error.
+     */
+    public void awaitReady(String path, Duration timeout) throws Exception {
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(getBaseUrl() + path))
+                .timeout(Duration.ofSeconds(5))
+                .build();
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while (System.nanoTime() < deadline) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException(name + " exited with code " + process.exitValue() + " during startup");
+            }
+            try {
+                HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                if (response.statusCode() < 500) {
+                    log.info("{} is ready", name);
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(500);
+        }
+        throw new IllegalStateException(name + " did not become ready within " + timeout);
+    }
+
+    /**
+     * Locate the jar that provides a class as a plain file, copying it out of this
+     * harness's executable jar when it is nested there.
+     */
+    public static Path jarOf(Class<?> type, Path workDir) throws IOException, URISyntaxException {
+        URL location = type.getProtectionDomain().getCodeSource().getLocation();
+        if ("file".equals(location.getProtocol())) {
+            return Paths.get(location.toURI());
+        }
+        String nested = location.toString();
+        if (nested.endsWith("!/")) {
+            nested = nested.substring(0, nested.length() - 2);
+        }
+        Path target = Files.createDirectories(workDir.resolve("lib")).resolve(nested.substring(nested.lastIndexOf('/') + 1));
+        try (InputStream in = new URL(nested).openStream()) {
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    /**
+     * Peak resident memory and current thread count of the child JVM, read from
+     * {@code /proc}; empty where that is not available.
+     */
+    public String describeResources() {
+        try {
+            String rss = "?";
+            String threads = "?";
+            for (String line : Files.readAllLines(Paths.get("/proc", String.valueOf(process.pid()), "status"))) {
+                if (line.startsWith("VmHWM:")) {
+                    rss = String.valueOf(Long.parseLong(line.replaceAll("\\D", "")) / 1024) + " MB";
+                } else if (line.startsWith("Threads:")) {
+                    threads = line.substring("Threads:".length()).trim();
+                }
+            }
+            return String.format("%s: peak RSS %s, threads %s", name, rss, threads);
+        } catch (IOException | RuntimeException e) {
+            return "";
+        }
+    }
+
+    public String getBaseUrl() {
+        return "http://localhost:" + port;
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        process.destroy();
+        if (!process.waitFor(20, TimeUnit.SECONDS)) {
+            process.destroyForcibly();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.microsoft.migration.assets.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.qpid.server.SystemLauncher;
+import org.apache.qpid.server.model.SystemConfig;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Embedded Qpid Broker-J speaking AMQP 0-9-1, so the applications' RabbitMQ
+ * clients can connect without an external broker. Messages are kept in memory.
+ */
+@Slf4j
+public class EmbeddedBroker implements AutoCloseable {
+
+    public static final String VIRTUAL_HOST = "default";
+
+    static {
+        // Qpid loads its defaults from classpath: URLs. The JDK only discovers protocol
+        // handlers on the system class path, which excludes jars nested in this
+        // executable jar, so resolve them against the application class loader here.
+        URL.setURLStreamHandlerFactory(protocol -> !"classpath".equals(protocol) ? null : new URLStreamHandler() {
+            @Override
+            protected URLConnection openConnection(URL url) throws IOException {
+                URL resource = EmbeddedBroker.class.getClassLoader().getResource(url.getPath());
+                if (resource == null) {
+                    throw new FileNotFoundException(url.toString());
+                }
+                return resource.openConnection();
+            }
+        });
+    }
+
+    private final SystemLauncher launcher = new SystemLauncher();
+    private final int port;
+
+    public EmbeddedBroker(Path workDir) throws Exception {
+        this.port = freePort();
+
+        Map<String, String> context = new HashMap<>();
+        context.put("qpid.amqp_port", String.valueOf(port));
+        context.put("qpid.work_dir", Files.createDirectories(workDir.resolve("qpid")).toString());
+        // Qpid has no RabbitMQ TTL or dead-lettering, so the worker's retry queue is declared
+        // as a plain queue: failed small-lane jobs stay there instead of returning to the lane
+        context.put("queue.behaviourOnUnknownDeclareArgument", "IGNORE");
+
+        Map<String, Object> attributes = new HashMap<>();
+        attributes.put(SystemConfig.TYPE, "Memory");
+        attributes.put(SystemConfig.INITIAL_CONFIGURATION_LOCATION,
+                EmbeddedBroker.class.getClassLoader().getResource("qpid-config.json").toExternalForm());
+        attributes.put(SystemConfig.STARTUP_LOGGED_TO_SYSTEM_OUT, false);
+        attributes.put(SystemConfig.CONTEXT, context);
+        launcher.startup(attributes);
+        log.info("Embedded AMQP broker listening on port {}", port);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    @Override
+    public void close() {
+        launcher.shutdown();
+    }
+
+    static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,393 @@
+package com.microsoft.migration.assets.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process stand-in for the subset of the S3 REST API the applications use,
+ * with path-style addressing and objects held in memory. An optional fixed
+ * latency per request simulates the round trip to a real bucket.
+ */
+@Slf4j
+public class FakeS3Server implements AutoCloseable {
+
+    private static final DateTimeFormatter ISO_MILLIS =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d*)");
+    private static final Pattern DELETE_KEY = Pattern.compile("<Object>\\s*<Key>(.*?)</Key>", Pattern.DOTALL);
+
+    private final Map<String, NavigableMap<String, StoredObject>> buckets = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> putListeners = new ArrayList<>();
+    private final int latencyMs;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public FakeS3Server(int latencyMs) throws IOException {
+        this.latencyMs = latencyMs;
+        this.server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        this.executor = Executors.newCachedThreadPool();
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public void start() {
+        server.start();
+        log.info("Fake S3 listening on {}", getEndpoint());
+    }
+
+    public String getEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * Register a callback invoked with the key of every stored object.
+     */
+    public void onPut(Consumer<String> listener) {
+        putListeners.add(listener);
+    }
+
+    public List<String> keys(String bucket) {
+        return new ArrayList<>(bucket(bucket).keySet());
+    }
+
+    /**
+     * Keys across every bucket, for runs with partitions spread over several buckets.
+     */
+    public List<String> keys() {
+        List<String> keys = new ArrayList<>();
+        buckets.values().forEach(objects -> keys.addAll(objects.keySet()));
+        return keys;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (latencyMs > 0) {
+                Thread.sleep(latencyMs);
+            }
+            String path = exchange.getRequestURI().getRawPath();
+            int slash = path.indexOf('/', 1);
+            String bucket = decode(slash < 0 ? path.substring(1) : path.substring(1, slash));
+            String key = slash < 0 ? "" : decode(path.substring(slash + 1));
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            String method = exchange.getRequestMethod();
+
+            if (key.isEmpty() && "GET".equals(method)) {
+                listObjects(exchange, bucket, query);
+            } else if ("PUT".equals(method) && exchange.getRequestHeaders().containsKey("x-amz-copy-source")) {
+                copyObject(exchange, bucket, key);
+            } else if ("PUT".equals(method)) {
+                putObject(exchange, bucket, key);
+            } else if ("GET".equals(method) || "HEAD".equals(method)) {
+                getObject(exchange, bucket, key, "HEAD".equals(method));
+            } else if ("POST".equals(method) && key.isEmpty() && query.containsKey("delete")) {
+                deleteObjects(exchange, bucket);
+            } else if ("DELETE".equals(method)) {
+                bucket(bucket).remove(key);
+                exchange.sendResponseHeaders(204, -1);
+            } else {
+                sendError(exchange, 501, "NotImplemented", method + " " + path);
+            }
+        } catch (Exception e) {
+            log.error("Fake S3 request failed: {} {}", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            sendError(exchange, 500, "InternalError", e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void putObject(HttpExchange exchange, String bucket, String key) throws IOException {
+        byte[] body = exchange.getRequestBody().readAllBytes();
+        String sha = exchange.getRequestHeaders().getFirst("x-amz-content-sha256");
+        String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+        if ((sha != null && sha.startsWith("STREAMING-")) || (encoding != null && encoding.contains("aws-chunked"))) {
+            body = decodeAwsChunked(body);
+        }
+        String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+        StoredObject object = new StoredObject(body, contentType, Instant.now(), md5(body));
+        bucket(bucket).put(key, object);
+
+        exchange.getResponseHeaders().add("ETag", "\"" + object.etag + "\"");
+        exchange.sendResponseHeaders(200, -1);
+        putListeners.forEach(listener -> listener.accept(key));
+    }
+
+    /**
+     * Server-side copy; the source header is {@code [/]bucket/key[?versionId=...]}, URL-encoded.
+     */
+    private void copyObject(HttpExchange exchange, String bucket, String key) throws IOException {
+        String source = exchange.getRequestHeaders().getFirst("x-amz-copy-source");
+        int queryStart = source.indexOf('?');
+        if (queryStart >= 0) {
+            source = source.substring(0, queryStart);
+        }
+        source = source.startsWith("/") ? source.substring(1) : source;
+        int slash = source.indexOf('/');
+        StoredObject original = slash < 0 ? null
+                : bucket(decode(source.substring(0, slash))).get(decode(source.substring(slash + 1)));
+        if (original == null) {
+            sendError(exchange, 404, "NoSuchKey", source);
+            return;
+        }
+        StoredObject object = new StoredObject(original.data, original.contentType, Instant.now(), original.etag);
+        bucket(bucket).put(key, object);
+
+        sendXml(exchange, 200, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><CopyObjectResult>"
+                + "<LastModified>" + ISO_MILLIS.format(object.lastModified) + "</LastModified>"
+                + "<ETag>&quot;" + object.etag + "&quot;</ETag></CopyObjectResult>");
+        putListeners.forEach(listener -> listener.accept(key));
+    }
+
+    private void getObject(HttpExchange exchange, String bucket, String key, boolean headOnly) throws IOException {
+        StoredObject object = bucket(bucket).get(key);
+        if (object == null) {
+            if (headOnly) {
+                exchange.sendResponseHeaders(404, -1);
+            } else {
+                sendError(exchange, 404, "NoSuchKey", key);
+            }
+            return;
+        }
+        exchange.getResponseHeaders().add("ETag", "\"" + object.etag + "\"");
+        exchange.getResponseHeaders().add("Last-Modified",
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(object.lastModified.atZone(ZoneOffset.UTC)));
+        if (object.contentType != null) {
+            exchange.getResponseHeaders().add("Content-Type", object.contentType);
+        }
+        if (headOnly) {
+            exchange.getResponseHeaders().add("Content-Length", String.valueOf(object.data.length));
+            exchange.sendResponseHeaders(200, -1);
+            return;
+        }
+        Matcher range = RANGE.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+        if (range.matches() && object.data.length > 0) {
+            int first = Integer.parseInt(range.group(1));
+            int last = range.group(2).isEmpty() ? object.data.length - 1
+                    : (int) Math.min(Long.parseLong(range.group(2)), object.data.length - 1);
+            if (first > last) {
+                sendError(exchange, 416, "InvalidRange", range.group());
+                return;
+            }
+            exchange.getResponseHeaders().add("Content-Range",
+                    "bytes " + first + "-" + last + "/" + object.data.length);
+            exchange.sendResponseHeaders(206, last - first + 1);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(object.data, first, last - first + 1);
+            }
+            return;
+        }
+        exchange.sendResponseHeaders(200, object.data.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(object.data);
+        }
+    }
+
+    /**
+     * Multi-object delete: removes every {@code <Key>} in the request and reports each
+     * one as deleted (missing keys count as deleted, as in S3) unless {@code <Quiet>} is set.
+     */
+    private void deleteObjects(HttpExchange exchange, String bucket) throws IOException {
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        boolean quiet = body.contains("<Quiet>true</Quiet>");
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<DeleteResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+        Matcher matcher = DELETE_KEY.matcher(body);
+        while (matcher.find()) {
+            String key = unescape(matcher.group(1));
+            bucket(bucket).remove(key);
+            if (!quiet) {
+                xml.append("<Deleted><Key>").append(escape(key)).append("</Key></Deleted>");
+            }
+        }
+        sendXml(exchange, 200, xml.append("</DeleteResult>").toString());
+    }
+
+    private void listObjects(HttpExchange exchange, String bucket, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+        String startAfter = query.getOrDefault("continuation-token", query.get("start-after"));
+        boolean urlEncoded = "url".equals(query.get("encoding-type"));
+
+        NavigableMap<String, StoredObject> objects = bucket(bucket);
+        NavigableMap<String, StoredObject> range = startAfter == null ? objects : objects.tailMap(startAfter, false);
+
+        StringBuilder contents = new StringBuilder();
+        int count = 0;
+        String lastKey = null;
+        boolean truncated = false;
+        for (Map.Entry<String, StoredObject> entry : range.entrySet()) {
+            if (!entry.getKey().startsWith(prefix)) {
+                if (entry.getKey().compareTo(prefix) > 0) {
+                    break;
+                }
+                continue;
+            }
+            if (count == maxKeys) {
+                truncated = true;
+                break;
+            }
+            StoredObject object = entry.getValue();
+            contents.append("<Contents><Key>").append(xmlKey(entry.getKey(), urlEncoded)).append("</Key>")
+                    .append("<LastModified>").append(ISO_MILLIS.format(object.lastModified)).append("</LastModified>")
+                    .append("<ETag>&quot;").append(object.etag).append("&quot;</ETag>")
+                    .append("<Size>").append(object.data.length).append("</Size>")
+                    .append("<StorageClass>STANDARD</StorageClass></Contents>");
+            lastKey = entry.getKey();
+            count++;
+        }
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>")
+                .append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">")
+                .append("<Name>").append(escape(bucket)).append("</Name>")
+                .append("<Prefix>").append(xmlKey(prefix, urlEncoded)).append("</Prefix>")
+                .append("<KeyCount>").append(count).append("</KeyCount>")
+                .append("<MaxKeys>").append(maxKeys).append("</MaxKeys>")
+                .append("<IsTruncated>").append(truncated).append("</IsTruncated>");
+        if (urlEncoded) {
+            xml.append("<EncodingType>url</EncodingType>");
+        }
+        if (truncated) {
+            xml.append("<NextContinuationToken>").append(escape(lastKey)).append("</NextContinuationToken>");
+        }
+        xml.append(contents).append("</ListBucketResult>");
+        sendXml(exchange, 200, xml.toString());
+    }
+
+    private NavigableMap<String, StoredObject> bucket(String name) {
+        return buckets.computeIfAbsent(name, ignored -> new ConcurrentSkipListMap<>());
+    }
+
+    /**
+     * Strip the aws-chunked framing ({@code <hex-size>;chunk-signature=...\r\n<data>\r\n}) the SDK
+     * uses for streaming uploads over plain HTTP.
+     */
+    private static byte[] decodeAwsChunked(byte[] body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length);
+        int pos = 0;
+        while (pos < body.length) {
+            int lineEnd = indexOfCrlf(body, pos);
+            if (lineEnd < 0) {
+                break;
+            }
+            String header = new String(body, pos, lineEnd - pos, StandardCharsets.US_ASCII);
+            int semicolon = header.indexOf(';');
+            int size = Integer.parseInt((semicolon < 0 ? header : header.substring(0, semicolon)).trim(), 16);
+            if (size == 0) {
+                break;
+            }
+            out.write(body, lineEnd + 2, size);
+            pos = lineEnd + 2 + size + 2;
+        }
+        return out.toByteArray();
+    }
+
+    private static int indexOfCrlf(byte[] data, int from) {
+        for (int i = from; i < data.length - 1; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String code, String message) throws IOException {
+        sendXml(exchange, status, "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code
+                + "</Code><Message>" + escape(String.valueOf(message)) + "</Message></Error>");
+    }
+
+    private static void sendXml(HttpExchange exchange, int status, String xml) throws IOException {
+        byte[] bytes = xml.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/xml");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            params.put(decode(eq < 0 ? pair : pair.substring(0, eq)), eq < 0 ? "" : decode(pair.substring(eq + 1)));
+        }
+        return params;
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
+
+    private static String xmlKey(String key, boolean urlEncoded) {
+        return urlEncoded ? URLEncoder.encode(key, StandardCharsets.UTF_8).replace("+", "%20") : escape(key);
+    }
+
+    private static String escape(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;")
+                .replace("\"", "&quot;").replace("'", "&apos;");
+    }
+
+    private static String unescape(String value) {
+        return value.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+                .replace("&apos;", "'").replace("&amp;", "&");
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(data)) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class StoredObject {
+        private final byte[] data;
+        private final String contentType;
+        private final Instant lastModified;
+        private final String etag;
+
+        StoredObject(byte[] data, String contentType, Instant lastModified, String etag) {
+            this.data = data;
+            this.contentType = contentType;
+            this.lastModified = lastModified;
+            this.etag = etag;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.microsoft.migration.assets.loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram and error count for one operation. Samples are recorded
+ * lock-free; {@link #interval()} drains them into the cumulative histogram.
+ */
+public class LatencyStats {
+    private static final long MAX_TRACKABLE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+    private final String name;
+    private final Recorder recorder = new Recorder(MAX_TRACKABLE_MICROS, 3);
+    private final Histogram total = new Histogram(MAX_TRACKABLE_MICROS, 3);
+    private final LongAdder errors = new LongAdder();
+    private Histogram intervalHistogram;
+
+    public LatencyStats(String name) {
+        this.name = name;
+    }
+
+    public void record(long startNanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos);
+        recorder.recordValue(Math.min(Math.max(micros, 0), MAX_TRACKABLE_MICROS));
+    }
+
+    public void error() {
+        errors.increment();
+    }
+
+    /**
+     * Take the samples recorded since the previous call and add them to the totals.
+     * Must be called from a single reporting thread.
+     */
+    public synchronized Histogram interval() {
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        total.add(intervalHistogram);
+        return intervalHistogram;
+    }
+
+    public synchronized Histogram total() {
+        return total;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public static String format(String name, Histogram histogram, long errors, double seconds) {
+        return String.format("%-18s %8d %7d %9.1f %9.1f %9.1f %9.1f",
+                name,
+                histogram.getTotalCount(),
+                errors,
+                seconds > 0 ? histogram.getTotalCount() / seconds : 0,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getMaxValue() / 1000.0);
+    }
+
+    public static String header() {
+        return String.format("%-18s %8s %7s %9s %9s %9s %9s",
+                "operation", "count", "errors", "req/s", "p50 ms", "p99 ms", "max ms");
+    }
+}
@@ -0,0 +1,62 @@
+package com.microsoft.migration.assets.loadtest;
+
+import lombok.Getter;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Harness settings, read from {@code -Dloadtest.*} system properties.
+ */
+@Getter
+public class LoadTestConfig {
+    private final Path webJar = path("webJar", "web/target/assets-manager-web-0.0.1-SNAPSHOT.jar");
+    private final Path workerJar = path("workerJar", "worker/target/assets-manager-worker-0.0.1-SNAPSHOT.jar");
+    private final Path workDir = path("workDir", "loadtest/target/loadtest");
+    private final int durationSeconds = integer("duration", 60);
+    private final int warmupSeconds = integer("warmup", 10);
+    private final int users = integer("users", 16);
+    private final Map<String, Integer> mix = mix(System.getProperty("loadtest.mix", "upload=20,list=20,view=60"));
+    private final int imageWidth = integer("imageWidth", 1920);
+    private final int imageHeight = integer("imageHeight", 1080);
+    private final int thumbnailTimeoutSeconds = integer("thumbnailTimeout", 120);
+    private final int reportIntervalSeconds = integer("reportInterval", 10);
+    private final int s3LatencyMs = integer("s3LatencyMs", 0);
+    private final List<String> webJvmArgs = list("webJvmArgs", "-Xmx512m");
+    private final List<String> workerJvmArgs = list("workerJvmArgs", "-Xmx512m");
+    private final List<String> webArgs = list("webArgs", "");
+    private final List<String> workerArgs = list("workerArgs", "");
+
+    private static Path path(String name, String defaultValue) {
+        return Paths.get(System.getProperty("loadtest." + name, defaultValue)).toAbsolutePath().normalize();
+    }
+
+    private static int integer(String name, int defaultValue) {
+        return Integer.parseInt(System.getProperty("loadtest." + name, String.valueOf(defaultValue)));
+    }
+
+    private static List<String> list(String name, String defaultValue) {
+        String value = System.getProperty("loadtest." + name, defaultValue).trim();
+        return value.isEmpty() ? Collections.emptyList() : Arrays.asList(value.split("\\s+"));
+    }
+
+    /**
+     * Parse a weighted operation mix such as {@code upload=20,list=20,view=60}.
+     */
+    private static Map<String, Integer> mix(String value) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split("=");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("Invalid loadtest.mix entry: " + entry);
+            }
+            weights.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        return weights;
+    }
+}
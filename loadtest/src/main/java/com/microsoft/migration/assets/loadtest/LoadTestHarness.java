@@ -0,0 +1,318 @@
+package com.microsoft.migration.assets.loadtest;
+
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.h2.tools.Server;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * End-to-end load and soak test. Starts a fake S3 endpoint, an embedded AMQP
+ * broker and an H2 server in this JVM, launches the web and worker jars against
+ * them, then drives a weighted upload/list/view mix through the web tier and
+ * reports throughput, per-endpoint latency percentiles and time-to-thumbnail.
+ * <p>
+ * Run from the project root after {@code ./mvnw -Ploadtest -DskipTests package}:
+ * {@code java -Dloadtest.duration=300 -jar loadtest/target/assets-manager-loadtest-0.0.1-SNAPSHOT.jar}
+ */
+@Slf4j
+public class LoadTestHarness {
+
+    static final String BUCKET = "loadtest";
+    private static final Pattern THUMBNAIL_KEY = Pattern.compile(".*(lt-\\d+)_thumbnail\\.jpg$");
+
+    private final LoadTestConfig config;
+    private final FakeS3Server s3;
+    private final String webUrl;
+    private final HttpClient client = HttpClient.newBuilder()
+            .followRedirects(HttpClient.Redirect.NEVER)
+            .connectTimeout(Duration.ofSeconds(5))
+            .build();
+    private final Map<String, LatencyStats> operations = new LinkedHashMap<>();
+    private final LatencyStats timeToThumbnail = new LatencyStats("time-to-thumbnail");
+    private final Map<String, Long> pendingThumbnails = new ConcurrentHashMap<>();
+    private final AtomicLong uploadSequence = new AtomicLong();
+    private final List<byte[]> images = new ArrayList<>();
+    private volatile long measureStartNanos;
+
+    public LoadTestHarness(LoadTestConfig config, FakeS3Server s3, String webUrl) throws IOException {
+        this.config = config;
+        this.s3 = s3;
+        this.webUrl = webUrl;
+        for (String operation : config.getMix().keySet()) {
+            operations.put(operation, new LatencyStats(operation));
+        }
+        for (int i = 0; i < 4; i++) {
+            images.add(sampleImage(config.getImageWidth(), config.getImageHeight(), i));
+        }
+        s3.onPut(this::objectStored);
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestConfig config = new LoadTestConfig();
+        Path workDir = Files.createDirectories(config.getWorkDir());
+        Path h2Jar = ApplicationProcess.jarOf(Server.class, workDir);
+
+        Server h2 = Server.createTcpServer("-tcpPort", String.valueOf(EmbeddedBroker.freePort()), "-ifNotExists").start();
+        try (FakeS3Server s3 = new FakeS3Server(config.getS3LatencyMs());
+             EmbeddedBroker broker = new EmbeddedBroker(workDir)) {
+            s3.start();
+
+            Map<String, String> shared = new LinkedHashMap<>();
+            shared.put("spring.datasource.url", "jdbc:h2:tcp://localhost:" + h2.getPort() + "/mem:assets;DB_CLOSE_DELAY=-1");
+            shared.put("spring.datasource.driver-class-name", "org.h2.Driver");
+            shared.put("spring.datasource.username", "sa");
+            shared.put("spring.datasource.password", "");
+            shared.put("spring.jpa.properties.hibernate.dialect", "org.hibernate.dialect.H2Dialect");
+            shared.put("spring.jpa.show-sql", "false");
+            // H2 already orders keys like S3 does
+            shared.put("assets.catalog.reconcile.key-collation", "");
+            shared.put("spring.rabbitmq.host", "localhost");
+            shared.put("spring.rabbitmq.port", String.valueOf(broker.getPort()));
+            shared.put("spring.rabbitmq.virtual-host", EmbeddedBroker.VIRTUAL_HOST);
+            shared.put("aws.s3.endpoint", s3.getEndpoint());
+            shared.put("aws.s3.bucket", BUCKET);
+            shared.put("aws.region", "us-east-1");
+            shared.put("aws.accessKey", "loadtest");
+            shared.put("aws.accessKeyId", "loadtest");
+            shared.put("aws.secretKey", "loadtest");
+
+            try (ApplicationProcess web = ApplicationProcess.start("web", config.getWebJar(),
+                    "com.microsoft.migration.assets.AssetsManagerApplication", List.of(h2Jar),
+                    config.getWebJvmArgs(), shared, config.getWebArgs(), workDir);
+                 ApplicationProcess worker = ApplicationProcess.start("worker", config.getWorkerJar(),
+                         "com.microsoft.migration.assets.worker.WorkerApplication", List.of(h2Jar),
+                         config.getWorkerJvmArgs(), shared, config.getWorkerArgs(), workDir)) {
+                web.awaitReady("/s3", Duration.ofMinutes(2));
+                worker.awaitReady("/actuator/health", Duration.ofMinutes(2));
+
+                String report = new LoadTestHarness(config, s3, web.getBaseUrl()).run()
+                        + web.describeResources() + System.lineSeparator()
+                        + worker.describeResources() + System.lineSeparator();
+                Files.writeString(workDir.resolve("report.txt"), report);
+                System.out.println(report);
+            }
+        } finally {
+            h2.stop();
+        }
+    }
+
+    /**
+     * Drive the configured mix for warm-up plus duration, then wait for outstanding thumbnails.
+     */
+    public String run() throws Exception {
+        long start = System.nanoTime();
+        measureStartNanos = start + TimeUnit.SECONDS.toNanos(config.getWarmupSeconds());
+        long end = measureStartNanos + TimeUnit.SECONDS.toNanos(config.getDurationSeconds());
+        log.info("Running {} users for {}s warm-up + {}s, mix {}", config.getUsers(), config.getWarmupSeconds(),
+                config.getDurationSeconds(), config.getMix());
+
+        ExecutorService users = Executors.newFixedThreadPool(config.getUsers());
+        for (int i = 0; i < config.getUsers(); i++) {
+            users.submit(() -> virtualUser(end));
+        }
+        users.shutdown();
+
+        long nextReport = measureStartNanos + TimeUnit.SECONDS.toNanos(config.getReportIntervalSeconds());
+        while (!users.awaitTermination(200, TimeUnit.MILLISECONDS)) {
+            if (System.nanoTime() >= nextReport) {
+                printInterval(config.getReportIntervalSeconds());
+                nextReport += TimeUnit.SECONDS.toNanos(config.getReportIntervalSeconds());
+            }
+        }
+        double measuredSeconds = Math.max(System.nanoTime() - measureStartNanos, 1) / 1e9;
+
+        long thumbnailDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getThumbnailTimeoutSeconds());
+        while (!pendingThumbnails.isEmpty() && System.nanoTime() < thumbnailDeadline) {
+            Thread.sleep(250);
+        }
+        return summary(measuredSeconds);
+    }
+
+    private void virtualUser(long endNanos) {
+        int totalWeight = config.getMix().values().stream().mapToInt(Integer::intValue).sum();
+        while (System.nanoTime() < endNanos) {
+            int pick = ThreadLocalRandom.current().nextInt(totalWeight);
+            for (Map.Entry<String, Integer> entry : config.getMix().entrySet()) {
+                pick -= entry.getValue();
+                if (pick < 0) {
+                    execute(entry.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    private void execute(String operation) {
+        LatencyStats stats = operations.get(operation);
+        long startNanos = System.nanoTime();
+        boolean measured = startNanos >= measureStartNanos;
+        try {
+            boolean ok;
+            switch (operation) {
+                case "upload":
+                    ok = upload(measured);
+                    break;
+                case "list":
+                    ok = get("/s3") == 200;
+                    break;
+                case "view":
+                    ok = view();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown operation in loadtest.mix: " + operation);
+            }
+            if (measured) {
+                if (ok) {
+                    stats.record(startNanos);
+                } else {
+                    stats.error();
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            if (measured) {
+                stats.error();
+            }
+            log.debug("{} failed", operation, e);
+        }
+    }
+
+    private boolean upload(boolean measured) throws IOException, InterruptedException {
+        String name = "lt-" + uploadSequence.incrementAndGet();
+        byte[] image = images.get(ThreadLocalRandom.current().nextInt(images.size()));
+        String boundary = "----loadtest" + UUID.randomUUID();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream(image.length + 512);
+        body.write(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + name + ".jpg\"\r\n"
+                + "Content-Type: image/jpeg\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.write(image);
+        body.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(webUrl + "/s3/upload"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+        long startNanos = System.nanoTime();
+        if (measured) {
+            pendingThumbnails.put(name, startNanos);
+        }
+        HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+        boolean ok = response.statusCode() == 302
+                && !response.headers().firstValue("Location").orElse("").endsWith("/upload");
+        if (!ok) {
+            pendingThumbnails.remove(name);
+        }
+        return ok;
+    }
+
+    private boolean view() throws IOException, InterruptedException {
+        List<String> keys = s3.keys();
+        keys.removeIf(key -> key.contains("_thumbnail"));
+        if (keys.isEmpty()) {
+            return get("/s3") == 200;
+        }
+        String key = keys.get(ThreadLocalRandom.current().nextInt(keys.size()));
+        return get("/s3/view/" + URLEncoder.encode(key, StandardCharsets.UTF_8).replace("+", "%20")) == 200;
+    }
+
+    private int get(String path) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(webUrl + path)).GET().build();
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+
+    private void objectStored(String key) {
+        Matcher matcher = THUMBNAIL_KEY.matcher(key);
+        if (matcher.matches()) {
+            Long startNanos = pendingThumbnails.remove(matcher.group(1));
+            if (startNanos != null) {
+                timeToThumbnail.record(startNanos);
+            }
+        }
+    }
+
+    private void printInterval(int seconds) {
+        StringBuilder out = new StringBuilder("--- last ").append(seconds).append("s ---\n")
+                .append(LatencyStats.header()).append('\n');
+        for (LatencyStats stats : operations.values()) {
+            out.append(LatencyStats.format(stats.getName(), stats.interval(), stats.getErrors(), seconds)).append('\n');
+        }
+        out.append(LatencyStats.format(timeToThumbnail.getName(), timeToThumbnail.interval(), 0, seconds));
+        System.out.println(out);
+    }
+
+    private String summary(double seconds) {
+        StringBuilder out = new StringBuilder()
+                .append(String.format("=== Load test: %d users, %.0fs measured, mix %s, %dx%d images ===%n",
+                        config.getUsers(), seconds, config.getMix(), config.getImageWidth(), config.getImageHeight()))
+                .append(LatencyStats.header()).append('\n');
+        long total = 0;
+        for (LatencyStats stats : operations.values()) {
+            stats.interval();
+            Histogram histogram = stats.total();
+            total += histogram.getTotalCount();
+            out.append(LatencyStats.format(stats.getName(), histogram, stats.getErrors(), seconds)).append('\n');
+        }
+        timeToThumbnail.interval();
+        out.append(LatencyStats.format(timeToThumbnail.getName(), timeToThumbnail.total(), pendingThumbnails.size(), seconds))
+                .append('\n')
+                .append(String.format("throughput: %.1f req/s; thumbnails still pending after %ds: %d%n",
+                        total / seconds, config.getThumbnailTimeoutSeconds(), pendingThumbnails.size()));
+        return out.toString();
+    }
+
+    /**
+     * A photo-like JPEG: smooth gradients with some noise, so it neither compresses
+     * to nothing nor behaves like pure noise.
+     */
+    private static byte[] sampleImage(int width, int height, int seed) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        Random random = new Random(seed);
+        g.setPaint(new GradientPaint(0, 0, new Color(random.nextInt(0xFFFFFF)), width, height,
+                new Color(random.nextInt(0xFFFFFF))));
+        g.fillRect(0, 0, width, height);
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(random.nextInt(0xFFFFFF)));
+            g.fillOval(random.nextInt(width), random.nextInt(height), width / 8, height / 8);
+        }
+        g.dispose();
+        for (int i = 0; i < width * height / 8; i++) {
+            image.setRGB(random.nextInt(width), random.nextInt(height), random.nextInt(0xFFFFFF));
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,70 @@
+package com.microsoft.migration.assets.loadtest;
+
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessage;
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessageConverter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.support.converter.MessageConverter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes and decodes a typical thumbnail job through the binary converter and through
+ * the JSON converter it replaces, as the publisher and the listener container do. Run
+ * with {@code scripts/benchmark-message-codec.sh}; the GC profiler it enables reports
+ * the bytes allocated per operation next to the timings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageCodecBenchmark {
+    private final ImageProcessingMessage job = new ImageProcessingMessage(
+            "7c/3f9a2e41-5b8d-4c17-a0e6-d2b94f71c8e3-holiday-2024-beach.jpg", "image/jpeg", "s3", 2_483_117L);
+    private final MessageConverter binary = new ImageProcessingMessageConverter(ImageProcessingMessageConverter.Format.BINARY);
+    private final MessageConverter json = new Jackson2JsonMessageConverter();
+
+    private Message binaryMessage;
+    private Message jsonMessage;
+
+    @Setup
+    public void setUp() {
+        binaryMessage = binary.toMessage(job, new MessageProperties());
+        jsonMessage = json.toMessage(job, new MessageProperties());
+        System.out.printf("%nEncoded job: binary %d bytes, JSON %d bytes%n",
+                binaryMessage.getBody().length, jsonMessage.getBody().length);
+    }
+
+    @Benchmark
+    public Message encodeBinary() {
+        return binary.toMessage(job, new MessageProperties());
+    }
+
+    @Benchmark
+    public Message encodeJson() {
+        return json.toMessage(job, new MessageProperties());
+    }
+
+    @Benchmark
+    public Object decodeBinary() {
+        return binary.fromMessage(binaryMessage);
+    }
+
+    @Benchmark
+    public Object decodeJson() {
+        return json.fromMessage(jsonMessage);
+    }
+}
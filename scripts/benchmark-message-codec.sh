@@ -0,0 +1,25 @@
+#!/bin/bash
+
+# Microbenchmarks the binary thumbnail job converter against the JSON converter: time
+# and bytes allocated per encode and decode, plus the encoded size of each.
+# Extra JMH options can be appended, e.g. scripts/benchmark-message-codec.sh -f 3
+# Set SKIP_BUILD=1 to reuse a previous build.
+
+# Get the directory where the script is located
+SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+PROJECT_ROOT="$SCRIPT_DIR/.."
+
+cd "$PROJECT_ROOT" || exit 1
+
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+
+if [ -z "$SKIP_BUILD" ]; then
+    echo "Building load-test module..."
+    "$PROJECT_ROOT/mvnw" -q -Ploadtest -pl loadtest -am -DskipTests package dependency:build-classpath \
+        -Dmdep.outputFile=target/benchmark.classpath || exit 1
+fi
+
+# JMH forks its benchmark JVMs with this classpath, so run it from the module's classes
+# rather than from the repackaged harness jar
+"$JAVA" -cp "loadtest/target/classes:$(cat loadtest/target/benchmark.classpath)" \
+    org.openjdk.jmh.Main MessageCodecBenchmark -prof gc "$@"
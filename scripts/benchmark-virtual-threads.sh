@@ -0,0 +1,40 @@
+#!/bin/bash
+
+# Compares platform-thread and virtual-thread mode under the load-test harness at
+# equal heap size. S3 latency is injected so requests spend their time blocked on
+# I/O, more users are started than Tomcat has platform threads (200), and the S3
+# connection pool is raised to match in both modes. The mix is view-heavy with small
+# images to keep the run I/O-bound rather than CPU-bound.
+# Requires JDK 21+ on the PATH (or JAVA_HOME set); extra harness options can be
+# appended, e.g. scripts/benchmark-virtual-threads.sh -Dloadtest.duration=300
+
+# Get the directory where the script is located
+SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+PROJECT_ROOT="$SCRIPT_DIR/.."
+
+cd "$PROJECT_ROOT" || exit 1
+
+JAVA="${JAVA_HOME:+$JAVA_HOME/bin/}java"
+HEAP="${HEAP:--Xmx512m}"
+USERS="${USERS:-400}"
+S3_LATENCY_MS="${S3_LATENCY_MS:-200}"
+MIX="${MIX:-upload=2,list=3,view=95}"
+
+if [ -z "$SKIP_BUILD" ]; then
+    echo "Building web, worker and load-test jars..."
+    "$PROJECT_ROOT/mvnw" -q -Ploadtest -DskipTests package || exit 1
+fi
+
+for mode in false true; do
+    echo "=== threads.virtual.enabled=$mode ==="
+    "$JAVA" -Dloadtest.users="$USERS" \
+        -Dloadtest.s3LatencyMs="$S3_LATENCY_MS" \
+        -Dloadtest.webJvmArgs="$HEAP" \
+        -Dloadtest.workerJvmArgs="$HEAP" \
+        -Dloadtest.mix="$MIX" \
+        -Dloadtest.imageWidth=640 -Dloadtest.imageHeight=480 \
+        -Dloadtest.webArgs="--threads.virtual.enabled=$mode --aws.s3.max-connections=$USERS" \
+        -Dloadtest.workerArgs="--threads.virtual.enabled=$mode" \
+        -Dloadtest.workDir="loadtest/target/benchmark-virtual-$mode" \
+        "$@" -jar "$PROJECT_ROOT/loadtest/target/assets-manager-loadtest-0.0.1-SNAPSHOT.jar" || exit 1
+done
@@ -0,0 +1,20 @@
+#!/bin/bash
+
+# Runs the end-to-end load/soak test against local S3, AMQP and database stand-ins.
+# Harness options are passed as system properties, e.g.
+#   scripts/loadtest.sh -Dloadtest.duration=600 -Dloadtest.users=32 -Dloadtest.mix=upload=10,list=30,view=60
+# Set SKIP_BUILD=1 to reuse previously built jars (no network access is needed once
+# dependencies are in the local Maven repository).
+
+# Get the directory where the script is located
+SCRIPT_DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+PROJECT_ROOT="$SCRIPT_DIR/.."
+
+cd "$PROJECT_ROOT" || exit 1
+
+if [ -z "$SKIP_BUILD" ]; then
+    echo "Building web, worker and load-test jars..."
+    "$PROJECT_ROOT/mvnw" -q -Ploadtest -DskipTests package || exit 1
+fi
+
+java "$@" -jar "$PROJECT_ROOT/loadtest/target/assets-manager-loadtest-0.0.1-SNAPSHOT.jar"
@@ -1,13 +1,25 @@
 package com.microsoft.migration.assets.config;
 
+import com.microsoft.migration.assets.common.storage.KeyPartitioner;
+import com.microsoft.migration.assets.metrics.S3MetricsInterceptor;
+import com.microsoft.migration.assets.metrics.StorageMetrics;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
 
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryMode;
+import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
 
 @Configuration
 public class AwsS3Config {
@@ -21,13 +33,42 @@ public class AwsS3Config {
     @Value("${aws.region}")
     private String region;
 
+    @Value("${aws.s3.endpoint:}")
+    private String endpoint;
+
+    // "adaptive" also rate-limits this client when S3 answers 503 SlowDown, rather than
+    // retrying at full speed into the throttled prefix
+    @Value("${aws.s3.retry-mode:adaptive}")
+    private String retryMode;
+
+    // Caps concurrent S3 calls; with virtual threads this, not the Tomcat pool, bounds request concurrency
+    @Value("${aws.s3.max-connections:50}")
+    private int maxConnections;
+
     @Bean
-    public S3Client s3Client() {
+    public S3Client s3Client(StorageMetrics storageMetrics) {
         AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(accessKey, secretKey);
         
-        return S3Client.builder()
+        S3ClientBuilder builder = S3Client.builder()
                 .region(Region.of(region))
                 .credentialsProvider(StaticCredentialsProvider.create(awsCredentials))
-                .build();
+                .httpClientBuilder(ApacheHttpClient.builder().maxConnections(maxConnections))
+                .overrideConfiguration(config -> config
+                        .retryPolicy(RetryMode.valueOf(retryMode.toUpperCase(Locale.ROOT)))
+                        .addExecutionInterceptor(new S3MetricsInterceptor(storageMetrics)));
+
+        // Optional S3-compatible endpoint (e.g. a local stand-in); these use path-style addressing
+        if (StringUtils.hasText(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public KeyPartitioner keyPartitioner(@Value("${aws.s3.bucket}") String bucket,
+                                         @Value("${aws.s3.partition.buckets:}") List<String> extraBuckets,
+                                         @Value("${aws.s3.partition.count:16}") int partitions) {
+        return new KeyPartitioner(bucket, extraBuckets, partitions);
     }
 }
\ No newline at end of file
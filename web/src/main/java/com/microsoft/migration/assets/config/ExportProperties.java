@@ -0,0 +1,24 @@
+package com.microsoft.migration.assets.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * ZIP exports of selected images, e.g. {@code assets.export.read-ahead=8}. Each running
+ * export holds at most read-ahead + 1 objects of up to max-buffered-bytes each in memory.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "assets.export")
+public class ExportProperties {
+    // Most keys in one export, and exports streamed at once
+    private int maxKeys = 1000;
+    private int maxConcurrent = 4;
+    // Objects fetched ahead of the one being written, per export
+    private int readAhead = 8;
+    // Threads fetching objects, shared by every export
+    private int fetchThreads = 16;
+    // Larger objects are streamed into the archive instead of held in memory
+    private int maxBufferedBytes = 4 * 1024 * 1024;
+}
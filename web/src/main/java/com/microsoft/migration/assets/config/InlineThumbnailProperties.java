@@ -0,0 +1,27 @@
+package com.microsoft.migration.assets.config;
+
+import com.microsoft.migration.assets.common.image.EncodingProfile;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+/**
+ * Thumbnails rendered during the upload request, e.g. {@code assets.inline-thumbnails.enabled=true}.
+ * Uploads over either limit, or that find every slot busy, are queued for the worker.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "assets.inline-thumbnails")
+public class InlineThumbnailProperties {
+    private boolean enabled = false;
+    // Largest upload, in bytes and in decoded pixels, rendered inline
+    private long maxBytes = 5 * 1024 * 1024;
+    private long maxPixels = 16_000_000L;
+    // Thumbnails rendered at once (0 = half the CPUs), and uploads that may wait for a slot
+    private int maxConcurrent = 0;
+    private int queueCapacity = 16;
+    // How long an upload waits for its thumbnail before leaving it to the worker
+    private long timeoutMs = 5000;
+    // Must match the worker's thumbnail profile, so both paths produce the same thumbnails
+    private EncodingProfile profile = new EncodingProfile();
+}
@@ -1,19 +1,42 @@
 package com.microsoft.migration.assets.config;
 
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessageConverter;
 import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.boot.autoconfigure.amqp.RabbitTemplateConfigurer;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+import java.util.Date;
 
 @Configuration
 public class RabbitConfig {
     public static final String QUEUE_NAME = "image-processing";
+    public static final String LARGE_QUEUE_NAME = "image-processing-large";
+    // Jobs are published to a fanout exchange per lane, so observers get their own copy
+    // instead of competing with the workers for the lane queue
+    public static final String EXCHANGE_NAME = "image-processing.fanout";
+    public static final String LARGE_EXCHANGE_NAME = "image-processing-large.fanout";
+    public static final String MONITOR_QUEUE_NAME = "image-processing-monitor";
+    public static final String MONITOR_CONTAINER_FACTORY = "monitorContainerFactory";
+    // Workers announce finished thumbnails here; every web instance gets its own copy
+    public static final String THUMBNAIL_READY_EXCHANGE_NAME = "thumbnail-ready.fanout";
+    // Web instances announce the uploads and deletes they make here, for the same reason
+    public static final String CATALOG_CHANGES_EXCHANGE_NAME = "catalog-changes.fanout";
+    public static final String EVENTS_CONTAINER_FACTORY = "eventsContainerFactory";
 
     @Bean
     public Queue imageProcessingQueue() {
@@ -21,18 +44,139 @@ public class RabbitConfig {
     }
 
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public Queue largeImageProcessingQueue() {
+        return QueueBuilder.durable(LARGE_QUEUE_NAME).build();
+    }
+
+    @Bean
+    public FanoutExchange imageProcessingExchange() {
+        return new FanoutExchange(EXCHANGE_NAME);
+    }
+
+    @Bean
+    public FanoutExchange largeImageProcessingExchange() {
+        return new FanoutExchange(LARGE_EXCHANGE_NAME);
+    }
+
+    @Bean
+    public Binding imageProcessingBinding() {
+        return BindingBuilder.bind(imageProcessingQueue()).to(imageProcessingExchange());
+    }
+
+    @Bean
+    public Binding largeImageProcessingBinding() {
+        return BindingBuilder.bind(largeImageProcessingQueue()).to(largeImageProcessingExchange());
+    }
+
+    @Bean
+    public FanoutExchange thumbnailReadyExchange() {
+        return new FanoutExchange(THUMBNAIL_READY_EXCHANGE_NAME);
+    }
+
+    @Bean
+    public FanoutExchange catalogChangesExchange() {
+        return new FanoutExchange(CATALOG_CHANGES_EXCHANGE_NAME);
+    }
+
+    /**
+     * This instance's copy of the thumbnail-ready and catalog change events, which only
+     * matter to the pages it has open; it is exclusive and goes away with the instance.
+     */
+    @Bean
+    public Queue changeFeedQueue() {
+        return QueueBuilder.nonDurable(new Base64UrlNamingStrategy("change-feed.").generateName())
+                .exclusive()
+                .autoDelete()
+                .build();
+    }
+
+    @Bean
+    public Binding changeFeedBinding() {
+        return BindingBuilder.bind(changeFeedQueue()).to(thumbnailReadyExchange());
+    }
+
+    @Bean
+    public Binding catalogChangesBinding() {
+        return BindingBuilder.bind(changeFeedQueue()).to(catalogChangesExchange());
+    }
+
+    /**
+     * Monitoring copy of both lanes. It is transient and auto-deleted once the monitor
+     * disconnects, so copies do not pile up while nobody is watching.
+     */
+    @Bean
+    @Profile("backup")
+    public Declarables monitorQueueBindings() {
+        Queue monitor = QueueBuilder.nonDurable(MONITOR_QUEUE_NAME).autoDelete().build();
+        return new Declarables(monitor,
+                BindingBuilder.bind(monitor).to(imageProcessingExchange()),
+                BindingBuilder.bind(monitor).to(largeImageProcessingExchange()));
+    }
+
+    /**
+     * Jobs are published in the configured format, which stays json until every worker
+     * reads the binary encoding; jobs arriving in either format are read.
+     */
+    @Bean
+    public MessageConverter messageConverter(
+            @Value("${assets.messaging.format:binary}") ImageProcessingMessageConverter.Format format) {
+        return new ImageProcessingMessageConverter(format);
+    }
+
+    @Bean
+    public RabbitTemplate rabbitTemplate(RabbitTemplateConfigurer configurer, ConnectionFactory connectionFactory) {
+        RabbitTemplate template = new RabbitTemplate();
+        configurer.configure(template, connectionFactory);
+        // Stamp publish time so the worker can report queue lag
+        template.setBeforePublishPostProcessors(message -> {
+            message.getMessageProperties().setTimestamp(new Date());
+            return message;
+        });
+        return template;
     }
 
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
             ConnectionFactory connectionFactory,
-            SimpleRabbitListenerContainerFactoryConfigurer configurer) {
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            MessageConverter messageConverter) {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         configurer.configure(factory, connectionFactory);
-        factory.setMessageConverter(jsonMessageConverter());
+        factory.setMessageConverter(messageConverter);
         factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
         return factory;
     }
+
+    /**
+     * The monitor only counts messages, and losing a few on a restart is harmless, so it
+     * consumes with broker auto-ack rather than acking each delivery.
+     */
+    @Bean(MONITOR_CONTAINER_FACTORY)
+    @Profile("backup")
+    public SimpleRabbitListenerContainerFactory monitorContainerFactory(
+            ConnectionFactory connectionFactory,
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            MessageConverter messageConverter) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setMessageConverter(messageConverter);
+        factory.setAcknowledgeMode(AcknowledgeMode.NONE);
+        return factory;
+    }
+
+    /**
+     * Events only refresh open pages, and a page that misses one catches up on its next
+     * load, so they are consumed with broker auto-ack like the monitor's copies.
+     */
+    @Bean(EVENTS_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory eventsContainerFactory(
+            ConnectionFactory connectionFactory,
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            MessageConverter messageConverter) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setMessageConverter(messageConverter);
+        factory.setAcknowledgeMode(AcknowledgeMode.NONE);
+        return factory;
+    }
 }
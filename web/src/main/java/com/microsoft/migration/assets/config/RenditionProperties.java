@@ -0,0 +1,29 @@
+package com.microsoft.migration.assets.config;
+
+import com.microsoft.migration.assets.common.image.EncodingProfile;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-demand renditions, e.g. {@code assets.renditions.sizes=200,600,1200}. Only the listed
+ * sizes are served, so clients cannot fill the bucket with one rendition per pixel width.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "assets.renditions")
+public class RenditionProperties {
+    // Longest side, in pixels, of each rendition that may be requested
+    private List<Integer> sizes = new ArrayList<>(List.of(200, 600, 1200));
+    // The worker's thumbnail size; requests for it are served from the thumbnail once it exists
+    private int thumbnailSize = 600;
+    // Renditions generated at once (0 = one per CPU), and how long a request waits for a slot
+    private int maxConcurrent = 0;
+    private long admissionTimeoutMs = 5000;
+    // Larger originals are refused rather than decoded on a request thread
+    private long maxSourcePixels = 100_000_000L;
+    private EncodingProfile profile = new EncodingProfile();
+}
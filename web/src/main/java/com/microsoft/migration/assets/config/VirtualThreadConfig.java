@@ -0,0 +1,99 @@
+package com.microsoft.migration.assets.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.ProtocolHandler;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in mode ({@code threads.virtual.enabled=true}, JDK 21+) that runs Tomcat request
+ * handling and Rabbit listener consumers on virtual threads, so requests blocked on
+ * S3, RabbitMQ or the database no longer hold a platform thread each.
+ * <p>
+ * The executors are owned by the beans that install them rather than exposed as beans
+ * themselves: an {@code Executor} bean would stand in for Boot's
+ * {@code applicationTaskExecutor}, which MVC async requests run on. Each is shut down
+ * with the context.
+ * <p>
+ * The module still targets Java 11, so the executor is looked up reflectively and
+ * startup fails fast on an older runtime.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        log.info("Tomcat handles requests on virtual threads (Java {})", System.getProperty("java.version"));
+        return new ProtocolHandlerCustomizer();
+    }
+
+    @Bean
+    public static BeanPostProcessor virtualThreadListenerContainerPostProcessor() {
+        return new ListenerContainerPostProcessor();
+    }
+
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("threads.virtual.enabled=true requires JDK 21 or later, running on "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * Hands Tomcat its executor; Tomcat does not shut down an executor it was given, so
+     * this does once the server has stopped.
+     */
+    static class ProtocolHandlerCustomizer implements TomcatProtocolHandlerCustomizer<ProtocolHandler>, DisposableBean {
+        private final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+        @Override
+        public void customize(ProtocolHandler protocolHandler) {
+            protocolHandler.setExecutor(executor);
+        }
+
+        @Override
+        public void destroy() {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Gives each listener container factory its own executor, shut down with the context
+     * after the containers have stopped.
+     */
+    static class ListenerContainerPostProcessor implements BeanPostProcessor, DisposableBean {
+        private final List<ExecutorService> executors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) {
+            if (bean instanceof SimpleRabbitListenerContainerFactory) {
+                ExecutorService executor = newVirtualThreadPerTaskExecutor();
+                executors.add(executor);
+                ((SimpleRabbitListenerContainerFactory) bean).setTaskExecutor(executor);
+                log.info("Listener container factory {} runs consumers on virtual threads", beanName);
+            }
+            return bean;
+        }
+
+        @Override
+        public void destroy() {
+            executors.forEach(ExecutorService::shutdown);
+        }
+    }
+}
@@ -1,37 +1,111 @@
 package com.microsoft.migration.assets.controller;
 
 import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.SearchQuery;
+import com.microsoft.migration.assets.model.SimilarItem;
+import com.microsoft.migration.assets.model.StoragePage;
+import com.microsoft.migration.assets.service.ChangeFeed;
+import com.microsoft.migration.assets.service.RenditionException;
+import com.microsoft.migration.assets.service.RenditionService;
+import com.microsoft.migration.assets.service.SimilarityIndex;
 import com.microsoft.migration.assets.service.StorageService;
+import com.microsoft.migration.assets.service.ZipExporter;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.CacheControl;
+import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.springframework.web.servlet.mvc.support.RedirectAttributes;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.time.Duration;
+import java.time.LocalDate;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 @Controller
 @RequestMapping("/s3")
 @RequiredArgsConstructor
 public class S3Controller {
 
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final Duration RENDITION_MAX_AGE = Duration.ofDays(365);
+
     private final StorageService storageService;
+    private final RenditionService renditionService;
+    private final ChangeFeed changeFeed;
+    private final ZipExporter zipExporter;
+
+    @Value("${assets.catalog.page-size:60}")
+    private int pageSize;
 
     @GetMapping
-    public String listObjects(Model model) {
-        List<S3StorageItem> objects = storageService.listObjects();
-        model.addAttribute("objects", objects);
+    public String listObjects(@RequestParam(value = "cursor", required = false) String cursor,
+                              @RequestParam(value = "size", required = false) Integer size,
+                              Model model) {
+        int limit = size == null ? pageSize : Math.max(1, Math.min(size, MAX_PAGE_SIZE));
+        // Read before listing, so the page is sent any change made while it renders
+        model.addAttribute("changeSequence", changeFeed.sequence());
+        StoragePage page = storageService.listObjects(cursor, limit);
+        model.addAttribute("objects", page.getItems());
+        model.addAttribute("nextCursor", page.getNextCursor());
         return "list";
     }
 
+    /**
+     * Search the catalog by filename, type, size and upload date; the results page shares
+     * the listing's layout.
+     */
+    @GetMapping("/search")
+    public String search(@ModelAttribute("query") SearchQuery query, Model model) {
+        model.addAttribute("changeSequence", changeFeed.sequence());
+        StoragePage page = storageService.search(query, searchLimit(query));
+        model.addAttribute("objects", page.getItems());
+        model.addAttribute("nextCursor", page.getNextCursor());
+        return "list";
+    }
+
+    @GetMapping(value = "/search", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<StoragePage> searchJson(SearchQuery query) {
+        return ResponseEntity.ok(storageService.search(query, searchLimit(query)));
+    }
+
+    /**
+     * Uploads, deletes and new thumbnails as server-sent events, from the change after
+     * {@code since} or, when the browser reconnects, after the last event it received.
+     */
+    @GetMapping(value = "/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> changes(@RequestParam(value = "since", required = false) Long since,
+                                              @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        SseEmitter emitter = changeFeed.subscribe(lastEventId != null ? lastEventId : since);
+        if (emitter == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        }
+        // Keep proxies from buffering the stream
+        return ResponseEntity.ok().header("X-Accel-Buffering", "no").body(emitter);
+    }
+
+    @ExceptionHandler(IllegalArgumentException.class)
+    public ResponseEntity<String> badRequest(IllegalArgumentException e) {
+        return ResponseEntity.badRequest().body(e.getMessage());
+    }
+
+    private int searchLimit(SearchQuery query) {
+        return query.getLimit() == null ? pageSize : Math.max(1, Math.min(query.getLimit(), MAX_PAGE_SIZE));
+    }
+
     @GetMapping("/upload")
     public String uploadForm() {
         return "upload";
@@ -54,13 +128,30 @@ public class S3Controller {
         }
     }
     
+    @PostMapping("/bulk/upload")
+    public String uploadObjects(@RequestParam(value = "files", required = false) List<MultipartFile> files,
+                                RedirectAttributes redirectAttributes) {
+        List<MultipartFile> nonEmpty = files == null ? List.of() : files.stream()
+                .filter(file -> !file.isEmpty())
+                .collect(Collectors.toList());
+        if (nonEmpty.isEmpty()) {
+            redirectAttributes.addFlashAttribute("error", "Please select files to upload");
+            return "redirect:/s3/upload";
+        }
+
+        try {
+            storageService.uploadObjects(nonEmpty);
+            redirectAttributes.addFlashAttribute("success", nonEmpty.size() + " files uploaded successfully");
+        } catch (IOException e) {
+            redirectAttributes.addFlashAttribute("error", e.getMessage());
+        }
+        return "redirect:/s3";
+    }
+
     @GetMapping("/view-page/{key}")
     public String viewObjectPage(@PathVariable String key, Model model, RedirectAttributes redirectAttributes) {
         try {
-            // Find the object in the list of objects
-            Optional<S3StorageItem> foundObject = storageService.listObjects().stream()
-                    .filter(obj -> obj.getKey().equals(key))
-                    .findFirst();
+            Optional<S3StorageItem> foundObject = storageService.findObject(key);
             
             if (foundObject.isPresent()) {
                 model.addAttribute("object", foundObject.get());
@@ -92,6 +183,51 @@ public class S3Controller {
         }
     }
 
+    /**
+     * A rendition of the image at one of the configured sizes, generated on first request.
+     * Keys are never reused, so a rendition can be cached indefinitely.
+     */
+    @GetMapping("/rendition/{key}")
+    public ResponseEntity<byte[]> viewRendition(@PathVariable String key, @RequestParam("size") int size) {
+        try {
+            RenditionService.Rendition rendition = renditionService.getRendition(key, size);
+            return ResponseEntity.ok()
+                    .contentType(MediaType.parseMediaType(rendition.getContentType()))
+                    .cacheControl(CacheControl.maxAge(RENDITION_MAX_AGE).cachePublic())
+                    .body(rendition.getData());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (RenditionException e) {
+            if (e.isRetryable()) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .header(HttpHeaders.RETRY_AFTER, "1")
+                        .build();
+            }
+            return ResponseEntity.unprocessableEntity().build();
+        } catch (IOException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
+    /**
+     * Images that look like this one, within {@code distance} bits of its perceptual hash,
+     * closest first.
+     */
+    @GetMapping("/similar/{key}")
+    public ResponseEntity<List<SimilarItem>> findSimilar(@PathVariable String key,
+                                                         @RequestParam(value = "distance", defaultValue = "8") int distance,
+                                                         @RequestParam(value = "limit", defaultValue = "50") int limit) {
+        if (distance < 0 || distance > SimilarityIndex.MAX_DISTANCE) {
+            return ResponseEntity.badRequest().build();
+        }
+        try {
+            return ResponseEntity.ok(storageService.findSimilar(key, distance,
+                    Math.max(1, Math.min(limit, MAX_PAGE_SIZE))));
+        } catch (IOException e) {
+            return ResponseEntity.notFound().build();
+        }
+    }
+
     @PostMapping("/delete/{key}")
     public String deleteObject(@PathVariable String key, RedirectAttributes redirectAttributes) {
         try {
@@ -102,4 +238,44 @@ public class S3Controller {
         }
         return "redirect:/s3";
     }
-}
\ No newline at end of file
+
+    @PostMapping("/bulk/delete")
+    public String deleteObjects(@RequestParam(value = "keys", required = false) List<String> keys,
+                                RedirectAttributes redirectAttributes) {
+        if (keys == null || keys.isEmpty()) {
+            redirectAttributes.addFlashAttribute("error", "Please select files to delete");
+            return "redirect:/s3";
+        }
+
+        try {
+            storageService.deleteObjects(keys);
+            redirectAttributes.addFlashAttribute("success", keys.size() + " files deleted successfully");
+        } catch (Exception e) {
+            redirectAttributes.addFlashAttribute("error", "Failed to delete files: " + e.getMessage());
+        }
+        return "redirect:/s3";
+    }
+
+    /**
+     * The selected images as one ZIP archive, streamed as it is assembled.
+     */
+    @PostMapping("/bulk/export")
+    public ResponseEntity<StreamingResponseBody> exportObjects(@RequestParam(value = "keys", required = false) List<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            throw new IllegalArgumentException("Please select files to export");
+        }
+        ZipExporter.Export export = zipExporter.start(keys);
+        if (export == null) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, "5")
+                    .build();
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .header(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment()
+                        .filename("images-" + LocalDate.now() + ".zip")
+                        .build()
+                        .toString())
+                .body(export::writeTo);
+    }
+}
@@ -0,0 +1,140 @@
+package com.microsoft.migration.assets.metrics;
+
+import lombok.Value;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Sliding-window counts of thumbnail jobs seen on the broker: message rate, bytes, and
+ * the mix of content and storage types.
+ * <p>
+ * The window is a ring of one-second buckets. Recording never takes a lock: a stale
+ * bucket is swapped for a fresh one with a compare-and-set, and counters are
+ * {@link LongAdder}s. A writer that raced a swap may land in the discarded bucket, so
+ * a count can occasionally be lost at a second boundary, which is fine for monitoring.
+ */
+public class MessageStatsWindow {
+    public static final String OTHER = "other";
+    // Distinct content types tracked per bucket; the rest are counted as OTHER
+    private static final int MAX_CONTENT_TYPES = 32;
+
+    private final int seconds;
+    private final AtomicReferenceArray<Bucket> buckets;
+    private final LongAdder totalMessages = new LongAdder();
+    private final LongAdder totalBytes = new LongAdder();
+
+    public MessageStatsWindow(int seconds) {
+        if (seconds < 1) {
+            throw new IllegalArgumentException("Window must be at least one second: " + seconds);
+        }
+        this.seconds = seconds;
+        this.buckets = new AtomicReferenceArray<>(seconds);
+    }
+
+    public void record(String contentType, String storageType, long bytes) {
+        Bucket bucket = current(now());
+        bucket.messages.increment();
+        bucket.bytes.add(Math.max(0, bytes));
+        bucket.count(bucket.contentTypes, contentType);
+        bucket.count(bucket.storageTypes, storageType);
+        totalMessages.increment();
+        totalBytes.add(Math.max(0, bytes));
+    }
+
+    public Snapshot snapshot() {
+        long now = now();
+        long messages = 0;
+        long bytes = 0;
+        Map<String, Long> contentTypes = new TreeMap<>();
+        Map<String, Long> storageTypes = new TreeMap<>();
+        for (int i = 0; i < seconds; i++) {
+            Bucket bucket = buckets.get(i);
+            if (bucket == null || now - bucket.second >= seconds || bucket.second > now) {
+                continue;
+            }
+            messages += bucket.messages.sum();
+            bytes += bucket.bytes.sum();
+            bucket.contentTypes.forEach((type, count) -> contentTypes.merge(type, count.sum(), Long::sum));
+            bucket.storageTypes.forEach((type, count) -> storageTypes.merge(type, count.sum(), Long::sum));
+        }
+        return new Snapshot(seconds, messages, bytes, contentTypes, storageTypes,
+                totalMessages.sum(), totalBytes.sum());
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private Bucket current(long now) {
+        int index = (int) (now % seconds);
+        while (true) {
+            Bucket bucket = buckets.get(index);
+            if (bucket != null && bucket.second == now) {
+                return bucket;
+            }
+            if (bucket != null && bucket.second > now) {
+                // The clock stepped back; count into the newer bucket rather than reset it
+                return bucket;
+            }
+            Bucket fresh = new Bucket(now);
+            if (buckets.compareAndSet(index, bucket, fresh)) {
+                return fresh;
+            }
+        }
+    }
+
+    private static final class Bucket {
+        final long second;
+        final LongAdder messages = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final ConcurrentMap<String, LongAdder> contentTypes = new ConcurrentHashMap<>();
+        final ConcurrentMap<String, LongAdder> storageTypes = new ConcurrentHashMap<>();
+
+        Bucket(long second) {
+            this.second = second;
+        }
+
+        void count(ConcurrentMap<String, LongAdder> counts, String key) {
+            String name = key == null || key.isEmpty() ? "unknown" : key;
+            LongAdder counter = counts.get(name);
+            if (counter == null) {
+                // Content types come from the client, so cap how many distinct ones a bucket holds
+                counter = counts.size() < MAX_CONTENT_TYPES
+                        ? counts.computeIfAbsent(name, k -> new LongAdder())
+                        : counts.computeIfAbsent(OTHER, k -> new LongAdder());
+            }
+            counter.increment();
+        }
+    }
+
+    /**
+     * Aggregates over the window, plus totals since startup.
+     */
+    @Value
+    public static class Snapshot {
+        int windowSeconds;
+        long messages;
+        long bytes;
+        Map<String, Long> contentTypes;
+        Map<String, Long> storageTypes;
+        long totalMessages;
+        long totalBytes;
+
+        public double getMessagesPerSecond() {
+            return (double) messages / windowSeconds;
+        }
+
+        public double getBytesPerSecond() {
+            return (double) bytes / windowSeconds;
+        }
+
+        public long getAverageBytes() {
+            return messages == 0 ? 0 : bytes / messages;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.microsoft.migration.assets.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.actuate.autoconfigure.metrics.MeterRegistryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.data.repository.core.support.RepositoryFactoryBeanSupport;
+import org.springframework.data.repository.core.support.RepositoryMethodInvocationListener;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Web-side latency instrumentation. Storage calls, broker publishes and template
+ * rendering have timers of their own; metadata queries use Spring Boot's
+ * {@code spring.data.repository.invocations} timer. All of them feed the
+ * slow-request log.
+ */
+@Configuration
+public class MetricsConfig implements WebMvcConfigurer {
+
+    private final MeterRegistry registry;
+
+    @Value("${assets.metrics.slow-request-ms:1000}")
+    private long slowRequestMs;
+
+    public MetricsConfig(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Tag every meter with the storage backend, selected by profile like the storage services.
+     */
+    @Bean
+    public static MeterRegistryCustomizer<MeterRegistry> storageBackendTag(Environment environment) {
+        String backend = environment.acceptsProfiles(Profiles.of("dev")) ? "local" : "s3";
+        return meterRegistry -> meterRegistry.config().commonTags("storage", backend);
+    }
+
+    @Bean
+    public static BeanPostProcessor repositoryTimingPostProcessor() {
+        RepositoryMethodInvocationListener listener = invocation ->
+                RequestTimings.record(RequestTimings.DATABASE, invocation.getDuration(TimeUnit.NANOSECONDS));
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessBeforeInitialization(Object bean, String beanName) {
+                if (bean instanceof RepositoryFactoryBeanSupport) {
+                    ((RepositoryFactoryBeanSupport<?, ?, ?>) bean).addRepositoryFactoryCustomizer(
+                            factory -> factory.addInvocationListener(listener));
+                }
+                return bean;
+            }
+        };
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry interceptors) {
+        interceptors.addInterceptor(new RequestTimingInterceptor(registry, slowRequestMs));
+    }
+}
@@ -0,0 +1,65 @@
+package com.microsoft.migration.assets.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Times template rendering and logs a breakdown of every request slower than the threshold,
+ * e.g. {@code Slow request POST /s3/upload took 1520ms: storage=1 calls/1210ms, broker=1 calls/6ms, ...}.
+ */
+@Slf4j
+public class RequestTimingInterceptor implements HandlerInterceptor {
+    private static final String RENDER_SAMPLE = RequestTimingInterceptor.class.getName() + ".render";
+    private static final String VIEW_NAME = RequestTimingInterceptor.class.getName() + ".view";
+
+    private final MeterRegistry registry;
+    private final long slowRequestMs;
+
+    public RequestTimingInterceptor(MeterRegistry registry, long slowRequestMs) {
+        this.registry = registry;
+        this.slowRequestMs = slowRequestMs;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) {
+        RequestTimings.begin();
+        return true;
+    }
+
+    @Override
+    public void postHandle(HttpServletRequest request, HttpServletResponse response, Object handler,
+                           ModelAndView modelAndView) {
+        // Rendering starts right after this; redirects have nothing to render
+        if (modelAndView != null && modelAndView.getViewName() != null
+                && !modelAndView.getViewName().startsWith("redirect:")) {
+            request.setAttribute(VIEW_NAME, modelAndView.getViewName());
+            request.setAttribute(RENDER_SAMPLE, Timer.start(registry));
+        }
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler,
+                                Exception ex) {
+        Timer.Sample render = (Timer.Sample) request.getAttribute(RENDER_SAMPLE);
+        if (render != null) {
+            long nanos = render.stop(Timer.builder("assets.view.render")
+                    .description("Template rendering time")
+                    .tag("view", (String) request.getAttribute(VIEW_NAME))
+                    .publishPercentileHistogram()
+                    .register(registry));
+            RequestTimings.record(RequestTimings.RENDER, nanos);
+        }
+
+        RequestTimings timings = RequestTimings.end();
+        if (timings != null && timings.elapsedMillis() >= slowRequestMs) {
+            log.warn("Slow request {} {} took {}ms: {}", request.getMethod(), request.getRequestURI(),
+                    timings.elapsedMillis(), timings.describe());
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.microsoft.migration.assets.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of the current request went, by category, for the slow-request log.
+ * Timings are collected per thread, so work handed to another thread (such as bulk
+ * uploads on the uploader pool) is not attributed to the request.
+ */
+public final class RequestTimings {
+    public static final String STORAGE = "storage";
+    public static final String BROKER = "broker";
+    public static final String DATABASE = "database";
+    public static final String RENDER = "render";
+    public static final String THUMBNAIL = "thumbnail";
+
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<>();
+
+    private final long startNanos = System.nanoTime();
+    // Category -> {calls, nanos}
+    private final Map<String, long[]> categories = new LinkedHashMap<>();
+
+    private RequestTimings() {
+    }
+
+    public static void begin() {
+        CURRENT.set(new RequestTimings());
+    }
+
+    /**
+     * Stop collecting for the current thread.
+     *
+     * @return the request's timings, or null if {@link #begin()} was not called
+     */
+    public static RequestTimings end() {
+        RequestTimings timings = CURRENT.get();
+        CURRENT.remove();
+        return timings;
+    }
+
+    /**
+     * Add a call to the current request's breakdown; a no-op outside a request.
+     */
+    public static void record(String category, long nanos) {
+        RequestTimings timings = CURRENT.get();
+        if (timings != null) {
+            long[] totals = timings.categories.computeIfAbsent(category, ignored -> new long[2]);
+            totals[0]++;
+            totals[1] += nanos;
+        }
+    }
+
+    public long elapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * e.g. {@code storage=2 calls/1210ms, database=3 calls/40ms, render=1 calls/95ms, other=55ms}
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder();
+        long accounted = 0;
+        for (Map.Entry<String, long[]> category : categories.entrySet()) {
+            long millis = TimeUnit.NANOSECONDS.toMillis(category.getValue()[1]);
+            accounted += millis;
+            description.append(category.getKey()).append('=').append(category.getValue()[0])
+                    .append(" calls/").append(millis).append("ms, ");
+        }
+        return description.append("other=").append(Math.max(0, elapsedMillis() - accounted)).append("ms").toString();
+    }
+}
@@ -0,0 +1,45 @@
+package com.microsoft.migration.assets.metrics;
+
+import io.micrometer.core.instrument.Timer;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
+
+/**
+ * Times every S3 client call, including its retries, through {@link StorageMetrics}.
+ * The SDK invokes these hooks on the calling thread for synchronous clients, so the
+ * time is also attributed to the request being served.
+ */
+public class S3MetricsInterceptor implements ExecutionInterceptor {
+    private static final ExecutionAttribute<Timer.Sample> SAMPLE = new ExecutionAttribute<>("assets.metrics.sample");
+
+    private final StorageMetrics storageMetrics;
+
+    public S3MetricsInterceptor(StorageMetrics storageMetrics) {
+        this.storageMetrics = storageMetrics;
+    }
+
+    @Override
+    public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+        executionAttributes.putAttribute(SAMPLE, storageMetrics.start());
+    }
+
+    @Override
+    public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+        stop(executionAttributes, StorageMetrics.OUTCOME_SUCCESS);
+    }
+
+    @Override
+    public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+        stop(executionAttributes, StorageMetrics.OUTCOME_ERROR);
+    }
+
+    private void stop(ExecutionAttributes executionAttributes, String outcome) {
+        Timer.Sample sample = executionAttributes.getAttribute(SAMPLE);
+        if (sample != null) {
+            storageMetrics.stop(sample, executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME), outcome);
+        }
+    }
+}
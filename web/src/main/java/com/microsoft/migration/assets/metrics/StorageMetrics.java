@@ -0,0 +1,36 @@
+package com.microsoft.migration.assets.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+/**
+ * Timers for storage backend calls, by operation and outcome. Calls are named after
+ * the S3 API operation (PutObject, GetObject, ...) whichever backend serves them; the
+ * common {@code storage} tag tells the backends apart.
+ */
+@Component
+public class StorageMetrics {
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+
+    private final MeterRegistry registry;
+
+    public StorageMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    public void stop(Timer.Sample sample, String operation, String outcome) {
+        long nanos = sample.stop(Timer.builder("assets.storage.requests")
+                .description("Storage backend calls")
+                .tag("operation", operation)
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry));
+        RequestTimings.record(RequestTimings.STORAGE, nanos);
+    }
+}
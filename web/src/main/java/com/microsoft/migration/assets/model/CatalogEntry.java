@@ -0,0 +1,33 @@
+package com.microsoft.migration.assets.model;
+
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import lombok.Value;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * The searchable fields of a catalog row, held in memory by the search index.
+ */
+@Value
+public class CatalogEntry {
+    String key;
+    String filename;
+    String contentType;
+    long size;
+    Instant uploadedAt;
+    Instant lastModified;
+    String thumbnailKey;
+
+    public static CatalogEntry of(ImageMetadata metadata) {
+        return new CatalogEntry(metadata.getS3Key(), metadata.getFilename(), metadata.getContentType(),
+                metadata.getSize() != null ? metadata.getSize() : 0,
+                toInstant(metadata.getUploadedAt()), toInstant(metadata.getLastModified()),
+                metadata.getThumbnailKey());
+    }
+
+    private static Instant toInstant(LocalDateTime time) {
+        return time == null ? null : time.atZone(ZoneId.systemDefault()).toInstant();
+    }
+}
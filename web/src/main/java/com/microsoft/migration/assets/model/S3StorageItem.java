@@ -16,4 +16,9 @@ public class S3StorageItem {
     private Instant lastModified;
     private Instant uploadedAt;
     private String url;
-}
\ No newline at end of file
+    private String thumbnailUrl;
+
+    public S3StorageItem(String key, String name, long size, Instant lastModified, Instant uploadedAt, String url) {
+        this(key, name, size, lastModified, uploadedAt, url, null);
+    }
+}
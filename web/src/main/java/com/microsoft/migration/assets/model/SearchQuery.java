@@ -0,0 +1,216 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * A catalog search, bound from request parameters: filename terms, filters, sort order
+ * and the cursor of the page to return. Every term must be a prefix of a word in the
+ * filename, so {@code q=summer ban} finds "Summer_Banner-v2.png".
+ */
+@Data
+@NoArgsConstructor
+public class SearchQuery {
+    private String q;
+    // Exact content type, e.g. image/png
+    private String type;
+    private Long minSize;
+    private Long maxSize;
+    // Upload dates, both inclusive
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate from;
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate to;
+    // uploaded, size or name
+    private String sort;
+    // desc or asc
+    private String order;
+    private String cursor;
+    private Integer limit;
+
+    public enum SortBy {
+        UPLOADED(Comparator.comparing(CatalogEntry::getUploadedAt, Comparator.nullsFirst(Comparator.naturalOrder()))),
+        SIZE(Comparator.comparingLong(CatalogEntry::getSize)),
+        NAME(Comparator.comparing(CatalogEntry::getFilename, Comparator.nullsFirst(String.CASE_INSENSITIVE_ORDER)));
+
+        private final Comparator<CatalogEntry> ascending;
+
+        SortBy(Comparator<CatalogEntry> byValue) {
+            // The key breaks ties, so every entry has a distinct position
+            this.ascending = byValue.thenComparing(CatalogEntry::getKey);
+        }
+
+        public Comparator<CatalogEntry> ascending() {
+            return ascending;
+        }
+    }
+
+    /**
+     * Lower-case words of a text, split at anything that is not a letter or digit.
+     */
+    public static List<String> tokenize(String text) {
+        if (text == null) {
+            return List.of();
+        }
+        return Arrays.stream(text.toLowerCase(Locale.ROOT).split("[^\\p{L}\\p{N}]+"))
+                .filter(token -> !token.isEmpty())
+                .distinct()
+                .collect(Collectors.toList());
+    }
+
+    public List<String> terms() {
+        return tokenize(q);
+    }
+
+    public String contentType() {
+        return type == null || type.isBlank() ? null : type.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the sort or order is not recognised
+     */
+    public SortBy sortBy() {
+        return sort == null || sort.isBlank() ? SortBy.UPLOADED : SortBy.valueOf(sort.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * @throws IllegalArgumentException if the order is not "asc" or "desc"
+     */
+    public boolean isDescending() {
+        if (order == null || order.isBlank() || order.equalsIgnoreCase("desc")) {
+            return true;
+        } else if (order.equalsIgnoreCase("asc")) {
+            return false;
+        }
+        throw new IllegalArgumentException("Unknown order: " + order);
+    }
+
+    public Comparator<CatalogEntry> comparator() {
+        Comparator<CatalogEntry> ascending = sortBy().ascending();
+        return isDescending() ? ascending.reversed() : ascending;
+    }
+
+    /**
+     * Whether an entry passes the type, size and date filters; the terms are not checked.
+     */
+    public boolean matchesFilters(CatalogEntry entry) {
+        String contentType = contentType();
+        if (contentType != null && !contentType.equalsIgnoreCase(String.valueOf(entry.getContentType()))) {
+            return false;
+        }
+        if ((minSize != null && entry.getSize() < minSize) || (maxSize != null && entry.getSize() > maxSize)) {
+            return false;
+        }
+        Instant uploadedAt = entry.getUploadedAt();
+        if (from != null && (uploadedAt == null || uploadedAt.isBefore(startOf(from)))) {
+            return false;
+        }
+        return to == null || (uploadedAt != null && uploadedAt.isBefore(startOf(to.plusDays(1))));
+    }
+
+    /**
+     * Whether every term is a prefix of a word in the entry's filename.
+     */
+    public boolean matchesTerms(CatalogEntry entry) {
+        List<String> words = tokenize(entry.getFilename());
+        return terms().stream().allMatch(term -> words.stream().anyMatch(word -> word.startsWith(term)));
+    }
+
+    /**
+     * The entries from {@code lowest} up to, but excluding, {@code beyond} in ascending
+     * sort order cover every entry the filters on the sort column let through; either is
+     * null when that side is unbounded.
+     */
+    public CatalogEntry lowest() {
+        switch (sortBy()) {
+            case UPLOADED:
+                return from == null ? null : probe(SortBy.UPLOADED, startOf(from), 0, null, "");
+            case SIZE:
+                return minSize == null ? null : probe(SortBy.SIZE, null, minSize, null, "");
+            default:
+                return null;
+        }
+    }
+
+    public CatalogEntry beyond() {
+        switch (sortBy()) {
+            case UPLOADED:
+                return to == null ? null : probe(SortBy.UPLOADED, startOf(to.plusDays(1)), 0, null, "");
+            case SIZE:
+                return maxSize == null || maxSize == Long.MAX_VALUE ? null
+                        : probe(SortBy.SIZE, null, maxSize + 1, null, "");
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * The position of the last entry on the previous page, or null for the first page.
+     */
+    public CatalogEntry after() {
+        String[] position = cursor == null ? null : StoragePage.parseCursor(cursor);
+        if (position == null) {
+            return null;
+        }
+        try {
+            switch (sortBy()) {
+                case UPLOADED:
+                    return probe(SortBy.UPLOADED, Instant.parse(position[0]), 0, null, position[1]);
+                case SIZE:
+                    return probe(SortBy.SIZE, null, Long.parseLong(position[0]), null, position[1]);
+                default:
+                    return probe(SortBy.NAME, null, 0, position[0], position[1]);
+            }
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A page of {@code limit} items from matches already in order after the cursor; at most
+     * {@code limit + 1} are needed, the extra one only showing that there is a next page.
+     */
+    public StoragePage page(List<CatalogEntry> matches, int limit, Function<CatalogEntry, S3StorageItem> toItem) {
+        List<S3StorageItem> items = new ArrayList<>(Math.min(matches.size(), limit));
+        for (CatalogEntry entry : matches.subList(0, Math.min(matches.size(), limit))) {
+            items.add(toItem.apply(entry));
+        }
+        if (matches.size() <= limit) {
+            return new StoragePage(items, null);
+        }
+        CatalogEntry last = matches.get(limit - 1);
+        String value;
+        switch (sortBy()) {
+            case UPLOADED:
+                value = String.valueOf(last.getUploadedAt());
+                break;
+            case SIZE:
+                value = String.valueOf(last.getSize());
+                break;
+            default:
+                value = last.getFilename() == null ? "" : last.getFilename();
+        }
+        return new StoragePage(items, StoragePage.cursor(value, last.getKey()));
+    }
+
+    private static CatalogEntry probe(SortBy sortBy, Instant uploadedAt, long size, String filename, String key) {
+        return new CatalogEntry(key, sortBy == SortBy.NAME ? filename : null, null, size,
+                sortBy == SortBy.UPLOADED ? uploadedAt : null, null, null);
+    }
+
+    private static Instant startOf(LocalDate date) {
+        return date.atStartOfDay(ZoneId.systemDefault()).toInstant();
+    }
+}
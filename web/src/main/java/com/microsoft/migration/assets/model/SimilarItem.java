@@ -0,0 +1,17 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * An image found by similarity search, with the number of perceptual hash bits it
+ * differs from the query image in.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class SimilarItem {
+    private S3StorageItem item;
+    private int distance;
+}
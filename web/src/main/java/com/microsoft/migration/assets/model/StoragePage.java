@@ -0,0 +1,39 @@
+package com.microsoft.migration.assets.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * One page of a listing, newest first. {@code nextCursor} is null on the last page.
+ */
+@Data
+@AllArgsConstructor
+public class StoragePage {
+    private List<S3StorageItem> items;
+    private String nextCursor;
+
+    /**
+     * Opaque cursor for the position after an item, from its sort timestamp and tie-breaker.
+     */
+    public static String cursor(String timestamp, String tieBreaker) {
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString((timestamp + "|" + tieBreaker).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * The timestamp and tie-breaker of a cursor, or null if it is not a valid cursor.
+     */
+    public static String[] parseCursor(String cursor) {
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int separator = decoded.indexOf('|');
+            return separator < 0 ? null : new String[] {decoded.substring(0, separator), decoded.substring(separator + 1)};
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
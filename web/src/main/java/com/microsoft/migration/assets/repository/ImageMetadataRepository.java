@@ -1,10 +1,62 @@
 package com.microsoft.migration.assets.repository;
 
-import com.microsoft.migration.assets.model.ImageMetadata;
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
 
 @Repository
 public interface ImageMetadataRepository extends JpaRepository<ImageMetadata, String> {
     // Basic CRUD operations are automatically provided by JpaRepository
-}
\ No newline at end of file
+
+    Optional<ImageMetadata> findFirstByS3Key(String s3Key);
+
+    Optional<ImageMetadata> findFirstByThumbnailKey(String thumbnailKey);
+
+    /**
+     * First page of the catalog listing, newest first.
+     */
+    List<ImageMetadata> findByS3KeyIsNotNullOrderByUploadedAtDescIdDesc(Pageable pageable);
+
+    /**
+     * Next page of the catalog listing: the rows after {@code (uploadedAt, id)} in
+     * newest-first order, served from the (uploaded_at, id) index without an offset scan.
+     */
+    @Query("select m from ImageMetadata m where m.s3Key is not null"
+            + " and (m.uploadedAt < :uploadedAt or (m.uploadedAt = :uploadedAt and m.id < :id))"
+            + " order by m.uploadedAt desc, m.id desc")
+    List<ImageMetadata> findPageAfter(@Param("uploadedAt") LocalDateTime uploadedAt, @Param("id") String id,
+                                      Pageable pageable);
+
+    /**
+     * The metadata of many objects in a single query.
+     */
+    List<ImageMetadata> findByS3KeyIn(Collection<String> keys);
+
+    /**
+     * The rows modified after {@code (lastModified, id)}, oldest first, a page at a time
+     * from the (last_modified, id) index.
+     */
+    @Query("select m from ImageMetadata m where m.s3Key is not null"
+            + " and (m.lastModified > :lastModified or (m.lastModified = :lastModified and m.id > :id))"
+            + " order by m.lastModified, m.id")
+    List<ImageMetadata> findModifiedAfter(@Param("lastModified") LocalDateTime lastModified, @Param("id") String id,
+                                          Pageable pageable);
+
+    /**
+     * Delete the metadata of many objects in a single statement.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from ImageMetadata m where m.s3Key in :keys")
+    int deleteByS3KeyIn(@Param("keys") Collection<String> keys);
+}
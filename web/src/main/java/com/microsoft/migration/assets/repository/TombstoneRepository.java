@@ -0,0 +1,35 @@
+package com.microsoft.migration.assets.repository;
+
+import com.microsoft.migration.assets.common.model.Tombstone;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Repository
+public interface TombstoneRepository extends JpaRepository<Tombstone, String> {
+
+    /**
+     * The tombstones recorded after {@code (deletedAt, s3Key)}, oldest first, a page at a
+     * time from the deleted_at index.
+     */
+    @Query("select t from Tombstone t"
+            + " where t.deletedAt > :deletedAt or (t.deletedAt = :deletedAt and t.s3Key > :s3Key)"
+            + " order by t.deletedAt, t.s3Key")
+    List<Tombstone> findDeletedAfter(@Param("deletedAt") LocalDateTime deletedAt, @Param("s3Key") String s3Key,
+                                     Pageable pageable);
+
+    /**
+     * Delete the tombstones of objects deleted before a cutoff, in a single statement.
+     */
+    @Modifying
+    @Transactional
+    @Query("delete from Tombstone t where t.deletedAt < :cutoff")
+    int deleteDeletedBefore(@Param("cutoff") LocalDateTime cutoff);
+}
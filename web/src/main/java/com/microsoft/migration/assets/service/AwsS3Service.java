@@ -1,117 +1,200 @@
 package com.microsoft.migration.assets.service;
 
-import com.microsoft.migration.assets.model.ImageMetadata;
-import com.microsoft.migration.assets.model.ImageProcessingMessage;
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessage;
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import com.microsoft.migration.assets.common.storage.KeyPartitioner;
+import com.microsoft.migration.assets.config.RenditionProperties;
+import com.microsoft.migration.assets.model.CatalogEntry;
 import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.SearchQuery;
+import com.microsoft.migration.assets.model.SimilarItem;
+import com.microsoft.migration.assets.model.StoragePage;
 import com.microsoft.migration.assets.repository.ImageMetadataRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
-import org.springframework.beans.factory.annotation.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import software.amazon.awssdk.core.exception.SdkException;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.model.*;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
 import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
-import static com.microsoft.migration.assets.config.RabbitConfig.QUEUE_NAME;
-
+@Slf4j
 @Service
 @RequiredArgsConstructor
 @Profile("!dev") // Active when not in dev profile
 public class AwsS3Service implements StorageService {
 
+    // DeleteObjects accepts at most 1000 keys per request
+    private static final int DELETE_BATCH_SIZE = 1000;
+
     private final S3Client s3Client;
-    private final RabbitTemplate rabbitTemplate;
+    private final ImageProcessingPublisher imageProcessingPublisher;
     private final ImageMetadataRepository imageMetadataRepository;
-
-    @Value("${aws.s3.bucket}")
-    private String bucketName;
+    private final ParallelUploader parallelUploader;
+    private final KeyPartitioner keyPartitioner;
+    private final RenditionProperties renditionProperties;
+    private final SimilarityIndex similarityIndex;
+    private final SearchIndex searchIndex;
+    private final InlineThumbnailer inlineThumbnailer;
+    private final TombstoneRecorder tombstoneRecorder;
+    private final ApplicationEventPublisher eventPublisher;
 
     @Override
     public List<S3StorageItem> listObjects() {
-        ListObjectsV2Request request = ListObjectsV2Request.builder()
-                .bucket(bucketName)
-                .build();
+        // Served from the metadata catalog; CatalogReconciler keeps it in line with the bucket
+        return imageMetadataRepository.findAll(Sort.by(Sort.Direction.DESC, "uploadedAt", "id")).stream()
+                .filter(metadata -> metadata.getS3Key() != null)
+                .map(this::toStorageItem)
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public StoragePage listObjects(String cursor, int limit) {
+        String[] position = cursor == null ? null : StoragePage.parseCursor(cursor);
+        PageRequest page = PageRequest.of(0, limit + 1);
+        List<ImageMetadata> rows;
+        try {
+            rows = position == null
+                    ? imageMetadataRepository.findByS3KeyIsNotNullOrderByUploadedAtDescIdDesc(page)
+                    : imageMetadataRepository.findPageAfter(LocalDateTime.parse(position[0]), position[1], page);
+        } catch (DateTimeParseException e) {
+            // Not one of our cursors; start from the first page
+            rows = imageMetadataRepository.findByS3KeyIsNotNullOrderByUploadedAtDescIdDesc(page);
+        }
+
+        String nextCursor = null;
+        if (rows.size() > limit) {
+            rows = rows.subList(0, limit);
+            ImageMetadata last = rows.get(limit - 1);
+            nextCursor = StoragePage.cursor(last.getUploadedAt().toString(), last.getId());
+        }
+        return new StoragePage(rows.stream().map(this::toStorageItem).collect(Collectors.toList()), nextCursor);
+    }
+
+    @Override
+    public Optional<S3StorageItem> findObject(String key) {
+        return imageMetadataRepository.findFirstByS3Key(key).map(this::toStorageItem);
+    }
 
-        ListObjectsV2Response response = s3Client.listObjectsV2(request);
-
-        return response.contents().stream()
-                .map(s3Object -> {
-                    // Try to get metadata for upload time
-                    Instant uploadedAt = imageMetadataRepository.findAll().stream()
-                            .filter(metadata -> metadata.getS3Key().equals(s3Object.key()))
-                            .map(metadata -> metadata.getUploadedAt().atZone(java.time.ZoneId.systemDefault()).toInstant())
-                            .findFirst()
-                            .orElse(s3Object.lastModified()); // fallback to lastModified if metadata not found
-
-                    return new S3StorageItem(
-                            s3Object.key(),
-                            extractFilename(s3Object.key()),
-                            s3Object.size(),
-                            s3Object.lastModified(),
-                            uploadedAt,
-                            generateUrl(s3Object.key())
-                    );
-                })
+    @Override
+    public StoragePage search(SearchQuery query, int limit) {
+        return query.page(searchIndex.search(query, limit), limit, this::toStorageItem);
+    }
+
+    @Override
+    public List<SimilarItem> findSimilar(String key, int maxDistance, int limit) throws IOException {
+        ImageMetadata source = imageMetadataRepository.findFirstByS3Key(key)
+                .orElseThrow(() -> new FileNotFoundException("No such image: " + key));
+        if (source.getPerceptualHash() == null) {
+            return List.of();
+        }
+        List<SimilarityIndex.Match> matches = similarityIndex.search(source.getPerceptualHash(), maxDistance).stream()
+                .filter(match -> !match.getKey().equals(key))
+                .limit(limit)
                 .collect(Collectors.toList());
+        Map<String, ImageMetadata> rows = imageMetadataRepository.findByS3KeyIn(
+                        matches.stream().map(SimilarityIndex.Match::getKey).collect(Collectors.toList())).stream()
+                .collect(Collectors.toMap(ImageMetadata::getS3Key, row -> row, (a, b) -> a));
+
+        List<SimilarItem> similar = new ArrayList<>(matches.size());
+        for (SimilarityIndex.Match match : matches) {
+            ImageMetadata row = rows.get(match.getKey());
+            // Deleted since the index last heard from the catalog
+            if (row != null) {
+                similar.add(new SimilarItem(toStorageItem(row), match.getDistance()));
+            }
+        }
+        return similar;
     }
 
     @Override
     public void uploadObject(MultipartFile file) throws IOException {
-        String key = generateKey(file.getOriginalFilename());
-        
-        PutObjectRequest request = PutObjectRequest.builder()
-                .bucket(bucketName)
-                .key(key)
-                .contentType(file.getContentType())
-                .build();
-        
-        s3Client.putObject(request, RequestBody.fromInputStream(file.getInputStream(), file.getSize()));
+        ImageMetadata metadata = putObject(file);
+        // Publish the saved row, which carries the timestamps set on persist
+        eventPublisher.publishEvent(CatalogChangeEvent.uploaded(List.of(imageMetadataRepository.save(metadata))));
+        // New keys are unique, so there is rarely a tombstone; but a stored key must never have one
+        tombstoneRecorder.clear(List.of(metadata.getS3Key()));
 
-        // Send message to queue for thumbnail generation
-        ImageProcessingMessage message = new ImageProcessingMessage(
-            key,
-            file.getContentType(),
-            getStorageType(),
-            file.getSize()
-        );
-        rabbitTemplate.convertAndSend(QUEUE_NAME, message);
+        // Send message to queue for thumbnail generation, unless it was rendered inline
+        if (metadata.getThumbnailKey() == null) {
+            imageProcessingPublisher.publish(processingMessage(metadata));
+        }
+    }
 
-        // Create and save metadata to database
-        ImageMetadata metadata = new ImageMetadata();
-        metadata.setId(UUID.randomUUID().toString());
-        metadata.setFilename(file.getOriginalFilename());
-        metadata.setContentType(file.getContentType());
-        metadata.setSize(file.getSize());
-        metadata.setS3Key(key);
-        metadata.setS3Url(generateUrl(key));
-        
-        imageMetadataRepository.save(metadata);
+    @Override
+    public void uploadObjects(List<MultipartFile> files) throws IOException {
+        ParallelUploader.Outcome<ImageMetadata> outcome = parallelUploader.storeAll(files, this::putObject);
+
+        eventPublisher.publishEvent(CatalogChangeEvent.uploaded(imageMetadataRepository.saveAll(outcome.getStored())));
+        tombstoneRecorder.clear(outcome.getStored().stream()
+                .map(ImageMetadata::getS3Key)
+                .collect(Collectors.toList()));
+        imageProcessingPublisher.publishAll(outcome.getStored().stream()
+                .filter(metadata -> metadata.getThumbnailKey() == null)
+                .map(this::processingMessage)
+                .collect(Collectors.toList()));
+
+        outcome.throwIfFailed(files.size());
     }
 
     @Override
     public InputStream getObject(String key) throws IOException {
         GetObjectRequest request = GetObjectRequest.builder()
-                .bucket(bucketName)
+                .bucket(keyPartitioner.bucketFor(key))
                 .key(key)
                 .build();
-        
-        return s3Client.getObject(request);
+
+        try {
+            return s3Client.getObject(request);
+        } catch (NoSuchKeyException e) {
+            throw new FileNotFoundException("File not found: " + key);
+        }
+    }
+
+    @Override
+    public InputStream getRendition(String renditionKey) throws IOException {
+        return getObject(renditionKey);
+    }
+
+    @Override
+    public void putRendition(String renditionKey, Path file, String contentType) throws IOException {
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(keyPartitioner.bucketFor(renditionKey))
+                .key(renditionKey)
+                .contentType(contentType)
+                .build();
+
+        s3Client.putObject(request, RequestBody.fromFile(file));
     }
 
     @Override
     public void deleteObject(String key) throws IOException {
         // Delete both original and thumbnail if it exists
         DeleteObjectRequest request = DeleteObjectRequest.builder()
-                .bucket(bucketName)
+                .bucket(keyPartitioner.bucketFor(key))
                 .key(key)
                 .build();
         
@@ -120,19 +203,87 @@ public class AwsS3Service implements StorageService {
         try {
             // Try to delete thumbnail if it exists
             DeleteObjectRequest thumbnailRequest = DeleteObjectRequest.builder()
-                    .bucket(bucketName)
+                    .bucket(keyPartitioner.bucketFor(key))
                     .key(getThumbnailKey(key))
                     .build();
             s3Client.deleteObject(thumbnailRequest);
         } catch (Exception e) {
             // Ignore if thumbnail doesn't exist
         }
+        deleteRenditions(key);
 
         // Delete metadata from database
-        imageMetadataRepository.findAll().stream()
-                .filter(metadata -> metadata.getS3Key().equals(key))
-                .findFirst()
-                .ifPresent(metadata -> imageMetadataRepository.delete(metadata));
+        imageMetadataRepository.deleteByS3KeyIn(List.of(key));
+        eventPublisher.publishEvent(CatalogChangeEvent.deleted(List.of(key)));
+    }
+
+    @Override
+    public void deleteObjects(List<String> keys) throws IOException {
+        // Originals and thumbnails go out together, one batch per bucket; S3 does not report
+        // missing keys as errors
+        Map<String, List<ObjectIdentifier>> identifiersByBucket = new LinkedHashMap<>();
+        for (String key : keys) {
+            List<ObjectIdentifier> identifiers = identifiersByBucket.computeIfAbsent(
+                    keyPartitioner.bucketFor(key), bucket -> new ArrayList<>());
+            identifiers.add(ObjectIdentifier.builder().key(key).build());
+            identifiers.add(ObjectIdentifier.builder().key(getThumbnailKey(key)).build());
+            for (int size : renditionProperties.getSizes()) {
+                identifiers.add(ObjectIdentifier.builder().key(getRenditionKey(key, size)).build());
+            }
+        }
+
+        Set<String> failedKeys = new HashSet<>();
+        List<String> errors = new ArrayList<>();
+        for (Map.Entry<String, List<ObjectIdentifier>> bucket : identifiersByBucket.entrySet()) {
+            List<ObjectIdentifier> identifiers = bucket.getValue();
+            for (int from = 0; from < identifiers.size(); from += DELETE_BATCH_SIZE) {
+                DeleteObjectsRequest request = DeleteObjectsRequest.builder()
+                        .bucket(bucket.getKey())
+                        .delete(Delete.builder()
+                                .objects(identifiers.subList(from, Math.min(from + DELETE_BATCH_SIZE, identifiers.size())))
+                                .quiet(true)
+                                .build())
+                        .build();
+                for (S3Error error : s3Client.deleteObjects(request).errors()) {
+                    failedKeys.add(error.key());
+                    errors.add(error.key() + ": " + error.message());
+                }
+            }
+        }
+
+        // Keep the metadata of originals that are still in the bucket. Rows go in chunks like
+        // the objects, so a large selection stays within the database's bind parameter limit
+        List<String> deletedKeys = keys.stream()
+                .filter(key -> !failedKeys.contains(key))
+                .collect(Collectors.toList());
+        for (int from = 0; from < deletedKeys.size(); from += DELETE_BATCH_SIZE) {
+            List<String> chunk = deletedKeys.subList(from, Math.min(from + DELETE_BATCH_SIZE, deletedKeys.size()));
+            imageMetadataRepository.deleteByS3KeyIn(chunk);
+            eventPublisher.publishEvent(CatalogChangeEvent.deleted(new ArrayList<>(chunk)));
+        }
+
+        if (!errors.isEmpty()) {
+            throw new IOException("Failed to delete " + errors.size() + " objects: " + String.join("; ", errors));
+        }
+    }
+
+    private void deleteRenditions(String key) {
+        // Renditions are generated on demand, so most sizes are usually missing; S3 does not
+        // report those as errors
+        List<ObjectIdentifier> renditions = renditionProperties.getSizes().stream()
+                .map(size -> ObjectIdentifier.builder().key(getRenditionKey(key, size)).build())
+                .collect(Collectors.toList());
+        if (renditions.isEmpty()) {
+            return;
+        }
+        try {
+            s3Client.deleteObjects(DeleteObjectsRequest.builder()
+                    .bucket(keyPartitioner.bucketFor(key))
+                    .delete(Delete.builder().objects(renditions).quiet(true).build())
+                    .build());
+        } catch (Exception e) {
+            // Ignore, as for the thumbnail
+        }
     }
 
     @Override
@@ -140,6 +291,36 @@ public class AwsS3Service implements StorageService {
         return "s3";
     }
 
+    private S3StorageItem toStorageItem(CatalogEntry entry) {
+        String key = entry.getKey();
+        return new S3StorageItem(
+                key,
+                entry.getFilename() != null ? entry.getFilename() : extractFilename(key),
+                entry.getSize(),
+                entry.getLastModified(),
+                entry.getUploadedAt(),
+                generateUrl(key),
+                entry.getThumbnailKey() != null ? generateUrl(entry.getThumbnailKey()) : null
+        );
+    }
+
+    private S3StorageItem toStorageItem(ImageMetadata metadata) {
+        String key = metadata.getS3Key();
+        return new S3StorageItem(
+                key,
+                metadata.getFilename() != null ? metadata.getFilename() : extractFilename(key),
+                metadata.getSize() != null ? metadata.getSize() : 0,
+                toInstant(metadata.getLastModified()),
+                toInstant(metadata.getUploadedAt()),
+                metadata.getS3Url() != null ? metadata.getS3Url() : generateUrl(key),
+                metadata.getThumbnailUrl()
+        );
+    }
+
+    private static Instant toInstant(LocalDateTime time) {
+        return time == null ? null : time.atZone(ZoneId.systemDefault()).toInstant();
+    }
+
     private String extractFilename(String key) {
         // Extract filename from the object key
         int lastSlashIndex = key.lastIndexOf('/');
@@ -148,13 +329,72 @@ public class AwsS3Service implements StorageService {
     
     private String generateUrl(String key) {
         GetUrlRequest request = GetUrlRequest.builder()
-                .bucket(bucketName)
+                .bucket(keyPartitioner.bucketFor(key))
                 .key(key)
                 .build();
         return s3Client.utilities().getUrl(request).toString();
     }
 
-    private String generateKey(String filename) {
-        return UUID.randomUUID().toString() + "-" + filename;
+    private ImageMetadata putObject(MultipartFile file) throws IOException {
+        String key = keyPartitioner.newKey(file.getOriginalFilename());
+
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(keyPartitioner.bucketFor(key))
+                .key(key)
+                .contentType(file.getContentType())
+                .build();
+
+        s3Client.putObject(request, RequestBody.fromInputStream(file.getInputStream(), file.getSize()));
+
+        // Metadata to save once the object is stored
+        ImageMetadata metadata = new ImageMetadata();
+        metadata.setId(UUID.randomUUID().toString());
+        metadata.setFilename(file.getOriginalFilename());
+        metadata.setContentType(file.getContentType());
+        metadata.setSize(file.getSize());
+        metadata.setS3Key(key);
+        metadata.setS3Url(generateUrl(key));
+        if (inlineThumbnailer.accepts(file)) {
+            InlineThumbnailer.Thumbnail thumbnail = inlineThumbnailer.render(file);
+            if (thumbnail != null) {
+                putThumbnail(metadata, thumbnail);
+            }
+        }
+        return metadata;
+    }
+
+    /**
+     * Store a thumbnail rendered during the upload and record it as the worker would; if
+     * it cannot be stored, the upload is left to the worker.
+     */
+    private void putThumbnail(ImageMetadata metadata, InlineThumbnailer.Thumbnail thumbnail) {
+        String thumbnailKey = getThumbnailKey(metadata.getS3Key());
+        PutObjectRequest request = PutObjectRequest.builder()
+                .bucket(keyPartitioner.bucketFor(thumbnailKey))
+                .key(thumbnailKey)
+                .contentType(thumbnail.getImage().getContentType())
+                .build();
+        try {
+            s3Client.putObject(request, RequestBody.fromBytes(thumbnail.getData()));
+        } catch (SdkException e) {
+            log.warn("Could not store inline thumbnail {}: {}", thumbnailKey, e.getMessage());
+            return;
+        }
+
+        metadata.setThumbnailKey(thumbnailKey);
+        metadata.setThumbnailUrl(generateUrl(thumbnailKey));
+        metadata.setThumbnailSize(thumbnail.getImage().getSize());
+        metadata.setThumbnailEncoding(thumbnail.getImage().getEncoding());
+        metadata.setThumbnailContentType(thumbnail.getImage().getContentType());
+        metadata.setPerceptualHash(thumbnail.getImage().getPerceptualHash());
+    }
+
+    private ImageProcessingMessage processingMessage(ImageMetadata metadata) {
+        return new ImageProcessingMessage(
+            metadata.getS3Key(),
+            metadata.getContentType(),
+            getStorageType(),
+            metadata.getSize()
+        );
     }
 }
\ No newline at end of file
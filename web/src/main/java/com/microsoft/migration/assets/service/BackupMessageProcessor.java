@@ -1,54 +1,46 @@
 package com.microsoft.migration.assets.service;
 
-import com.microsoft.migration.assets.model.ImageProcessingMessage;
-import com.rabbitmq.client.Channel;
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessage;
+import com.microsoft.migration.assets.metrics.MessageStatsWindow;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
-import org.springframework.amqp.support.AmqpHeaders;
-import org.springframework.messaging.handler.annotation.Header;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
-import static com.microsoft.migration.assets.config.RabbitConfig.QUEUE_NAME;
-
-import java.io.IOException;
+import static com.microsoft.migration.assets.config.RabbitConfig.MONITOR_CONTAINER_FACTORY;
+import static com.microsoft.migration.assets.config.RabbitConfig.MONITOR_QUEUE_NAME;
 
 /**
- * A backup message processor that serves as a monitoring and logging service.
- * 
+ * A backup message processor that serves as a monitoring service. It consumes its own
+ * copy of every thumbnail job from the lane exchanges, so it never takes work away
+ * from the workers, and keeps sliding-window aggregates that are served on the
+ * {@code /actuator/backup} endpoint instead of logging each message.
+ *
  * Only enabled when the "backup" profile is active.
  */
 @Slf4j
 @Component
-@Profile("backup") 
+@Profile("backup")
+@Endpoint(id = "backup")
 public class BackupMessageProcessor {
 
-    /**
-     * Processes image messages from a backup queue for monitoring and resilience purposes.
-     * Uses the same RabbitMQ API pattern as the worker module.
-     */
-    @RabbitListener(queues = QUEUE_NAME)
-    public void processBackupMessage(final ImageProcessingMessage message, 
-                                    Channel channel, 
-                                    @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
-        try {
-            log.info("[BACKUP] Monitoring message: {}", message.getKey());
-            log.info("[BACKUP] Content type: {}, Storage: {}, Size: {}", 
-                    message.getContentType(), message.getStorageType(), message.getSize());
-            
-            // Acknowledge the message
-            channel.basicAck(deliveryTag, false);
-            log.info("[BACKUP] Successfully processed message: {}", message.getKey());
-        } catch (Exception e) {
-            log.error("[BACKUP] Failed to process message: " + message.getKey(), e);
-            
-            try {
-                // Reject the message and requeue it
-                channel.basicNack(deliveryTag, false, true);
-                log.warn("[BACKUP] Message requeued: {}", message.getKey());
-            } catch (IOException ackEx) {
-                log.error("[BACKUP] Error handling RabbitMQ acknowledgment: {}", message.getKey(), ackEx);
-            }
-        }
+    private final MessageStatsWindow window;
+
+    public BackupMessageProcessor(@Value("${assets.monitor.window-seconds:60}") int windowSeconds) {
+        this.window = new MessageStatsWindow(windowSeconds);
+    }
+
+    @RabbitListener(queues = MONITOR_QUEUE_NAME, containerFactory = MONITOR_CONTAINER_FACTORY)
+    public void processBackupMessage(final ImageProcessingMessage message) {
+        window.record(message.getContentType(), message.getStorageType(), message.getSize());
+        log.debug("[BACKUP] Monitoring message: {}", message.getKey());
+    }
+
+    @ReadOperation
+    public MessageStatsWindow.Snapshot stats() {
+        return window.snapshot();
     }
-}
\ No newline at end of file
+}
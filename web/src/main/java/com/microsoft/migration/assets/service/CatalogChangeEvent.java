@@ -0,0 +1,59 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import lombok.Value;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Published when catalog rows are added, changed or removed, so in-memory views of the
+ * catalog follow it without querying it. The rows are shared by every listener and must
+ * not be modified.
+ */
+@Value
+public class CatalogChangeEvent {
+    public enum Type {
+        // Stored by this process
+        UPLOADED,
+        // Changed in the catalog, by any process, e.g. a worker recording the thumbnail
+        UPDATED,
+        // Removed with their objects by this process
+        DELETED,
+        // Removed from the catalog, by any process, e.g. another instance's reconciliation
+        REMOVED
+    }
+
+    Type type;
+    // The rows added or changed; empty for DELETED and REMOVED
+    List<ImageMetadata> rows;
+    // The keys of the originals concerned
+    List<String> keys;
+
+    public static CatalogChangeEvent uploaded(List<ImageMetadata> rows) {
+        return new CatalogChangeEvent(Type.UPLOADED, rows, keysOf(rows));
+    }
+
+    public static CatalogChangeEvent updated(List<ImageMetadata> rows) {
+        return new CatalogChangeEvent(Type.UPDATED, rows, keysOf(rows));
+    }
+
+    public static CatalogChangeEvent deleted(List<String> keys) {
+        return new CatalogChangeEvent(Type.DELETED, List.of(), keys);
+    }
+
+    public static CatalogChangeEvent removed(List<String> keys) {
+        return new CatalogChangeEvent(Type.REMOVED, List.of(), keys);
+    }
+
+    /**
+     * Whether the keys are gone from the catalog, whoever removed them.
+     */
+    public boolean isRemoval() {
+        return type == Type.DELETED || type == Type.REMOVED;
+    }
+
+    private static List<String> keysOf(List<ImageMetadata> rows) {
+        return rows.stream().map(ImageMetadata::getS3Key).collect(Collectors.toList());
+    }
+}
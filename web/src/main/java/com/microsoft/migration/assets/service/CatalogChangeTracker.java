@@ -0,0 +1,119 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import com.microsoft.migration.assets.common.model.Tombstone;
+import com.microsoft.migration.assets.repository.ImageMetadataRepository;
+import com.microsoft.migration.assets.repository.TombstoneRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Publishes catalog rows changed by other processes, such as the worker recording a
+ * thumbnail, as {@link CatalogChangeEvent#updated} events, and rows deleted by other
+ * instances, found from their tombstones, as {@link CatalogChangeEvent#removed} events.
+ * <p>
+ * It polls the (last_modified, id) index for rows modified since the last poll; the first
+ * poll reads the whole catalog, so in-memory views are filled at startup from the same
+ * events. Each poll re-reads a few seconds before the watermark, so rows committed with a
+ * slightly earlier timestamp, or stamped by a worker whose clock lags, are not missed;
+ * listeners treat a row they have already seen as a no-op. Tombstones are read the same
+ * way after the rows, starting from just before the first poll, since rows deleted
+ * earlier are not in the catalog it loads.
+ */
+@Slf4j
+@Component
+@Profile("!dev")
+public class CatalogChangeTracker {
+    private static final int PAGE_SIZE = 5000;
+    private static final LocalDateTime EPOCH = LocalDateTime.of(1970, 1, 1, 0, 0);
+
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final TombstoneRepository tombstoneRepository;
+    private final ApplicationEventPublisher eventPublisher;
+    private final long overlapMs;
+
+    // Where the next poll resumes; only touched by the scheduler thread
+    private boolean loaded;
+    private LocalDateTime watermark = EPOCH;
+    private String watermarkId = "";
+    private LocalDateTime tombstoneWatermark;
+    private String tombstoneWatermarkKey = "";
+
+    public CatalogChangeTracker(ImageMetadataRepository imageMetadataRepository,
+                                TombstoneRepository tombstoneRepository,
+                                ApplicationEventPublisher eventPublisher,
+                                @Value("${assets.catalog.changes.overlap-ms:10000}") long overlapMs) {
+        this.imageMetadataRepository = imageMetadataRepository;
+        this.tombstoneRepository = tombstoneRepository;
+        this.eventPublisher = eventPublisher;
+        this.overlapMs = overlapMs;
+    }
+
+    @Scheduled(fixedDelayString = "${assets.catalog.changes.poll-interval-ms:5000}")
+    public void poll() {
+        try {
+            boolean initial = !loaded;
+            if (tombstoneWatermark == null) {
+                tombstoneWatermark = LocalDateTime.now();
+            }
+            LocalDateTime after = initial ? EPOCH : watermark.minus(Duration.ofMillis(overlapMs));
+            String afterId = "";
+            int read = 0;
+            List<ImageMetadata> page;
+            do {
+                page = imageMetadataRepository.findModifiedAfter(after, afterId, PageRequest.of(0, PAGE_SIZE));
+                if (page.isEmpty()) {
+                    break;
+                }
+                eventPublisher.publishEvent(CatalogChangeEvent.updated(page));
+                ImageMetadata last = page.get(page.size() - 1);
+                after = last.getLastModified();
+                afterId = last.getId();
+                if (after.isAfter(watermark) || (after.equals(watermark) && afterId.compareTo(watermarkId) > 0)) {
+                    watermark = after;
+                    watermarkId = afterId;
+                }
+                read += page.size();
+            } while (page.size() == PAGE_SIZE);
+            loaded = true;
+            if (initial) {
+                log.info("Loaded {} catalog rows", read);
+            }
+            pollTombstones();
+        } catch (RuntimeException e) {
+            log.error("Polling the catalog for changes failed", e);
+        }
+    }
+
+    private void pollTombstones() {
+        LocalDateTime after = tombstoneWatermark.minus(Duration.ofMillis(overlapMs));
+        String afterKey = "";
+        List<Tombstone> page;
+        do {
+            page = tombstoneRepository.findDeletedAfter(after, afterKey, PageRequest.of(0, PAGE_SIZE));
+            if (page.isEmpty()) {
+                break;
+            }
+            eventPublisher.publishEvent(CatalogChangeEvent.removed(
+                    page.stream().map(Tombstone::getS3Key).collect(Collectors.toList())));
+            Tombstone last = page.get(page.size() - 1);
+            after = last.getDeletedAt();
+            afterKey = last.getS3Key();
+            if (after.isAfter(tombstoneWatermark)
+                    || (after.equals(tombstoneWatermark) && afterKey.compareTo(tombstoneWatermarkKey) > 0)) {
+                tombstoneWatermark = after;
+                tombstoneWatermarkKey = afterKey;
+            }
+        } while (page.size() == PAGE_SIZE);
+    }
+}
@@ -0,0 +1,380 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import com.microsoft.migration.assets.common.storage.KeyPartitioner;
+import com.microsoft.migration.assets.repository.ImageMetadataRepository;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetUrlRequest;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import javax.persistence.EntityManager;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Repairs drift between the bucket and the metadata catalog that listing is served from.
+ * <p>
+ * Each pass streams the bucket listing (every partition bucket, merged) and the
+ * catalog, both in key order, and merge-joins them, so memory stays constant however large the bucket is:
+ * <ul>
+ *   <li>originals: objects without a row get one, rows whose object is gone are removed;</li>
+ *   <li>thumbnails: unreferenced thumbnails are linked to their original's row or deleted
+ *       when the original is gone, and rows pointing at a missing thumbnail are cleared.</li>
+ * </ul>
+ * Objects and rows changed within the grace period are left alone, so uploads in flight
+ * between the S3 put and the metadata save are never "repaired".
+ */
+@Slf4j
+@Component
+@Profile("!dev")
+@ConditionalOnProperty(name = "assets.catalog.reconcile.enabled", havingValue = "true", matchIfMissing = true)
+@RequiredArgsConstructor
+public class CatalogReconciler {
+    static final Comparator<String> KEY_ORDER = CatalogReconciler::compareKeys;
+
+    private static final int ROW_CHUNK_SIZE = 500;
+    private static final String THUMBNAIL_SUFFIX = "_thumbnail";
+    private static final Pattern RENDITION_KEY =
+            Pattern.compile(".*" + Pattern.quote(StorageService.RENDITION_MARKER) + "\\d+(\\.[^.]*)?");
+
+    private final S3Client s3Client;
+    private final ImageMetadataRepository imageMetadataRepository;
+    private final EntityManager entityManager;
+    private final KeyPartitioner keyPartitioner;
+    private final ApplicationEventPublisher eventPublisher;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Value("${assets.catalog.reconcile.grace-period-ms:600000}")
+    private long gracePeriodMs;
+
+    // Database collation that sorts like S3's binary key order, e.g. "C" on PostgreSQL
+    @Value("${assets.catalog.reconcile.key-collation:}")
+    private String keyCollation;
+
+    private boolean keyIndexesCreated;
+
+    @Scheduled(initialDelayString = "${assets.catalog.reconcile.initial-delay-ms:60000}",
+            fixedDelayString = "${assets.catalog.reconcile.interval-ms:3600000}")
+    public void reconcile() {
+        Instant cutoff = Instant.now().minusMillis(gracePeriodMs);
+        ensureKeyIndexes();
+        try {
+            reconcileOriginals(cutoff);
+            reconcileThumbnails(cutoff);
+        } catch (RuntimeException e) {
+            log.error("Catalog reconciliation failed", e);
+        }
+    }
+
+    void reconcileOriginals(Instant cutoff) {
+        AtomicInteger added = new AtomicInteger();
+        AtomicInteger removed = new AtomicInteger();
+        mergeJoin(listBucket(key -> true), rowsOrderedBy("s3key"), ImageMetadata::getS3Key,
+                object -> {
+                    // Thumbnail-shaped keys without a row of their own are handled by the thumbnail pass,
+                    // and renditions never get rows
+                    if (originalKeyOf(object.key()) == null && !isRenditionKey(object.key())
+                            && object.lastModified().isBefore(cutoff)) {
+                        imageMetadataRepository.save(newRow(object));
+                        added.incrementAndGet();
+                    }
+                },
+                row -> {
+                    if (isSettled(row, cutoff)) {
+                        imageMetadataRepository.delete(row);
+                        eventPublisher.publishEvent(CatalogChangeEvent.deleted(List.of(row.getS3Key())));
+                        removed.incrementAndGet();
+                    }
+                });
+        log.info("Catalog reconciliation (originals): {} rows added, {} rows removed", added, removed);
+    }
+
+    void reconcileThumbnails(Instant cutoff) {
+        AtomicInteger linked = new AtomicInteger();
+        AtomicInteger deleted = new AtomicInteger();
+        AtomicInteger cleared = new AtomicInteger();
+        mergeJoin(listBucket(key -> originalKeyOf(key) != null), rowsOrderedBy("thumbnail_key"),
+                ImageMetadata::getThumbnailKey,
+                object -> {
+                    String key = object.key();
+                    if (object.lastModified().isBefore(cutoff) && imageMetadataRepository.findFirstByS3Key(key).isEmpty()) {
+                        ImageMetadata original = imageMetadataRepository.findFirstByS3Key(originalKeyOf(key)).orElse(null);
+                        if (original != null) {
+                            original.setThumbnailKey(key);
+                            original.setThumbnailUrl(generateUrl(key));
+                            imageMetadataRepository.save(original);
+                            linked.incrementAndGet();
+                        } else {
+                            s3Client.deleteObject(DeleteObjectRequest.builder()
+                                    .bucket(keyPartitioner.bucketFor(key)).key(key).build());
+                            deleted.incrementAndGet();
+                        }
+                    }
+                },
+                row -> {
+                    if (isSettled(row, cutoff)) {
+                        row.setThumbnailKey(null);
+                        row.setThumbnailUrl(null);
+                        imageMetadataRepository.save(row);
+                        cleared.incrementAndGet();
+                    }
+                });
+        log.info("Catalog reconciliation (thumbnails): {} linked, {} orphans deleted, {} dangling references cleared",
+                linked, deleted, cleared);
+    }
+
+    /**
+     * Walks objects and rows, both in {@link #KEY_ORDER}, and hands over the ones whose key
+     * the other side does not have.
+     */
+    static <R> void mergeJoin(Iterator<S3Object> objects, Iterator<R> rows, Function<R, String> rowKey,
+                              Consumer<S3Object> objectOnly, Consumer<R> rowOnly) {
+        S3Object object = next(objects);
+        R row = next(rows);
+        while (object != null || row != null) {
+            int order = object == null ? 1 : row == null ? -1 : KEY_ORDER.compare(object.key(), rowKey.apply(row));
+            if (order == 0) {
+                object = next(objects);
+                row = next(rows);
+            } else if (order < 0) {
+                objectOnly.accept(object);
+                object = next(objects);
+            } else {
+                rowOnly.accept(row);
+                row = next(rows);
+            }
+        }
+    }
+
+    /**
+     * Every bucket's objects merged into key order, each bucket fetched a page at a time.
+     */
+    private Iterator<S3Object> listBucket(Predicate<String> keyFilter) {
+        List<Iterator<S3Object>> listings = new ArrayList<>();
+        for (String bucket : keyPartitioner.buckets()) {
+            listings.add(s3Client.listObjectsV2Paginator(request -> request.bucket(bucket)).contents().stream()
+                    .filter(object -> keyFilter.test(object.key()))
+                    .iterator());
+        }
+        return mergeListings(listings);
+    }
+
+    /**
+     * Listings, each in {@link #KEY_ORDER}, merged into one.
+     */
+    static Iterator<S3Object> mergeListings(List<Iterator<S3Object>> listings) {
+        PriorityQueue<PeekingIterator> heads = new PriorityQueue<>(
+                Comparator.comparing((PeekingIterator listing) -> listing.peek().key(), KEY_ORDER));
+        for (Iterator<S3Object> iterator : listings) {
+            PeekingIterator listing = new PeekingIterator(iterator);
+            if (listing.peek() != null) {
+                heads.add(listing);
+            }
+        }
+
+        return new Iterator<S3Object>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public S3Object next() {
+                PeekingIterator head = heads.poll();
+                if (head == null) {
+                    throw new NoSuchElementException();
+                }
+                S3Object object = head.next();
+                if (head.peek() != null) {
+                    heads.add(head);
+                }
+                return object;
+            }
+        };
+    }
+
+    /**
+     * Orders keys by their UTF-8 bytes, as S3 lists them and the "C" collation sorts them.
+     * That is code point order, which {@link String#compareTo} is not: it compares UTF-16
+     * units, and so puts supplementary characters before U+E000 to U+FFFF.
+     */
+    static int compareKeys(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for (int i = 0; i < length; ) {
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(i);
+            if (codePointA != codePointB) {
+                return Integer.compare(codePointA, codePointB);
+            }
+            i += Character.charCount(codePointA);
+        }
+        return Integer.compare(a.length(), b.length());
+    }
+
+    private static final class PeekingIterator {
+        private final Iterator<S3Object> iterator;
+        private S3Object head;
+
+        PeekingIterator(Iterator<S3Object> iterator) {
+            this.iterator = iterator;
+            this.head = CatalogReconciler.next(iterator);
+        }
+
+        S3Object peek() {
+            return head;
+        }
+
+        S3Object next() {
+            S3Object current = head;
+            head = CatalogReconciler.next(iterator);
+            return current;
+        }
+    }
+
+    /**
+     * The entity's key indexes are in the column's own collation, which cannot serve the
+     * keyset chunks once they are ordered in another one: each chunk would scan and sort the
+     * whole table. JPA cannot declare an index in a collation, so the ones the chunks need
+     * are created here, once, without blocking writes. Reconciliation still works without
+     * them, only slowly.
+     */
+    private void ensureKeyIndexes() {
+        if (keyCollation.isEmpty() || keyIndexesCreated) {
+            return;
+        }
+        try {
+            for (String column : List.of("s3key", "thumbnail_key")) {
+                jdbcTemplate.execute("create index concurrently if not exists idx_image_metadata_" + column
+                        + "_collated on image_metadata (" + orderedColumn(column) + ")");
+            }
+            keyIndexesCreated = true;
+        } catch (DataAccessException e) {
+            log.warn("Could not create the collated key indexes for catalog reconciliation: {}", e.getMessage());
+        }
+    }
+
+    private String orderedColumn(String column) {
+        return keyCollation.isEmpty() ? column : column + " collate \"" + keyCollation + "\"";
+    }
+
+    /**
+     * Catalog rows with a non-null value in the given key column, in key order, fetched in
+     * keyset chunks. Each chunk is loaded outside a transaction, so rows are detached and
+     * nothing accumulates in a persistence context.
+     */
+    private Iterator<ImageMetadata> rowsOrderedBy(String column) {
+        String orderedColumn = orderedColumn(column);
+        String sql = "select * from image_metadata where " + column + " is not null and "
+                + orderedColumn + " > :after order by " + orderedColumn;
+
+        return new Iterator<ImageMetadata>() {
+            private Iterator<ImageMetadata> chunk = fetch("");
+            private String last;
+            private boolean exhausted;
+
+            @SuppressWarnings("unchecked")
+            private Iterator<ImageMetadata> fetch(String after) {
+                List<ImageMetadata> rows = entityManager.createNativeQuery(sql, ImageMetadata.class)
+                        .setParameter("after", after)
+                        .setMaxResults(ROW_CHUNK_SIZE)
+                        .getResultList();
+                exhausted = rows.size() < ROW_CHUNK_SIZE;
+                return rows.iterator();
+            }
+
+            @Override
+            public boolean hasNext() {
+                if (!chunk.hasNext() && !exhausted && last != null) {
+                    chunk = fetch(last);
+                }
+                return chunk.hasNext();
+            }
+
+            @Override
+            public ImageMetadata next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ImageMetadata row = chunk.next();
+                last = "s3key".equals(column) ? row.getS3Key() : row.getThumbnailKey();
+                return row;
+            }
+        };
+    }
+
+    private ImageMetadata newRow(S3Object object) {
+        ImageMetadata metadata = new ImageMetadata();
+        metadata.setId(UUID.randomUUID().toString());
+        metadata.setFilename(extractFilename(object.key()));
+        metadata.setSize(object.size());
+        metadata.setS3Key(object.key());
+        metadata.setS3Url(generateUrl(object.key()));
+        metadata.setUploadedAt(LocalDateTime.ofInstant(object.lastModified(), ZoneId.systemDefault()));
+        return metadata;
+    }
+
+    private static boolean isSettled(ImageMetadata row, Instant cutoff) {
+        return row.getLastModified() == null
+                || row.getLastModified().atZone(ZoneId.systemDefault()).toInstant().isBefore(cutoff);
+    }
+
+    /**
+     * The original key a thumbnail key was derived from, or null if it is not thumbnail-shaped.
+     */
+    private static String originalKeyOf(String key) {
+        int dotIndex = key.lastIndexOf('.');
+        String base = dotIndex > 0 ? key.substring(0, dotIndex) : key;
+        String extension = dotIndex > 0 ? key.substring(dotIndex) : "";
+        return base.endsWith(THUMBNAIL_SUFFIX)
+                ? base.substring(0, base.length() - THUMBNAIL_SUFFIX.length()) + extension
+                : null;
+    }
+
+    private static boolean isRenditionKey(String key) {
+        return RENDITION_KEY.matcher(key).matches();
+    }
+
+    /**
+     * Original filename from a {@code <uuid>-<filename>} key, partitioned or not.
+     */
+    private static String extractFilename(String key) {
+        String name = KeyPartitioner.stripPartition(key.substring(key.lastIndexOf('/') + 1));
+        return name.length() > 37 && name.charAt(36) == '-' ? name.substring(37) : name;
+    }
+
+    private static <T> T next(Iterator<T> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private String generateUrl(String key) {
+        GetUrlRequest request = GetUrlRequest.builder()
+                .bucket(keyPartitioner.bucketFor(key))
+                .key(key)
+                .build();
+        return s3Client.utilities().getUrl(request).toString();
+    }
+}
@@ -0,0 +1,356 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.messaging.CatalogChangeMessage;
+import com.microsoft.migration.assets.common.messaging.ThumbnailReadyMessage;
+import com.microsoft.migration.assets.model.S3StorageItem;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.annotation.RabbitHandler;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static com.microsoft.migration.assets.config.RabbitConfig.CATALOG_CHANGES_EXCHANGE_NAME;
+import static com.microsoft.migration.assets.config.RabbitConfig.EVENTS_CONTAINER_FACTORY;
+
+/**
+ * Pushes catalog changes to open listings as server-sent events, so a page patches the
+ * cards that changed instead of re-fetching the listing: {@code upload} with the new
+ * items, {@code delete} with the removed keys and {@code thumbnail} with an item whose
+ * thumbnail the worker has just recorded.
+ * <p>
+ * Every change reaches the feed through the broker, uploads and deletes included, so
+ * each instance's pages see the changes made through every other instance.
+ * <p>
+ * Every change gets the next sequence number as its event id, and the latest ones are
+ * kept so a page that reconnects, or connects just after it was rendered, is sent what
+ * it missed. A page too far behind for that is sent {@code reset} and reloads. Numbering
+ * starts from the startup time, so ids from before a restart are always too old.
+ * <p>
+ * Changes are numbered and queued for each subscriber on a single thread, in order, and
+ * sent from a small pool, one subscriber's events at a time, so a slow connection only
+ * holds up itself. A subscriber more events behind than are kept for replay is dropped;
+ * like one whose connection fails, it reconnects by itself and is sent what it missed.
+ */
+@Slf4j
+@Component
+@RabbitListener(queues = "#{changeFeedQueue.name}", containerFactory = EVENTS_CONTAINER_FACTORY)
+public class ChangeFeed {
+    public static final String UPLOAD = "upload";
+    public static final String DELETE = "delete";
+    public static final String THUMBNAIL = "thumbnail";
+    public static final String RESET = "reset";
+
+    private static final Supplier<SseEmitter.SseEventBuilder> HEARTBEAT = () -> SseEmitter.event().comment("heartbeat");
+
+    private final StorageService storageService;
+    private final RabbitTemplate rabbitTemplate;
+    private final long timeoutMs;
+    private final int maxSubscribers;
+    private final int replaySize;
+    private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sequencer = Executors.newSingleThreadExecutor(new CustomizableThreadFactory("change-feed-"));
+    private final ThreadPoolExecutor senders;
+    // Only touched on the sequencer thread, apart from reading the sequence
+    private final Deque<Change> recent = new ArrayDeque<>();
+    private volatile long sequence = System.currentTimeMillis();
+
+    public ChangeFeed(StorageService storageService, RabbitTemplate rabbitTemplate, MeterRegistry registry,
+                      @Value("${assets.changes.timeout-ms:600000}") long timeoutMs,
+                      @Value("${assets.changes.max-subscribers:1000}") int maxSubscribers,
+                      @Value("${assets.changes.replay-size:256}") int replaySize,
+                      @Value("${assets.changes.send-threads:8}") int sendThreads) {
+        this.storageService = storageService;
+        this.rabbitTemplate = rabbitTemplate;
+        this.timeoutMs = timeoutMs;
+        this.maxSubscribers = maxSubscribers;
+        this.replaySize = Math.max(1, replaySize);
+        int threads = Math.max(1, sendThreads);
+        // Each subscriber has at most one send queued, so the queue is bounded by the subscribers
+        this.senders = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("change-feed-send-"));
+        this.senders.allowCoreThreadTimeOut(true);
+        Gauge.builder("assets.changes.subscribers", subscribers, Set::size)
+                .description("Open change feed connections")
+                .register(registry);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        sequencer.shutdownNow();
+        senders.shutdownNow();
+        subscribers.forEach(subscriber -> subscriber.emitter.complete());
+    }
+
+    /**
+     * The id of the latest change; a page rendered now subscribes from it.
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * Open a feed, first sending the changes after {@code since} (none if null).
+     *
+     * @return the feed, or null if there are already as many subscribers as allowed
+     */
+    public SseEmitter subscribe(Long since) {
+        if (subscribers.size() >= maxSubscribers) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        Subscriber subscriber = new Subscriber(emitter);
+        emitter.onCompletion(subscriber::closed);
+        emitter.onTimeout(subscriber::closed);
+        emitter.onError(e -> subscriber.closed());
+        sequencer.execute(() -> {
+            if (since != null && !replay(subscriber, since)) {
+                return;
+            }
+            subscribers.add(subscriber);
+            // Unless it closed meanwhile, in which case it may have missed being removed
+            if (subscriber.isClosing()) {
+                subscribers.remove(subscriber);
+            }
+        });
+        return emitter;
+    }
+
+    /**
+     * Announce this instance's uploads and deletes to every instance, this one included.
+     * A lost announcement only leaves open pages stale until they are next loaded.
+     */
+    @EventListener
+    public void announce(CatalogChangeEvent event) {
+        // UPDATED events re-read the tracker's overlap window; thumbnails come from the worker
+        CatalogChangeMessage.Type type = event.getType() == CatalogChangeEvent.Type.UPLOADED
+                ? CatalogChangeMessage.Type.UPLOADED
+                : event.getType() == CatalogChangeEvent.Type.DELETED ? CatalogChangeMessage.Type.DELETED : null;
+        if (type == null || event.getKeys().isEmpty()) {
+            return;
+        }
+        try {
+            rabbitTemplate.convertAndSend(CATALOG_CHANGES_EXCHANGE_NAME, "",
+                    new CatalogChangeMessage(type, event.getKeys()));
+        } catch (AmqpException e) {
+            log.warn("Could not announce {} catalog changes: {}", event.getKeys().size(), e.getMessage());
+        }
+    }
+
+    @RabbitHandler
+    public void onCatalogChange(CatalogChangeMessage message) {
+        List<String> keys = message.getKeys();
+        if (message.getType() == CatalogChangeMessage.Type.UPLOADED) {
+            List<S3StorageItem> items = new ArrayList<>(keys.size());
+            for (String key : keys) {
+                storageService.findObject(key).ifPresent(items::add);
+            }
+            if (!items.isEmpty()) {
+                sequencer.execute(() -> publish(UPLOAD, items));
+            }
+        } else if (message.getType() == CatalogChangeMessage.Type.DELETED) {
+            sequencer.execute(() -> publish(DELETE, keys));
+        }
+    }
+
+    @RabbitHandler
+    public void onThumbnailReady(ThumbnailReadyMessage message) {
+        // Gone if it was deleted meanwhile, which the page has been told about
+        Optional<S3StorageItem> item = storageService.findObject(message.getKey());
+        item.ifPresent(found -> sequencer.execute(() -> publish(THUMBNAIL, found)));
+    }
+
+    /**
+     * Keeps idle connections open through proxies, and finds the ones that have gone.
+     */
+    @Scheduled(fixedDelayString = "${assets.changes.heartbeat-ms:25000}")
+    public void heartbeat() {
+        sequencer.execute(() -> {
+            for (Subscriber subscriber : subscribers) {
+                subscriber.offer(HEARTBEAT);
+            }
+        });
+    }
+
+    private void publish(String name, Object data) {
+        Change change = new Change(++sequence, name, data);
+        recent.addLast(change);
+        if (recent.size() > replaySize) {
+            recent.removeFirst();
+        }
+        for (Subscriber subscriber : subscribers) {
+            subscriber.offer(change::event);
+        }
+    }
+
+    /**
+     * @return false if the subscriber was reset
+     */
+    private boolean replay(Subscriber subscriber, long since) {
+        long oldest = recent.isEmpty() ? sequence + 1 : recent.getFirst().getId();
+        if (since < oldest - 1 || since > sequence) {
+            log.debug("Resetting change feed subscriber at {}, feed is at {}", since, sequence);
+            long reset = sequence;
+            subscriber.offer(() -> SseEmitter.event().id(Long.toString(reset)).name(RESET).data(reset));
+            subscriber.finish();
+            return false;
+        }
+        for (Change change : recent) {
+            if (change.getId() > since) {
+                subscriber.offer(change::event);
+            }
+        }
+        return true;
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    private static class Change {
+        private final long id;
+        private final String name;
+        private final Object data;
+
+        SseEmitter.SseEventBuilder event() {
+            return SseEmitter.event().id(Long.toString(id)).name(name).data(data, MediaType.APPLICATION_JSON);
+        }
+    }
+
+    /**
+     * A connection and the events queued for it, which are sent in order by at most one
+     * sender thread at a time. Events are queued as builders to be made per send, since a
+     * built event cannot be sent twice.
+     */
+    private final class Subscriber {
+        private final SseEmitter emitter;
+        // Guarded by this
+        private final Deque<Supplier<SseEmitter.SseEventBuilder>> pending = new ArrayDeque<>();
+        private boolean sending;
+        // Taking no more events, and completed once the queued ones are sent
+        private boolean closing;
+        private boolean completed;
+
+        Subscriber(SseEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        synchronized boolean isClosing() {
+            return closing;
+        }
+
+        /**
+         * Queue an event, or drop the subscriber if it is as far behind as replay reaches.
+         */
+        void offer(Supplier<SseEmitter.SseEventBuilder> event) {
+            boolean dropped;
+            synchronized (this) {
+                if (closing) {
+                    return;
+                }
+                dropped = pending.size() >= replaySize;
+                if (dropped) {
+                    pending.clear();
+                    closing = true;
+                } else {
+                    pending.addLast(event);
+                }
+            }
+            if (dropped) {
+                log.debug("Dropping change feed subscriber {} events behind", replaySize);
+                subscribers.remove(this);
+            }
+            schedule();
+        }
+
+        /**
+         * Complete the feed once the events queued so far are sent.
+         */
+        void finish() {
+            synchronized (this) {
+                closing = true;
+            }
+            subscribers.remove(this);
+            schedule();
+        }
+
+        /**
+         * The connection was completed, timed out or failed; nothing more is sent.
+         */
+        void closed() {
+            synchronized (this) {
+                pending.clear();
+                closing = true;
+                completed = true;
+            }
+            subscribers.remove(this);
+        }
+
+        private void schedule() {
+            synchronized (this) {
+                if (sending || completed) {
+                    return;
+                }
+                sending = true;
+            }
+            senders.execute(this::drain);
+        }
+
+        private void drain() {
+            while (true) {
+                Supplier<SseEmitter.SseEventBuilder> event;
+                boolean complete = false;
+                synchronized (this) {
+                    event = completed ? null : pending.pollFirst();
+                    if (event == null) {
+                        sending = false;
+                        complete = closing && !completed;
+                        completed |= complete;
+                    }
+                }
+                if (event == null) {
+                    if (complete) {
+                        emitter.complete();
+                    }
+                    return;
+                }
+                try {
+                    // Blocks while the client is not reading, until the container's write timeout
+                    emitter.send(event.get());
+                } catch (IOException | IllegalStateException e) {
+                    // Disconnected, or already completed
+                    closed();
+                    synchronized (this) {
+                        sending = false;
+                    }
+                    emitter.completeWithError(e);
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessage;
+import com.microsoft.migration.assets.metrics.RequestTimings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static com.microsoft.migration.assets.config.RabbitConfig.EXCHANGE_NAME;
+import static com.microsoft.migration.assets.config.RabbitConfig.LARGE_EXCHANGE_NAME;
+import static com.microsoft.migration.assets.config.RabbitConfig.LARGE_QUEUE_NAME;
+import static com.microsoft.migration.assets.config.RabbitConfig.QUEUE_NAME;
+
+/**
+ * Publishes thumbnail jobs into size-based lanes. Small uploads go to the default
+ * queue that users are actively waiting on; large ones go to a separate queue
+ * with its own consumers so a burst of big scans cannot delay them. Each lane is
+ * fed through its own fanout exchange, which also copies jobs to any monitor.
+ */
+@Slf4j
+@Component
+public class ImageProcessingPublisher {
+
+    private final RabbitTemplate rabbitTemplate;
+    private final MeterRegistry registry;
+
+    @Value("${assets.processing.large-threshold-bytes:5242880}")
+    private long largeThresholdBytes;
+
+    public ImageProcessingPublisher(RabbitTemplate rabbitTemplate, MeterRegistry registry) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.registry = registry;
+    }
+
+    public void publish(ImageProcessingMessage message) {
+        String queue = queueFor(message);
+        log.debug("Publishing thumbnail job for {} ({} bytes) to {}", message.getKey(), message.getSize(), queue);
+        Timer.Sample sample = Timer.start(registry);
+        rabbitTemplate.convertAndSend(exchangeFor(queue), "", message);
+        stop(sample, queue);
+    }
+
+    /**
+     * Publish a batch of jobs over a single channel rather than one checkout per message.
+     */
+    public void publishAll(List<ImageProcessingMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        log.debug("Publishing {} thumbnail jobs", messages.size());
+        Timer.Sample sample = Timer.start(registry);
+        rabbitTemplate.invoke(operations -> {
+            for (ImageProcessingMessage message : messages) {
+                operations.convertAndSend(exchangeFor(queueFor(message)), "", message);
+            }
+            return null;
+        });
+        stop(sample, "batch");
+    }
+
+    private void stop(Timer.Sample sample, String queue) {
+        long nanos = sample.stop(Timer.builder("assets.broker.publish")
+                .description("Time to publish thumbnail jobs to the broker")
+                .tag("queue", queue)
+                .publishPercentileHistogram()
+                .register(registry));
+        RequestTimings.record(RequestTimings.BROKER, nanos);
+    }
+
+    /**
+     * Select the lane for a job from the size it already carries.
+     */
+    public String queueFor(ImageProcessingMessage message) {
+        return message.getSize() >= largeThresholdBytes ? LARGE_QUEUE_NAME : QUEUE_NAME;
+    }
+
+    private static String exchangeFor(String queue) {
+        return LARGE_QUEUE_NAME.equals(queue) ? LARGE_EXCHANGE_NAME : EXCHANGE_NAME;
+    }
+}
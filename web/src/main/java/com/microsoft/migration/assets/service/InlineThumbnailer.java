@@ -0,0 +1,179 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.image.EncodedImage;
+import com.microsoft.migration.assets.common.image.ImageFormat;
+import com.microsoft.migration.assets.common.image.ImageProbe;
+import com.microsoft.migration.assets.common.image.ImageResizer;
+import com.microsoft.migration.assets.common.image.PerceptualHash;
+import com.microsoft.migration.assets.common.image.ThumbnailRenderer;
+import com.microsoft.migration.assets.config.InlineThumbnailProperties;
+import com.microsoft.migration.assets.config.RenditionProperties;
+import com.microsoft.migration.assets.metrics.RequestTimings;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PreDestroy;
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Renders the thumbnail of a small upload while its request is still open, so it is
+ * listed with a thumbnail straight away instead of after a trip through the queue and
+ * the worker.
+ * <p>
+ * Rendering runs on a fixed pool with a short queue, which bounds the CPU and heap the
+ * web tier spends on it. An upload that finds the queue full, takes too long or is not
+ * a readable image within the limits gets no inline thumbnail, and is queued for the
+ * worker as usual. The pipeline is the worker's, from the shared {@link ThumbnailRenderer}.
+ */
+@Slf4j
+@Service
+@Profile("!dev")
+public class InlineThumbnailer {
+    private final InlineThumbnailProperties properties;
+    private final RenditionProperties renditions;
+    private final MeterRegistry registry;
+    private final ThreadPoolExecutor executor;
+
+    public InlineThumbnailer(InlineThumbnailProperties properties, RenditionProperties renditions,
+                             MeterRegistry registry) {
+        this.properties = properties;
+        this.renditions = renditions;
+        this.registry = registry;
+        int threads = properties.getMaxConcurrent() > 0
+                ? properties.getMaxConcurrent() : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, properties.getQueueCapacity())),
+                new CustomizableThreadFactory("inline-thumbnail-"));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Whether the thumbnail of an upload may be rendered inline at all.
+     */
+    public boolean accepts(MultipartFile file) {
+        return properties.isEnabled() && file.getSize() <= properties.getMaxBytes();
+    }
+
+    /**
+     * Render an upload's thumbnail and wait for it.
+     *
+     * @return the thumbnail, or null if it is left to the worker
+     */
+    public Thumbnail render(MultipartFile file) {
+        Timer.Sample sample = Timer.start(registry);
+        String result = "failed";
+        Future<Thumbnail> rendering = null;
+        try {
+            rendering = executor.submit(() -> generate(file));
+            Thumbnail thumbnail = rendering.get(properties.getTimeoutMs(), TimeUnit.MILLISECONDS);
+            result = thumbnail == null ? "declined"
+                    : EncodedImage.ENCODING_ORIGINAL.equals(thumbnail.getImage().getEncoding()) ? "original" : "rendered";
+            return thumbnail;
+        } catch (RejectedExecutionException e) {
+            result = "busy";
+            return null;
+        } catch (TimeoutException e) {
+            rendering.cancel(true);
+            result = "timeout";
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Could not render thumbnail of {} inline: {}", file.getOriginalFilename(), e.getCause().toString());
+            return null;
+        } finally {
+            long nanos = sample.stop(Timer.builder("assets.inline-thumbnails")
+                    .description("Thumbnails rendered during uploads, by whether they were left to the worker")
+                    .tag("result", result)
+                    .publishPercentileHistogram()
+                    .register(registry));
+            RequestTimings.record(RequestTimings.THUMBNAIL, nanos);
+        }
+    }
+
+    private Thumbnail generate(MultipartFile file) throws IOException {
+        Path original = null;
+        Path output = null;
+        try {
+            original = Files.createTempFile("inline-original", null);
+            try (InputStream in = file.getInputStream()) {
+                Files.copy(in, original, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            // Identify the upload by its content; its name and declared type may be wrong
+            ImageFormat format = ImageFormat.sniff(original);
+            ImageProbe probe = format == null ? null : ImageProbe.probe(original);
+            if (probe == null || probe.pixels() > properties.getMaxPixels()) {
+                return null;
+            }
+            int size = renditions.getThumbnailSize();
+            if (probe.fitsWithin(size)) {
+                // Already within bounds, so stored as its own thumbnail, as the worker does
+                BufferedImage image = ImageResizer.readSubsampled(original, 1);
+                byte[] data = Files.readAllBytes(original);
+                return new Thumbnail(data, new EncodedImage(probe.getFormatName().toLowerCase(Locale.ROOT),
+                        format.getContentType(), data.length, EncodedImage.ENCODING_ORIGINAL,
+                        image != null ? PerceptualHash.of(image) : null));
+            }
+
+            Dimension target = ImageResizer.fitWithin(probe.getWidth(), probe.getHeight(), size);
+            BufferedImage image = ImageResizer.readSubsampled(original,
+                    ImageResizer.subsampling(probe, target.width, target.height));
+            if (image == null) {
+                return null;
+            }
+            output = Files.createTempFile("inline-thumbnail", null);
+            EncodedImage encoded = ThumbnailRenderer.render(image, target.width, target.height,
+                    properties.getProfile(), output, ThumbnailRenderer.StageTimer.NONE);
+            return new Thumbnail(Files.readAllBytes(output), encoded);
+        } finally {
+            deleteQuietly(original);
+            deleteQuietly(output);
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete temporary file {}: {}", file, e.getMessage());
+        }
+    }
+
+    /**
+     * An encoded thumbnail, small enough to be held in memory until it is stored.
+     */
+    @Value
+    public static class Thumbnail {
+        byte[] data;
+        EncodedImage image;
+    }
+}
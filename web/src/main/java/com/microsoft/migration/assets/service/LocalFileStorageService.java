@@ -1,11 +1,15 @@
 package com.microsoft.migration.assets.service;
 
-import com.microsoft.migration.assets.model.ImageProcessingMessage;
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessage;
+import com.microsoft.migration.assets.common.storage.LocalStorageLayout;
+import com.microsoft.migration.assets.config.RenditionProperties;
+import com.microsoft.migration.assets.metrics.StorageMetrics;
 import com.microsoft.migration.assets.model.S3StorageItem;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
@@ -14,28 +18,40 @@ import org.springframework.web.multipart.MultipartFile;
 import javax.annotation.PostConstruct;
 import java.io.*;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 import java.util.stream.Collectors;
 
-import static com.microsoft.migration.assets.config.RabbitConfig.QUEUE_NAME;
-
 @Service
 @Profile("dev") // Only active when dev profile is active
 public class LocalFileStorageService implements StorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(LocalFileStorageService.class);
     
-    private final RabbitTemplate rabbitTemplate;
+    private final ImageProcessingPublisher imageProcessingPublisher;
+    private final ParallelUploader parallelUploader;
+    private final StorageMetrics storageMetrics;
+    private final RenditionProperties renditionProperties;
+    private final ApplicationEventPublisher eventPublisher;
+    private final TombstoneRecorder tombstoneRecorder;
     
     @Value("${local.storage.directory:../storage}")
     private String storageDirectory;
     
     private Path rootLocation;
+    private LocalStorageLayout layout;
 
-    public LocalFileStorageService(RabbitTemplate rabbitTemplate) {
-        this.rabbitTemplate = rabbitTemplate;
+    public LocalFileStorageService(ImageProcessingPublisher imageProcessingPublisher, ParallelUploader parallelUploader,
+                                   StorageMetrics storageMetrics, RenditionProperties renditionProperties,
+                                   ApplicationEventPublisher eventPublisher, TombstoneRecorder tombstoneRecorder) {
+        this.imageProcessingPublisher = imageProcessingPublisher;
+        this.parallelUploader = parallelUploader;
+        this.storageMetrics = storageMetrics;
+        this.renditionProperties = renditionProperties;
+        this.eventPublisher = eventPublisher;
+        this.tombstoneRecorder = tombstoneRecorder;
     }
     
     @PostConstruct
@@ -48,93 +64,168 @@ public class LocalFileStorageService implements StorageService {
             Files.createDirectories(rootLocation);
             logger.info("Created local storage directory");
         }
+
+        layout = new LocalStorageLayout(rootLocation);
+        layout.migrateFlatFiles();
     }
 
     @Override
     public List<S3StorageItem> listObjects() {
+        Timer.Sample sample = storageMetrics.start();
+        String outcome = StorageMetrics.OUTCOME_ERROR;
         try {
-            return Files.walk(rootLocation, 1)
-                .filter(path -> !path.equals(rootLocation))
-                .map(path -> {
-                    try {
-                        String filename = path.getFileName().toString();
-                        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
-                        return new S3StorageItem(
-                            filename,
-                            filename,
-                            Files.size(path),
-                            attrs.lastModifiedTime().toInstant(),
-                            attrs.creationTime().toInstant(),
-                            generateUrl(filename)
-                        );
-                    } catch (IOException e) {
-                        logger.error("Failed to read file attributes", e);
-                        return null;
-                    }
-                })
-                .filter(s3StorageItem -> s3StorageItem != null)
+            // Replayed from the storage index rather than walking the shards
+            List<S3StorageItem> items = layout.list().stream()
+                .map(this::toStorageItem)
                 .collect(Collectors.toList());
+            outcome = StorageMetrics.OUTCOME_SUCCESS;
+            return items;
         } catch (IOException e) {
             logger.error("Failed to list files", e);
             return new ArrayList<>();
+        } finally {
+            storageMetrics.stop(sample, "ListObjects", outcome);
         }
     }
 
     @Override
-    public void uploadObject(MultipartFile file) throws IOException {
-        if (file.isEmpty()) {
-            throw new IOException("Failed to store empty file");
-        }
-        
-        String filename = StringUtils.cleanPath(file.getOriginalFilename());
-        if (filename.contains("..")) {
-            throw new IOException("Cannot store file with relative path outside current directory");
+    public Optional<S3StorageItem> findObject(String key) {
+        Timer.Sample sample = storageMetrics.start();
+        String outcome = StorageMetrics.OUTCOME_ERROR;
+        try {
+            // One lookup in the replayed index, not a scan of the whole listing
+            Optional<S3StorageItem> item = layout.find(key).map(this::toStorageItem);
+            outcome = StorageMetrics.OUTCOME_SUCCESS;
+            return item;
+        } catch (IOException e) {
+            logger.error("Failed to look up file {}", key, e);
+            return Optional.empty();
+        } finally {
+            storageMetrics.stop(sample, "HeadObject", outcome);
         }
-        
-        Path targetLocation = rootLocation.resolve(filename);
-        Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-        logger.info("Stored file: {}", targetLocation);
+    }
+
+    @Override
+    public void uploadObject(MultipartFile file) throws IOException {
+        ImageProcessingMessage message = storeFile(file);
+        // Keys are filenames, so a deleted image is often uploaded again under the same key
+        tombstoneRecorder.clear(List.of(message.getKey()));
 
         // Send message to queue for thumbnail generation
-        ImageProcessingMessage message = new ImageProcessingMessage(
-            filename,
-            file.getContentType(),
-            getStorageType(),
-            file.getSize()
-        );
-        rabbitTemplate.convertAndSend(QUEUE_NAME, message);
+        imageProcessingPublisher.publish(message);
+    }
+
+    @Override
+    public void uploadObjects(List<MultipartFile> files) throws IOException {
+        ParallelUploader.Outcome<ImageProcessingMessage> outcome = parallelUploader.storeAll(files, this::storeFile);
+        tombstoneRecorder.clear(outcome.getStored().stream()
+                .map(ImageProcessingMessage::getKey)
+                .collect(Collectors.toList()));
+        imageProcessingPublisher.publishAll(outcome.getStored());
+        outcome.throwIfFailed(files.size());
     }
 
     @Override
     public InputStream getObject(String key) throws IOException {
-        Path file = rootLocation.resolve(key);
+        Timer.Sample sample = storageMetrics.start();
+        String outcome = StorageMetrics.OUTCOME_ERROR;
+        try {
+            Path file = resolve(key);
+            if (!Files.exists(file)) {
+                throw new FileNotFoundException("File not found: " + key);
+            }
+            InputStream in = new BufferedInputStream(Files.newInputStream(file));
+            outcome = StorageMetrics.OUTCOME_SUCCESS;
+            return in;
+        } finally {
+            storageMetrics.stop(sample, "GetObject", outcome);
+        }
+    }
+
+    @Override
+    public InputStream getRendition(String renditionKey) throws IOException {
+        Path file = renditionPath(renditionKey);
         if (!Files.exists(file)) {
-            throw new FileNotFoundException("File not found: " + key);
+            throw new FileNotFoundException("Rendition not found: " + renditionKey);
         }
         return new BufferedInputStream(Files.newInputStream(file));
     }
 
+    @Override
+    public void putRendition(String renditionKey, Path file, String contentType) throws IOException {
+        Path target = renditionPath(renditionKey);
+        Files.createDirectories(target.getParent());
+        // Readers see either no rendition or a complete one
+        Path staged = Files.createTempFile(target.getParent(), "rendition", ".tmp");
+        try {
+            Files.copy(file, staged, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(staged, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
     @Override
     public void deleteObject(String key) throws IOException {
+        Timer.Sample sample = storageMetrics.start();
+        String outcome = StorageMetrics.OUTCOME_ERROR;
+        try {
+            deleteFiles(key);
+            outcome = StorageMetrics.OUTCOME_SUCCESS;
+        } finally {
+            storageMetrics.stop(sample, "DeleteObject", outcome);
+        }
+        eventPublisher.publishEvent(CatalogChangeEvent.deleted(List.of(key)));
+    }
+
+    private void deleteFiles(String key) throws IOException {
         // Delete both original and thumbnail if it exists
-        Path file = rootLocation.resolve(key);
+        Path file = resolve(key);
         if (!Files.exists(file)) {
             throw new FileNotFoundException("File not found: " + key);
         }
         Files.delete(file);
+        layout.recordDelete(key, file.equals(layout.thumbnailPath(key))
+                ? LocalStorageLayout.KIND_THUMBNAIL : LocalStorageLayout.KIND_ORIGINAL);
         logger.info("Deleted file: {}", file);
 
         // Try to delete thumbnail if it exists
         try {
-            Path thumbnailFile = rootLocation.resolve(getThumbnailKey(key));
+            String thumbnailKey = getThumbnailKey(key);
+            Path thumbnailFile = layout.thumbnailPath(thumbnailKey);
             if (Files.exists(thumbnailFile)) {
                 Files.delete(thumbnailFile);
+                layout.recordDelete(thumbnailKey, LocalStorageLayout.KIND_THUMBNAIL);
                 logger.info("Deleted thumbnail file: {}", thumbnailFile);
             }
         } catch (Exception e) {
             // Ignore if thumbnail doesn't exist or can't be deleted
             logger.warn("Could not delete thumbnail for {}: {}", key, e.getMessage());
         }
+
+        for (int size : renditionProperties.getSizes()) {
+            try {
+                Files.deleteIfExists(renditionPath(getRenditionKey(key, size)));
+            } catch (IOException e) {
+                logger.warn("Could not delete {}px rendition of {}: {}", size, key, e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void deleteObjects(List<String> keys) throws IOException {
+        List<String> errors = new ArrayList<>();
+        for (String key : keys) {
+            try {
+                deleteObject(key);
+            } catch (IOException e) {
+                errors.add(key + ": " + e.getMessage());
+            }
+        }
+        if (!errors.isEmpty()) {
+            throw new IOException("Failed to delete " + errors.size() + " of " + keys.size() + " files: "
+                    + String.join("; ", errors));
+        }
     }
 
     @Override
@@ -142,6 +233,65 @@ public class LocalFileStorageService implements StorageService {
         return "local";
     }
     
+    private ImageProcessingMessage storeFile(MultipartFile file) throws IOException {
+        if (file.isEmpty()) {
+            throw new IOException("Failed to store empty file");
+        }
+        
+        String filename = StringUtils.cleanPath(file.getOriginalFilename());
+        if (filename.contains("..")) {
+            throw new IOException("Cannot store file with relative path outside current directory");
+        }
+        
+        Path targetLocation = layout.originalPath(filename);
+        Timer.Sample sample = storageMetrics.start();
+        String outcome = StorageMetrics.OUTCOME_ERROR;
+        try {
+            Files.createDirectories(targetLocation.getParent());
+            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
+            Instant storedAt = Files.getLastModifiedTime(targetLocation).toInstant();
+            layout.recordPut(filename, LocalStorageLayout.KIND_ORIGINAL, Files.size(targetLocation), storedAt, storedAt);
+            outcome = StorageMetrics.OUTCOME_SUCCESS;
+        } finally {
+            storageMetrics.stop(sample, "PutObject", outcome);
+        }
+        logger.info("Stored file: {}", targetLocation);
+
+        return new ImageProcessingMessage(
+            filename,
+            file.getContentType(),
+            getStorageType(),
+            file.getSize()
+        );
+    }
+
+    private Path resolve(String key) throws IOException {
+        try {
+            return layout.resolve(key);
+        } catch (IllegalArgumentException e) {
+            throw new FileNotFoundException("File not found: " + key);
+        }
+    }
+
+    private Path renditionPath(String renditionKey) throws IOException {
+        try {
+            return layout.renditionPath(renditionKey);
+        } catch (IllegalArgumentException e) {
+            throw new FileNotFoundException("Rendition not found: " + renditionKey);
+        }
+    }
+
+    private S3StorageItem toStorageItem(LocalStorageLayout.Entry entry) {
+        return new S3StorageItem(
+            entry.getKey(),
+            entry.getKey(),
+            entry.getSize(),
+            entry.getLastModified(),
+            entry.getCreated(),
+            generateUrl(entry.getKey())
+        );
+    }
+
     private String generateUrl(String key) {
         // Generate a URL for the object (simplified path)
         return "/s3/view/" + key;
@@ -0,0 +1,91 @@
+package com.microsoft.migration.assets.service;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the files of a bulk upload in parallel on a bounded pool shared by all
+ * requests. When the pool is saturated the request thread stores the file itself,
+ * so a large batch slows down its own request instead of queueing without limit.
+ */
+@Slf4j
+@Component
+public class ParallelUploader {
+
+    /**
+     * Stores one file and returns whatever the caller needs to finish the batch.
+     */
+    @FunctionalInterface
+    public interface FileStore<T> {
+        T store(MultipartFile file) throws IOException;
+    }
+
+    private final ExecutorService executor;
+
+    public ParallelUploader(@Value("${assets.bulk.upload-parallelism:8}") int parallelism) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(parallelism * 4), new CustomizableThreadFactory("bulk-upload-"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        pool.allowCoreThreadTimeOut(true);
+        this.executor = pool;
+    }
+
+    public <T> Outcome<T> storeAll(List<MultipartFile> files, FileStore<T> store) throws IOException {
+        List<Future<T>> futures = new ArrayList<>(files.size());
+        for (MultipartFile file : files) {
+            futures.add(executor.submit(() -> store.store(file)));
+        }
+
+        Outcome<T> outcome = new Outcome<>();
+        for (int i = 0; i < futures.size(); i++) {
+            String filename = files.get(i).getOriginalFilename();
+            try {
+                outcome.stored.add(futures.get(i).get());
+            } catch (ExecutionException e) {
+                log.warn("Failed to store {} in bulk upload", filename, e.getCause());
+                outcome.failures.add(filename + ": " + e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.forEach(future -> future.cancel(true));
+                throw new IOException("Bulk upload interrupted", e);
+            }
+        }
+        return outcome;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Results of the files that were stored and a description of each one that was not.
+     */
+    @Getter
+    public static class Outcome<T> {
+        private final List<T> stored = new ArrayList<>();
+        private final List<String> failures = new ArrayList<>();
+
+        public void throwIfFailed(int total) throws IOException {
+            if (!failures.isEmpty()) {
+                throw new IOException("Failed to upload " + failures.size() + " of " + total + " files: "
+                        + String.join("; ", failures));
+            }
+        }
+    }
+}
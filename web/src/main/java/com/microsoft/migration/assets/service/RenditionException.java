@@ -0,0 +1,26 @@
+package com.microsoft.migration.assets.service;
+
+/**
+ * A rendition could not be served: either the original cannot be rendered at all, or
+ * too many renditions are being generated and the caller should retry later.
+ */
+public class RenditionException extends RuntimeException {
+    private final boolean retryable;
+
+    private RenditionException(String message, boolean retryable) {
+        super(message);
+        this.retryable = retryable;
+    }
+
+    public static RenditionException unsupported(String message) {
+        return new RenditionException(message, false);
+    }
+
+    public static RenditionException busy(String message) {
+        return new RenditionException(message, true);
+    }
+
+    public boolean isRetryable() {
+        return retryable;
+    }
+}
@@ -0,0 +1,236 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.image.EncodedImage;
+import com.microsoft.migration.assets.common.image.ImageFormat;
+import com.microsoft.migration.assets.common.image.ImageProbe;
+import com.microsoft.migration.assets.common.image.ImageResizer;
+import com.microsoft.migration.assets.common.image.ThumbnailRenderer;
+import com.microsoft.migration.assets.config.RenditionProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Serves renditions of an original at any configured size, generating a missing one on
+ * the request thread with the same resize pipeline as the worker's thumbnails and storing
+ * it for the next request.
+ * <p>
+ * Concurrent requests for the same rendition share a single generation, and a semaphore
+ * bounds how many generations run at once, so a cold page full of renditions cannot
+ * occupy every CPU. Requests that cannot get a slot in time fail as retryable rather than
+ * queueing without limit. Originals are decoded subsampled to about twice the target
+ * size, so the full-size raster is never held in the web heap.
+ */
+@Slf4j
+@Service
+public class RenditionService {
+    // Enough to sniff any supported format
+    private static final int SNIFF_BYTES = 12;
+
+    private final StorageService storageService;
+    private final RenditionProperties properties;
+    private final MeterRegistry registry;
+    private final Semaphore generations;
+    private final ConcurrentMap<String, CompletableFuture<Rendition>> inFlight = new ConcurrentHashMap<>();
+
+    public RenditionService(StorageService storageService, RenditionProperties properties, MeterRegistry registry) {
+        this.storageService = storageService;
+        this.properties = properties;
+        this.registry = registry;
+        int permits = properties.getMaxConcurrent() > 0
+                ? properties.getMaxConcurrent() : Runtime.getRuntime().availableProcessors();
+        this.generations = new Semaphore(permits, true);
+    }
+
+    /**
+     * The rendition of a key whose longest side is at most {@code size} pixels.
+     *
+     * @throws IllegalArgumentException if the size is not one of the configured sizes
+     * @throws FileNotFoundException    if there is no such original
+     * @throws RenditionException       if the original cannot be rendered, or no generation slot freed up in time
+     */
+    public Rendition getRendition(String key, int size) throws IOException {
+        if (!properties.getSizes().contains(size)) {
+            throw new IllegalArgumentException("Unsupported rendition size " + size + ", expected one of "
+                    + properties.getSizes());
+        }
+        Timer.Sample sample = Timer.start(registry);
+        String result = "hit";
+        try {
+            Rendition stored = findStored(key, size);
+            if (stored != null) {
+                return stored;
+            }
+
+            String renditionKey = storageService.getRenditionKey(key, size);
+            CompletableFuture<Rendition> generation = new CompletableFuture<>();
+            CompletableFuture<Rendition> leader = inFlight.putIfAbsent(renditionKey, generation);
+            if (leader != null) {
+                result = "joined";
+                return await(leader, renditionKey);
+            }
+            try {
+                // A generation that finished between the lookup and taking the lead has stored it
+                Rendition rendition = findStored(key, size);
+                result = rendition != null ? "hit" : "generated";
+                if (rendition == null) {
+                    rendition = generate(key, size, renditionKey);
+                }
+                generation.complete(rendition);
+                return rendition;
+            } catch (IOException | RuntimeException e) {
+                generation.completeExceptionally(e);
+                throw e;
+            } finally {
+                inFlight.remove(renditionKey, generation);
+            }
+        } catch (IOException | RuntimeException e) {
+            result = e instanceof FileNotFoundException ? "missing"
+                    : e instanceof RenditionException && ((RenditionException) e).isRetryable() ? "busy" : "error";
+            throw e;
+        } finally {
+            sample.stop(Timer.builder("assets.renditions")
+                    .description("Rendition requests, by whether they were stored, generated or joined a generation")
+                    .tag("size", String.valueOf(size))
+                    .tag("result", result)
+                    .publishPercentileHistogram()
+                    .register(registry));
+        }
+    }
+
+    private Rendition findStored(String key, int size) throws IOException {
+        // The worker's thumbnail is the rendition at its size
+        if (size == properties.getThumbnailSize()) {
+            Rendition thumbnail = read(() -> storageService.getObject(storageService.getThumbnailKey(key)));
+            if (thumbnail != null) {
+                return thumbnail;
+            }
+        }
+        return read(() -> storageService.getRendition(storageService.getRenditionKey(key, size)));
+    }
+
+    private Rendition await(CompletableFuture<Rendition> leader, String renditionKey) throws IOException {
+        try {
+            return leader.get(properties.getAdmissionTimeoutMs() * 2, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for rendition " + renditionKey, e);
+        } catch (TimeoutException e) {
+            throw RenditionException.busy("Rendition " + renditionKey + " is still being generated");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Failed to generate rendition " + renditionKey, e.getCause());
+        }
+    }
+
+    private Rendition generate(String key, int size, String renditionKey) throws IOException {
+        try {
+            if (!generations.tryAcquire(properties.getAdmissionTimeoutMs(), TimeUnit.MILLISECONDS)) {
+                throw RenditionException.busy("Too many renditions are being generated");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting to generate rendition " + renditionKey, e);
+        }
+
+        Path original = null;
+        Path output = null;
+        try {
+            original = Files.createTempFile("rendition-original", null);
+            try (InputStream in = storageService.getObject(key)) {
+                Files.copy(in, original, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            // Identify the original by its content; the key's extension may be wrong or missing
+            ImageFormat sourceFormat = ImageFormat.sniff(original);
+            ImageProbe probe = sourceFormat == null ? null : ImageProbe.probe(original);
+            if (probe == null) {
+                throw RenditionException.unsupported("Not a readable image: " + key);
+            }
+            if (probe.pixels() > properties.getMaxSourcePixels()) {
+                throw RenditionException.unsupported(String.format("Image is %dx%d, over the %d pixel limit",
+                        probe.getWidth(), probe.getHeight(), properties.getMaxSourcePixels()));
+            }
+            if (probe.fitsWithin(size)) {
+                // Already within bounds; serving the original beats storing a larger re-encode of it
+                return new Rendition(Files.readAllBytes(original), sourceFormat.getContentType());
+            }
+
+            Dimension target = ImageResizer.fitWithin(probe.getWidth(), probe.getHeight(), size);
+            BufferedImage image = ImageResizer.readSubsampled(original,
+                    ImageResizer.subsampling(probe, target.width, target.height));
+            if (image == null) {
+                throw RenditionException.unsupported("No decoder for " + sourceFormat.getFormatName() + " image: " + key);
+            }
+            output = Files.createTempFile("rendition", null);
+            EncodedImage encoded = ThumbnailRenderer.render(image, target.width, target.height, properties.getProfile(),
+                    output, ThumbnailRenderer.StageTimer.NONE);
+            storageService.putRendition(renditionKey, output, encoded.getContentType());
+            log.info("Generated {}px rendition of {} ({}, {} bytes)", size, key, encoded.getEncoding(), encoded.getSize());
+            return new Rendition(Files.readAllBytes(output), encoded.getContentType());
+        } finally {
+            generations.release();
+            deleteQuietly(original);
+            deleteQuietly(output);
+        }
+    }
+
+    private static Rendition read(StoredObject object) throws IOException {
+        byte[] data;
+        try (InputStream in = object.open()) {
+            data = in.readAllBytes();
+        } catch (FileNotFoundException e) {
+            return null;
+        }
+        ImageFormat format = ImageFormat.sniff(Arrays.copyOf(data, Math.min(data.length, SNIFF_BYTES)));
+        return new Rendition(data, format != null ? format.getContentType() : MediaType.APPLICATION_OCTET_STREAM_VALUE);
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            log.warn("Could not delete temporary file {}: {}", file, e.getMessage());
+        }
+    }
+
+    private interface StoredObject {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * An encoded rendition, small enough to be served from memory.
+     */
+    @Value
+    public static class Rendition {
+        byte[] data;
+        String contentType;
+    }
+}
@@ -0,0 +1,195 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import com.microsoft.migration.assets.model.CatalogEntry;
+import com.microsoft.migration.assets.model.SearchQuery;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory index of the catalog for filename, type, size and date search, kept up to
+ * date from {@link CatalogChangeEvent}s, so searches never touch S3 or scan the table.
+ * <p>
+ * Filename words are held in a sorted map from word to keys, so a term's matches are the
+ * key sets of one sub-map of words starting with it. Each sort order is a sorted set of
+ * entries: a search without terms or type walks it from the cursor, starting and stopping
+ * at the range filters on the sorted column, and only checks the other filters on the
+ * entries it passes. Searches with terms, or for a rare type, collect their candidates
+ * from the word and type maps instead, then filter and sort those.
+ */
+@Component
+@Profile("!dev")
+public class SearchIndex {
+    // A type filter matching more entries than this is applied while walking the sort order
+    private static final int MAX_SORTED_CANDIDATES = 10_000;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, CatalogEntry> entries = new HashMap<>();
+    private final TreeMap<String, Set<String>> words = new TreeMap<>();
+    private final Map<String, Set<String>> contentTypes = new HashMap<>();
+    private final Map<SearchQuery.SortBy, TreeSet<CatalogEntry>> columns = new EnumMap<>(SearchQuery.SortBy.class);
+
+    public SearchIndex(MeterRegistry registry) {
+        for (SearchQuery.SortBy sortBy : SearchQuery.SortBy.values()) {
+            columns.put(sortBy, new TreeSet<>(sortBy.ascending()));
+        }
+        Gauge.builder("assets.search.indexed", this, SearchIndex::indexed)
+                .description("Catalog entries held by the search index")
+                .register(registry);
+    }
+
+    @EventListener
+    public void onCatalogChange(CatalogChangeEvent event) {
+        lock.writeLock().lock();
+        try {
+            if (event.isRemoval()) {
+                event.getKeys().forEach(this::remove);
+                return;
+            }
+            for (ImageMetadata row : event.getRows()) {
+                CatalogEntry entry = CatalogEntry.of(row);
+                if (!entry.equals(entries.get(entry.getKey()))) {
+                    remove(entry.getKey());
+                    add(entry);
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Entries matching the query in its order, starting after its cursor: at most
+     * {@code limit + 1} of them, the extra one showing there is another page.
+     */
+    public List<CatalogEntry> search(SearchQuery query, int limit) {
+        List<String> terms = query.terms();
+        String contentType = query.contentType();
+        lock.readLock().lock();
+        try {
+            Set<String> candidates = contentType == null ? null : contentTypes.getOrDefault(contentType, Set.of());
+            if (terms.isEmpty() && (candidates == null || candidates.size() > MAX_SORTED_CANDIDATES)) {
+                return walk(query, limit + 1);
+            }
+
+            for (String term : terms) {
+                Set<String> matching = new HashSet<>();
+                words.subMap(term, true, term + Character.MAX_VALUE, false).values().forEach(matching::addAll);
+                candidates = candidates == null ? matching : intersect(candidates, matching);
+            }
+            CatalogEntry after = query.after();
+            return candidates.stream()
+                    .map(entries::get)
+                    .filter(query::matchesFilters)
+                    .filter(entry -> after == null || query.comparator().compare(entry, after) > 0)
+                    .sorted(query.comparator())
+                    .limit(limit + 1L)
+                    .collect(Collectors.toList());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int indexed() {
+        lock.readLock().lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private List<CatalogEntry> walk(SearchQuery query, int count) {
+        NavigableSet<CatalogEntry> column = columns.get(query.sortBy());
+        CatalogEntry lowest = query.lowest();
+        CatalogEntry beyond = query.beyond();
+        if (lowest != null && beyond != null) {
+            column = query.sortBy().ascending().compare(lowest, beyond) < 0
+                    ? column.subSet(lowest, true, beyond, false) : new TreeSet<>(query.sortBy().ascending());
+        } else if (lowest != null) {
+            column = column.tailSet(lowest, true);
+        } else if (beyond != null) {
+            column = column.headSet(beyond, false);
+        }
+        if (query.isDescending()) {
+            column = column.descendingSet();
+        }
+        CatalogEntry after = query.after();
+        if (after != null) {
+            column = column.tailSet(after, false);
+        }
+
+        List<CatalogEntry> matches = new ArrayList<>(count);
+        for (CatalogEntry entry : column) {
+            if (query.matchesFilters(entry)) {
+                matches.add(entry);
+                if (matches.size() == count) {
+                    break;
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static Set<String> intersect(Set<String> a, Set<String> b) {
+        Set<String> smaller = a.size() <= b.size() ? a : b;
+        Set<String> larger = smaller == a ? b : a;
+        return smaller.stream().filter(larger::contains).collect(Collectors.toSet());
+    }
+
+    // Called with the write lock held
+    private void add(CatalogEntry entry) {
+        entries.put(entry.getKey(), entry);
+        for (String word : SearchQuery.tokenize(entry.getFilename())) {
+            words.computeIfAbsent(word, w -> new HashSet<>()).add(entry.getKey());
+        }
+        if (entry.getContentType() != null) {
+            contentTypes.computeIfAbsent(entry.getContentType().toLowerCase(Locale.ROOT), t -> new HashSet<>())
+                    .add(entry.getKey());
+        }
+        columns.values().forEach(column -> column.add(entry));
+    }
+
+    // Called with the write lock held
+    private void remove(String key) {
+        CatalogEntry entry = entries.remove(key);
+        if (entry == null) {
+            return;
+        }
+        for (String word : SearchQuery.tokenize(entry.getFilename())) {
+            removeFrom(words, word, key);
+        }
+        if (entry.getContentType() != null) {
+            removeFrom(contentTypes, entry.getContentType().toLowerCase(Locale.ROOT), key);
+        }
+        columns.values().forEach(column -> column.remove(entry));
+    }
+
+    private static void removeFrom(Map<String, Set<String>> index, String value, String key) {
+        Set<String> keys = index.get(value);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(value);
+            }
+        }
+    }
+}
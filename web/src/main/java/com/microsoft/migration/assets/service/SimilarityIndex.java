@@ -0,0 +1,255 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.image.PerceptualHash;
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the perceptual hashes the worker records on the catalog, answering
+ * "which images are within Hamming distance r of this hash" without a scan.
+ * <p>
+ * It uses multi-index hashing: each 64-bit hash is split into four 16-bit chunks, and
+ * each chunk position has a table from chunk value to the entries holding it. Two hashes
+ * within distance r agree to within {@code r / 4} bits on at least one chunk, so a search
+ * only probes the chunk values that close to the query's (137 per chunk at the default
+ * distance of 8) and checks the full distance of the entries found there. Entries are
+ * plain arrays indexed by position, so a few million hashes cost tens of bytes each
+ * beyond their keys.
+ * <p>
+ * The index follows the catalog through {@link CatalogChangeEvent}s; removed entries
+ * leave gaps that are compacted once they outnumber the live ones.
+ */
+@Component
+@Profile("!dev")
+public class SimilarityIndex {
+    public static final int MAX_DISTANCE = 12;
+    private static final int CHUNKS = 4;
+    private static final int CHUNK_BITS = PerceptualHash.BITS / CHUNKS;
+    private static final int CHUNK_VALUES = 1 << CHUNK_BITS;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Entry i is keys[i] with hashes[i]; a removed entry has a null key
+    private long[] hashes = new long[1024];
+    private String[] keys = new String[1024];
+    private int size;
+    private final Map<String, Integer> positions = new HashMap<>();
+    // tables[c][v] lists the positions whose chunk c has value v, counts[c][v] of them in use
+    private final int[][][] tables = new int[CHUNKS][CHUNK_VALUES][];
+    private final int[][] counts = new int[CHUNKS][CHUNK_VALUES];
+
+    public SimilarityIndex(MeterRegistry registry) {
+        Gauge.builder("assets.similarity.indexed", this, SimilarityIndex::indexed)
+                .description("Perceptual hashes held by the similarity index")
+                .register(registry);
+    }
+
+    @EventListener
+    public void onCatalogChange(CatalogChangeEvent event) {
+        if (event.isRemoval()) {
+            event.getKeys().forEach(this::remove);
+            return;
+        }
+        for (ImageMetadata row : event.getRows()) {
+            if (row.getPerceptualHash() != null) {
+                put(row.getS3Key(), row.getPerceptualHash());
+            }
+        }
+    }
+
+    /**
+     * Index a key's hash, replacing any earlier hash of the same key.
+     */
+    public void put(String key, long hash) {
+        lock.writeLock().lock();
+        try {
+            Integer existing = positions.get(key);
+            if (existing != null) {
+                if (hashes[existing] == hash) {
+                    return;
+                }
+                keys[existing] = null;
+                compactIfSparse();
+            }
+            if (size == keys.length) {
+                hashes = Arrays.copyOf(hashes, size * 2);
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            int position = size++;
+            hashes[position] = hash;
+            keys[position] = key;
+            positions.put(key, position);
+            for (int c = 0; c < CHUNKS; c++) {
+                add(c, chunk(hash, c), position);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String key) {
+        lock.writeLock().lock();
+        try {
+            Integer position = positions.remove(key);
+            if (position == null) {
+                return;
+            }
+            keys[position] = null;
+            compactIfSparse();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * The indexed keys within {@code maxDistance} bits of a hash, closest first.
+     */
+    public List<Match> search(long hash, int maxDistance) {
+        if (maxDistance < 0 || maxDistance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("Distance must be between 0 and " + MAX_DISTANCE + ": " + maxDistance);
+        }
+        int chunkDistance = maxDistance / CHUNKS;
+        List<Match> matches = new ArrayList<>();
+        lock.readLock().lock();
+        try {
+            for (int c = 0; c < CHUNKS; c++) {
+                int queryChunk = chunk(hash, c);
+                int chunkIndex = c;
+                forEachWithin(queryChunk, chunkDistance, value -> {
+                    int[] table = tables[chunkIndex][value];
+                    for (int i = 0, n = counts[chunkIndex][value]; i < n; i++) {
+                        int position = table[i];
+                        String key = keys[position];
+                        if (key == null || foundInEarlierChunk(hash, hashes[position], chunkIndex, chunkDistance)) {
+                            continue;
+                        }
+                        int distance = PerceptualHash.distance(hash, hashes[position]);
+                        if (distance <= maxDistance) {
+                            matches.add(new Match(key, distance));
+                        }
+                    }
+                });
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        matches.sort(Comparator.comparingInt(Match::getDistance).thenComparing(Match::getKey));
+        return matches;
+    }
+
+    public int indexed() {
+        lock.readLock().lock();
+        try {
+            return positions.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static int chunk(long hash, int c) {
+        return (int) (hash >>> (c * CHUNK_BITS)) & (CHUNK_VALUES - 1);
+    }
+
+    /**
+     * Whether an earlier chunk table also lists the entry, so it was already considered.
+     */
+    private static boolean foundInEarlierChunk(long query, long hash, int chunkIndex, int chunkDistance) {
+        for (int c = 0; c < chunkIndex; c++) {
+            if (Integer.bitCount(chunk(query, c) ^ chunk(hash, c)) <= chunkDistance) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Visit every chunk value within {@code distance} bits of {@code value}.
+     */
+    private static void forEachWithin(int value, int distance, ChunkVisitor visitor) {
+        visitor.visit(value);
+        flip(value, distance, 0, visitor);
+    }
+
+    private static void flip(int value, int remaining, int fromBit, ChunkVisitor visitor) {
+        if (remaining == 0) {
+            return;
+        }
+        for (int bit = fromBit; bit < CHUNK_BITS; bit++) {
+            int flipped = value ^ (1 << bit);
+            visitor.visit(flipped);
+            flip(flipped, remaining - 1, bit + 1, visitor);
+        }
+    }
+
+    private void add(int c, int value, int position) {
+        int[] table = tables[c][value];
+        int count = counts[c][value];
+        if (table == null) {
+            table = new int[2];
+        } else if (count == table.length) {
+            table = Arrays.copyOf(table, count * 2);
+        }
+        table[count] = position;
+        tables[c][value] = table;
+        counts[c][value] = count + 1;
+    }
+
+    /**
+     * Rebuild the arrays and tables without removed entries once they outnumber the live
+     * ones; called with the write lock held.
+     */
+    private void compactIfSparse() {
+        if (size - positions.size() <= Math.max(positions.size(), 1024)) {
+            return;
+        }
+        long[] liveHashes = new long[Math.max(1024, positions.size() * 2)];
+        String[] liveKeys = new String[liveHashes.length];
+        int live = 0;
+        for (int i = 0; i < size; i++) {
+            if (keys[i] != null) {
+                liveHashes[live] = hashes[i];
+                liveKeys[live] = keys[i];
+                live++;
+            }
+        }
+        hashes = liveHashes;
+        keys = liveKeys;
+        size = live;
+        positions.clear();
+        for (int c = 0; c < CHUNKS; c++) {
+            Arrays.fill(counts[c], 0);
+        }
+        for (int i = 0; i < size; i++) {
+            positions.put(keys[i], i);
+            for (int c = 0; c < CHUNKS; c++) {
+                add(c, chunk(hashes[i], c), i);
+            }
+        }
+    }
+
+    private interface ChunkVisitor {
+        void visit(int value);
+    }
+
+    @Getter
+    @RequiredArgsConstructor
+    public static class Match {
+        private final String key;
+        private final int distance;
+    }
+}
@@ -1,45 +1,167 @@
 package com.microsoft.migration.assets.service;
 
+import com.microsoft.migration.assets.model.CatalogEntry;
 import com.microsoft.migration.assets.model.S3StorageItem;
+import com.microsoft.migration.assets.model.SearchQuery;
+import com.microsoft.migration.assets.model.SimilarItem;
+import com.microsoft.migration.assets.model.StoragePage;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URLConnection;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * Interface for storage operations that can be implemented by different storage providers
  * (AWS S3, local file system, etc.)
  */
 public interface StorageService {
+    // Marks derived rendition keys, as "_thumbnail" marks thumbnails
+    String RENDITION_MARKER = "_rendition-";
     
     /**
      * List all objects in storage
      */
     List<S3StorageItem> listObjects();
+
+    /**
+     * List one page of objects, newest first, continuing after the given cursor (null for the first page)
+     */
+    default StoragePage listObjects(String cursor, int limit) {
+        Comparator<S3StorageItem> newestFirst = Comparator.comparing(S3StorageItem::getUploadedAt)
+                .thenComparing(S3StorageItem::getKey)
+                .reversed();
+        S3StorageItem after = cursorItem(cursor);
+
+        List<S3StorageItem> items = listObjects().stream()
+                .sorted(newestFirst)
+                .filter(item -> after == null || newestFirst.compare(item, after) > 0)
+                .limit(limit + 1L)
+                .collect(Collectors.toList());
+        if (items.size() <= limit) {
+            return new StoragePage(items, null);
+        }
+        S3StorageItem last = items.get(limit - 1);
+        return new StoragePage(items.subList(0, limit), StoragePage.cursor(last.getUploadedAt().toString(), last.getKey()));
+    }
+
+    private static S3StorageItem cursorItem(String cursor) {
+        String[] position = cursor == null ? null : StoragePage.parseCursor(cursor);
+        if (position == null) {
+            return null;
+        }
+        try {
+            return new S3StorageItem(position[1], null, 0, null, Instant.parse(position[0]), null);
+        } catch (DateTimeParseException e) {
+            // Not one of our cursors; start from the first page
+            return null;
+        }
+    }
+
+    /**
+     * Find a single object by key
+     */
+    default Optional<S3StorageItem> findObject(String key) {
+        return listObjects().stream()
+                .filter(item -> item.getKey().equals(key))
+                .findFirst();
+    }
     
+    /**
+     * One page of the objects matching a search, in the query's order, continuing after
+     * its cursor. This default filters a full listing; implementations backed by the
+     * catalog answer from an index.
+     *
+     * @throws IllegalArgumentException if the query's sort or order is not recognised
+     */
+    default StoragePage search(SearchQuery query, int limit) {
+        Map<String, S3StorageItem> items = new HashMap<>();
+        List<CatalogEntry> entries = new ArrayList<>();
+        for (S3StorageItem item : listObjects()) {
+            items.put(item.getKey(), item);
+            entries.add(new CatalogEntry(item.getKey(), item.getName(),
+                    URLConnection.guessContentTypeFromName(item.getName()), item.getSize(), item.getUploadedAt(),
+                    item.getLastModified(), null));
+        }
+        CatalogEntry after = query.after();
+        List<CatalogEntry> matches = entries.stream()
+                .filter(query::matchesFilters)
+                .filter(query::matchesTerms)
+                .filter(entry -> after == null || query.comparator().compare(entry, after) > 0)
+                .sorted(query.comparator())
+                .limit(limit + 1L)
+                .collect(Collectors.toList());
+        return query.page(matches, limit, entry -> items.get(entry.getKey()));
+    }
+
+    /**
+     * Images that look like the given one, closest first, up to {@code limit} of them:
+     * those whose perceptual hashes differ from its hash in at most {@code maxDistance}
+     * bits. Empty when this storage keeps no hashes or the image has not been hashed yet.
+     *
+     * @throws java.io.FileNotFoundException if there is no such image
+     */
+    default List<SimilarItem> findSimilar(String key, int maxDistance, int limit) throws IOException {
+        return List.of();
+    }
+
     /**
      * Upload file to storage
      */
     void uploadObject(MultipartFile file) throws IOException;
     
+    /**
+     * Upload several files in one operation
+     */
+    void uploadObjects(List<MultipartFile> files) throws IOException;
+
     /**
      * Get object from storage by key
+     *
+     * @throws java.io.FileNotFoundException if there is no such object
      */
     InputStream getObject(String key) throws IOException;
 
+    /**
+     * Get a stored rendition by its rendition key
+     *
+     * @throws java.io.FileNotFoundException if it has not been generated
+     */
+    InputStream getRendition(String renditionKey) throws IOException;
+
+    /**
+     * Store a generated rendition; renditions are not listed as objects of their own
+     */
+    void putRendition(String renditionKey, Path file, String contentType) throws IOException;
+
     /**
      * Delete object from storage by key
      */
     void deleteObject(String key) throws IOException;
 
+    /**
+     * Delete several objects, and their thumbnails, in one operation
+     */
+    void deleteObjects(List<String> keys) throws IOException;
+
     /**
      * Get the storage type (s3 or local)
      */
     String getStorageType();
 
     /**
-     * Get the thumbnail key for a given key
+     * Get the thumbnail key for a given key. The suffix goes before the extension, so a
+     * partitioned key keeps its prefix and the thumbnail stays in the original's bucket.
      */
     default String getThumbnailKey(String key) {
         int dotIndex = key.lastIndexOf('.');
@@ -48,4 +170,16 @@ public interface StorageService {
         }
         return key + "_thumbnail";
     }
+
+    /**
+     * Get the key of a rendition of the given size, which like the thumbnail keeps the
+     * original's partition prefix and extension
+     */
+    default String getRenditionKey(String key, int size) {
+        int dotIndex = key.lastIndexOf('.');
+        if (dotIndex > 0) {
+            return key.substring(0, dotIndex) + RENDITION_MARKER + size + key.substring(dotIndex);
+        }
+        return key + RENDITION_MARKER + size;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.model.Tombstone;
+import com.microsoft.migration.assets.repository.TombstoneRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Leaves a tombstone for every deleted original, which the worker checks before
+ * processing a job so that jobs still queued for deleted images are dropped without
+ * touching storage. A key stored again loses its tombstone before its new job is
+ * published. Tombstones are purged once they are older than any job could wait in the
+ * queue.
+ */
+@Slf4j
+@Component
+public class TombstoneRecorder {
+    private final TombstoneRepository tombstoneRepository;
+    private final long retentionMs;
+
+    public TombstoneRecorder(TombstoneRepository tombstoneRepository,
+                             @Value("${assets.tombstones.retention-ms:86400000}") long retentionMs) {
+        this.tombstoneRepository = tombstoneRepository;
+        this.retentionMs = retentionMs;
+    }
+
+    @EventListener
+    public void onCatalogChange(CatalogChangeEvent event) {
+        if (event.getType() != CatalogChangeEvent.Type.DELETED || event.getKeys().isEmpty()) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        try {
+            tombstoneRepository.saveAll(event.getKeys().stream()
+                    .map(key -> new Tombstone(key, now))
+                    .collect(Collectors.toList()));
+        } catch (RuntimeException e) {
+            // The objects are gone either way; the worker then finds the original missing
+            log.warn("Could not record tombstones for {} deleted objects: {}", event.getKeys().size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Forget that the given keys were deleted, once they have been stored again; a job
+     * queued for the new original would otherwise be cancelled. Called before those jobs
+     * are published.
+     */
+    public void clear(Collection<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        try {
+            tombstoneRepository.deleteAllByIdInBatch(keys);
+        } catch (RuntimeException e) {
+            // A tombstone left behind cancels the new job, so the image stays without a thumbnail
+            log.warn("Could not clear tombstones for {} stored objects: {}", keys.size(), e.getMessage());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${assets.tombstones.purge-interval-ms:3600000}")
+    public void purge() {
+        try {
+            int purged = tombstoneRepository.deleteDeletedBefore(LocalDateTime.now().minus(Duration.ofMillis(retentionMs)));
+            if (purged > 0) {
+                log.info("Purged {} expired tombstones", purged);
+            }
+        } catch (RuntimeException e) {
+            log.error("Purging expired tombstones failed", e);
+        }
+    }
+}
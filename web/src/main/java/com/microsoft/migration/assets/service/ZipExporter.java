@@ -0,0 +1,318 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.image.ImageFormat;
+import com.microsoft.migration.assets.config.ExportProperties;
+import com.microsoft.migration.assets.model.S3StorageItem;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PreDestroy;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Streams a selection of images to the client as a ZIP archive, entry by entry, with no
+ * temporary file and without holding the archive in memory.
+ * <p>
+ * While one entry is written, the next objects are fetched from storage on a shared pool,
+ * up to a read-ahead window per export, so the export runs at the speed of the client's
+ * link rather than one storage round trip per object. JPEG, PNG, GIF and WebP originals
+ * are already compressed and are stored as they are; other content is deflated. Objects
+ * too large to hold in memory are streamed through a deflater that stores them, at no
+ * compression, since their size and checksum are not known before they are written.
+ * <p>
+ * Keys that no longer exist are left out and listed in a {@value #MISSING_ENTRY} entry.
+ */
+@Slf4j
+@Service
+public class ZipExporter {
+    static final String MISSING_ENTRY = "MISSING.txt";
+
+    private final StorageService storageService;
+    private final ExportProperties properties;
+    private final MeterRegistry registry;
+    private final ThreadPoolExecutor fetchers;
+    private final Semaphore exports;
+
+    public ZipExporter(StorageService storageService, ExportProperties properties, MeterRegistry registry) {
+        this.storageService = storageService;
+        this.properties = properties;
+        this.registry = registry;
+        int threads = Math.max(1, properties.getFetchThreads());
+        // Each export queues at most its read-ahead window, so the queue is bounded by the exports
+        this.fetchers = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), new CustomizableThreadFactory("export-fetch-"));
+        this.fetchers.allowCoreThreadTimeOut(true);
+        this.exports = new Semaphore(Math.max(1, properties.getMaxConcurrent()));
+    }
+
+    @PreDestroy
+    void shutdown() {
+        fetchers.shutdownNow();
+    }
+
+    /**
+     * Reserve a slot for exporting the given keys; duplicates are exported once.
+     *
+     * @return the export, to be written exactly once, or null if as many exports as
+     * allowed are already running
+     * @throws IllegalArgumentException if there are more keys than one export may hold
+     */
+    public Export start(List<String> keys) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(keys));
+        if (distinct.size() > properties.getMaxKeys()) {
+            throw new IllegalArgumentException("At most " + properties.getMaxKeys() + " files can be exported at once");
+        }
+        if (!exports.tryAcquire()) {
+            return null;
+        }
+        return new Export(distinct);
+    }
+
+    private static void closeQuietly(InputStream in) {
+        try {
+            in.close();
+        } catch (IOException e) {
+            log.debug("Could not close export stream: {}", e.getMessage());
+        }
+    }
+
+    private static boolean isCompressed(ImageFormat format) {
+        return format == ImageFormat.JPEG || format == ImageFormat.PNG
+                || format == ImageFormat.GIF || format == ImageFormat.WEBP;
+    }
+
+    /**
+     * One archive being streamed; releases its slot once written.
+     */
+    public class Export {
+        private final List<String> keys;
+        private final Set<String> names = new HashSet<>();
+        // Streams of fetched objects not yet written, closed if the export ends first
+        private final Set<InputStream> open = new HashSet<>();
+        private boolean finished;
+
+        private Export(List<String> keys) {
+            this.keys = keys;
+            names.add(MISSING_ENTRY);
+        }
+
+        public void writeTo(OutputStream out) throws IOException {
+            Timer.Sample sample = Timer.start(registry);
+            String result = "aborted";
+            Deque<Future<Fetched>> window = new ArrayDeque<>();
+            List<String> missing = new ArrayList<>();
+            long bytes = 0;
+            try {
+                // Closing the archive would close the response; finishing it is enough
+                ZipOutputStream zip = new ZipOutputStream(out);
+                int next = 0;
+                int readAhead = Math.max(1, properties.getReadAhead());
+                while (next < keys.size() && window.size() < readAhead) {
+                    window.addLast(fetch(keys.get(next++)));
+                }
+                while (!window.isEmpty()) {
+                    Fetched fetched = await(window.removeFirst());
+                    // Keep the window full while this entry goes out
+                    if (next < keys.size()) {
+                        window.addLast(fetch(keys.get(next++)));
+                    }
+                    if (fetched.isMissing()) {
+                        missing.add(fetched.key);
+                        continue;
+                    }
+                    try {
+                        bytes += write(zip, fetched);
+                    } finally {
+                        release(fetched);
+                    }
+                }
+                if (!missing.isEmpty()) {
+                    zip.putNextEntry(new ZipEntry(MISSING_ENTRY));
+                    zip.write((String.join("\n", missing) + "\n").getBytes(StandardCharsets.UTF_8));
+                    zip.closeEntry();
+                }
+                zip.finish();
+                zip.flush();
+                result = "completed";
+                log.info("Exported {} files ({} bytes), {} missing", keys.size() - missing.size(), bytes, missing.size());
+            } finally {
+                for (Future<Fetched> pending : window) {
+                    pending.cancel(true);
+                }
+                List<InputStream> unwritten;
+                synchronized (this) {
+                    finished = true;
+                    unwritten = new ArrayList<>(open);
+                    open.clear();
+                }
+                unwritten.forEach(ZipExporter::closeQuietly);
+                exports.release();
+                sample.stop(Timer.builder("assets.export")
+                        .description("Time to stream ZIP exports, by whether they completed")
+                        .tag("result", result)
+                        .register(registry));
+            }
+        }
+
+        private Future<Fetched> fetch(String key) {
+            return fetchers.submit(() -> {
+                Optional<S3StorageItem> item = storageService.findObject(key);
+                if (item.isEmpty()) {
+                    return new Fetched(key, null, null, null, 0);
+                }
+                InputStream in;
+                try {
+                    in = storageService.getObject(key);
+                } catch (FileNotFoundException e) {
+                    return new Fetched(key, null, null, null, 0);
+                }
+                try {
+                    byte[] head = in.readNBytes(properties.getMaxBufferedBytes());
+                    if (head.length < properties.getMaxBufferedBytes()) {
+                        in.close();
+                        CRC32 crc = new CRC32();
+                        crc.update(head);
+                        return new Fetched(key, item.get(), head, null, crc.getValue());
+                    }
+                    // Left open and streamed from where the buffer stops, unless the
+                    // export ended while this was being fetched
+                    synchronized (this) {
+                        if (!finished) {
+                            open.add(in);
+                            return new Fetched(key, item.get(), head, in, 0);
+                        }
+                    }
+                    in.close();
+                    return new Fetched(key, null, null, null, 0);
+                } catch (IOException | RuntimeException e) {
+                    in.close();
+                    throw e;
+                }
+            });
+        }
+
+        private Fetched await(Future<Fetched> pending) throws IOException {
+            try {
+                return pending.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Export interrupted");
+            }
+        }
+
+        private void release(Fetched fetched) {
+            if (fetched.rest != null) {
+                synchronized (this) {
+                    open.remove(fetched.rest);
+                }
+                closeQuietly(fetched.rest);
+            }
+        }
+
+        /**
+         * @return the number of bytes of the object
+         */
+        private long write(ZipOutputStream zip, Fetched fetched) throws IOException {
+            ZipEntry entry = new ZipEntry(entryName(fetched.item.getName() != null ? fetched.item.getName() : fetched.key));
+            if (fetched.item.getLastModified() != null) {
+                entry.setLastModifiedTime(FileTime.from(fetched.item.getLastModified()));
+            }
+            boolean compressed = isCompressed(ImageFormat.sniff(fetched.head));
+            if (fetched.rest == null && compressed) {
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(fetched.head.length);
+                entry.setCompressedSize(fetched.head.length);
+                entry.setCrc(fetched.crc);
+                zip.putNextEntry(entry);
+                zip.write(fetched.head);
+                zip.closeEntry();
+                return fetched.head.length;
+            }
+
+            entry.setMethod(ZipEntry.DEFLATED);
+            zip.setLevel(compressed ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(entry);
+            zip.write(fetched.head);
+            long size = fetched.head.length;
+            if (fetched.rest != null) {
+                size += fetched.rest.transferTo(zip);
+            }
+            zip.closeEntry();
+            return size;
+        }
+
+        /**
+         * A name for the entry that cannot escape the extraction directory and is not
+         * already taken, e.g. {@code photo (2).jpg} for a second {@code photo.jpg}.
+         */
+        private String entryName(String name) {
+            String safe = name.replace('/', '_').replace('\\', '_');
+            if (safe.isEmpty() || safe.equals(".") || safe.equals("..")) {
+                safe = "file";
+            }
+            String candidate = safe;
+            int dotIndex = safe.lastIndexOf('.');
+            String base = dotIndex > 0 ? safe.substring(0, dotIndex) : safe;
+            String extension = dotIndex > 0 ? safe.substring(dotIndex) : "";
+            for (int copy = 2; !names.add(candidate); copy++) {
+                candidate = base + " (" + copy + ")" + extension;
+            }
+            return candidate;
+        }
+    }
+
+    /**
+     * An object fetched for an export: its first bytes, and the rest of its stream if
+     * it did not fit in them. Missing objects have no item.
+     */
+    private static class Fetched {
+        final String key;
+        final S3StorageItem item;
+        final byte[] head;
+        final InputStream rest;
+        // Of the head, when it is the whole object
+        final long crc;
+
+        Fetched(String key, S3StorageItem item, byte[] head, InputStream rest, long crc) {
+            this.key = key;
+            this.item = item;
+            this.head = head;
+            this.rest = rest;
+            this.crc = crc;
+        }
+
+        boolean isMissing() {
+            return item == null;
+        }
+    }
+}
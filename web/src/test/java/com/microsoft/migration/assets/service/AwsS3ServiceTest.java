@@ -0,0 +1,68 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.storage.KeyPartitioner;
+import com.microsoft.migration.assets.config.RenditionProperties;
+import com.microsoft.migration.assets.repository.ImageMetadataRepository;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class AwsS3ServiceTest {
+    private final S3Client s3Client = mock(S3Client.class);
+    private final ImageMetadataRepository imageMetadataRepository = mock(ImageMetadataRepository.class);
+    private final List<CatalogChangeEvent> events = new ArrayList<>();
+    private final AwsS3Service service = new AwsS3Service(s3Client, mock(ImageProcessingPublisher.class),
+            imageMetadataRepository, mock(ParallelUploader.class), new KeyPartitioner("bucket", List.of(), 1),
+            new RenditionProperties(), mock(SimilarityIndex.class), mock(SearchIndex.class),
+            mock(InlineThumbnailer.class), mock(TombstoneRecorder.class), event -> events.add((CatalogChangeEvent) event));
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void deletesMetadataOfLargeSelectionsInChunks() throws Exception {
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder().build());
+        List<String> keys = keys(2500);
+
+        service.deleteObjects(keys);
+
+        ArgumentCaptor<Collection<String>> chunks = ArgumentCaptor.forClass(Collection.class);
+        verify(imageMetadataRepository, atLeastOnce()).deleteByS3KeyIn(chunks.capture());
+        assertThat(chunks.getAllValues()).hasSize(3).allSatisfy(chunk -> assertThat(chunk).hasSizeLessThanOrEqualTo(1000));
+        assertThat(chunks.getAllValues().stream().flatMap(Collection::stream)).containsExactlyElementsOf(keys);
+        assertThat(events.stream().flatMap(event -> event.getKeys().stream())).containsExactlyElementsOf(keys);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void keepsMetadataOfObjectsStillInTheBucket() {
+        when(s3Client.deleteObjects(any(DeleteObjectsRequest.class))).thenReturn(DeleteObjectsResponse.builder()
+                .errors(S3Error.builder().key("photos/1.jpg").message("AccessDenied").build())
+                .build());
+
+        assertThatThrownBy(() -> service.deleteObjects(keys(3))).hasMessageContaining("photos/1.jpg");
+
+        ArgumentCaptor<Collection<String>> deleted = ArgumentCaptor.forClass(Collection.class);
+        verify(imageMetadataRepository).deleteByS3KeyIn(deleted.capture());
+        assertThat(deleted.getValue()).containsExactly("photos/0.jpg", "photos/2.jpg");
+    }
+
+    private static List<String> keys(int count) {
+        return IntStream.range(0, count).mapToObj(i -> "photos/" + i + ".jpg").collect(Collectors.toList());
+    }
+}
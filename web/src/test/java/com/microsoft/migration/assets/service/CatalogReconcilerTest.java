@@ -0,0 +1,83 @@
+package com.microsoft.migration.assets.service;
+
+import org.junit.jupiter.api.Test;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CatalogReconcilerTest {
+    // U+1F600 is a surrogate pair in UTF-16, so String.compareTo puts it before U+E000
+    private static final String PRIVATE_USE = "photos/\uE000.jpg";
+    private static final String REPLACEMENT = "photos/\uFFFD.jpg";
+    private static final String EMOJI = "photos/\uD83D\uDE00.jpg";
+
+    @Test
+    void ordersKeysByUtf8Bytes() {
+        List<String> keys = new ArrayList<>(List.of(EMOJI, "photos/b.jpg", REPLACEMENT, PRIVATE_USE, "photos/a.jpg"));
+        keys.sort(CatalogReconciler.KEY_ORDER);
+
+        assertThat(keys).containsExactly("photos/a.jpg", "photos/b.jpg", PRIVATE_USE, REPLACEMENT, EMOJI);
+        assertThat(keys).isSortedAccordingTo((a, b) -> Arrays.compareUnsigned(
+                a.getBytes(StandardCharsets.UTF_8), b.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    void prefixSortsFirst() {
+        assertThat(CatalogReconciler.compareKeys("photos/a", "photos/a.jpg")).isNegative();
+        assertThat(CatalogReconciler.compareKeys(EMOJI, EMOJI)).isZero();
+    }
+
+    @Test
+    void matchesEveryKeyBothSidesHave() {
+        List<String> keys = List.of("photos/a.jpg", PRIVATE_USE, REPLACEMENT, EMOJI);
+        List<S3Object> objectOnly = new ArrayList<>();
+        List<String> rowOnly = new ArrayList<>();
+
+        CatalogReconciler.mergeJoin(objects(keys), keys.iterator(), Function.identity(), objectOnly::add, rowOnly::add);
+
+        assertThat(objectOnly).isEmpty();
+        assertThat(rowOnly).isEmpty();
+    }
+
+    @Test
+    void reportsKeysOnlyOneSideHas() {
+        List<String> objectKeys = List.of("photos/a.jpg", PRIVATE_USE, EMOJI);
+        List<String> rowKeys = List.of("photos/a.jpg", REPLACEMENT, EMOJI);
+        List<S3Object> objectOnly = new ArrayList<>();
+        List<String> rowOnly = new ArrayList<>();
+
+        CatalogReconciler.mergeJoin(objects(objectKeys), rowKeys.iterator(), Function.identity(),
+                objectOnly::add, rowOnly::add);
+
+        assertThat(objectOnly).extracting(S3Object::key).containsExactly(PRIVATE_USE);
+        assertThat(rowOnly).containsExactly(REPLACEMENT);
+    }
+
+    @Test
+    void mergesListingsIntoKeyOrder() {
+        Iterator<S3Object> merged = CatalogReconciler.mergeListings(List.of(
+                objects(List.of("photos/a.jpg", EMOJI)),
+                objects(List.of()),
+                objects(List.of(PRIVATE_USE, REPLACEMENT))));
+
+        List<String> keys = new ArrayList<>();
+        merged.forEachRemaining(object -> keys.add(object.key()));
+
+        assertThat(keys).containsExactly("photos/a.jpg", PRIVATE_USE, REPLACEMENT, EMOJI);
+    }
+
+    private static Iterator<S3Object> objects(List<String> keys) {
+        return keys.stream()
+                .map(key -> S3Object.builder().key(key).build())
+                .collect(Collectors.toList())
+                .iterator();
+    }
+}
@@ -0,0 +1,126 @@
+package com.microsoft.migration.assets.service;
+
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessage;
+import com.microsoft.migration.assets.common.model.Tombstone;
+import com.microsoft.migration.assets.config.RenditionProperties;
+import com.microsoft.migration.assets.metrics.StorageMetrics;
+import com.microsoft.migration.assets.repository.TombstoneRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class LocalFileStorageServiceTest {
+    @TempDir
+    Path storage;
+
+    // Tombstones by key, as the repository would hold them
+    private final Map<String, Tombstone> tombstones = new HashMap<>();
+    private final TombstoneRepository tombstoneRepository = mock(TombstoneRepository.class);
+    private final ImageProcessingPublisher publisher = mock(ImageProcessingPublisher.class);
+    private final ParallelUploader parallelUploader = new ParallelUploader(2);
+    private LocalFileStorageService service;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        when(tombstoneRepository.saveAll(any())).thenAnswer(invocation -> {
+            Iterable<Tombstone> saved = invocation.getArgument(0);
+            saved.forEach(tombstone -> tombstones.put(tombstone.getS3Key(), tombstone));
+            return saved;
+        });
+        doAnswer(invocation -> {
+            Iterable<String> keys = invocation.getArgument(0);
+            keys.forEach(tombstones::remove);
+            return null;
+        }).when(tombstoneRepository).deleteAllByIdInBatch(any());
+
+        TombstoneRecorder recorder = new TombstoneRecorder(tombstoneRepository, 86_400_000L);
+        service = new LocalFileStorageService(publisher, parallelUploader,
+                new StorageMetrics(new SimpleMeterRegistry()), new RenditionProperties(),
+                event -> recorder.onCatalogChange((CatalogChangeEvent) event), recorder);
+        ReflectionTestUtils.setField(service, "storageDirectory", storage.toString());
+        service.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        parallelUploader.shutdown();
+    }
+
+    @Test
+    void deleteLeavesTombstone() throws Exception {
+        service.uploadObject(image("cat.jpg"));
+        service.deleteObject("cat.jpg");
+
+        assertThat(tombstones).containsOnlyKeys("cat.jpg");
+    }
+
+    @Test
+    void reuploadClearsTombstoneBeforePublishingJob() throws Exception {
+        service.uploadObject(image("cat.jpg"));
+        service.deleteObject("cat.jpg");
+
+        service.uploadObject(image("cat.jpg"));
+
+        assertThat(tombstones).isEmpty();
+        InOrder order = inOrder(tombstoneRepository, publisher);
+        order.verify(tombstoneRepository).deleteAllByIdInBatch(List.of("cat.jpg"));
+        order.verify(publisher).publish(job("cat.jpg"));
+    }
+
+    @Test
+    void bulkReuploadClearsTombstonesBeforePublishingJobs() throws Exception {
+        service.uploadObjects(List.of(image("cat.jpg"), image("dog.jpg")));
+        service.deleteObjects(List.of("cat.jpg", "dog.jpg"));
+        assertThat(tombstones).containsOnlyKeys("cat.jpg", "dog.jpg");
+
+        service.uploadObjects(List.of(image("cat.jpg"), image("bird.jpg")));
+
+        assertThat(tombstones).containsOnlyKeys("dog.jpg");
+        InOrder order = inOrder(tombstoneRepository, publisher);
+        order.verify(tombstoneRepository).deleteAllByIdInBatch(List.of("cat.jpg", "bird.jpg"));
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<ImageProcessingMessage>> jobs = ArgumentCaptor.forClass(List.class);
+        order.verify(publisher).publishAll(jobs.capture());
+        assertThat(jobs.getValue()).extracting(ImageProcessingMessage::getKey).containsExactly("cat.jpg", "bird.jpg");
+    }
+
+    @Test
+    void findsObjectsFromIndex() throws Exception {
+        service.uploadObjects(List.of(image("cat.jpg"), image("dog.jpg")));
+        service.deleteObject("dog.jpg");
+
+        assertThat(service.findObject("cat.jpg")).hasValueSatisfying(item -> {
+            assertThat(item.getKey()).isEqualTo("cat.jpg");
+            assertThat(item.getSize()).isEqualTo(3);
+        });
+        assertThat(service.findObject("dog.jpg")).isEmpty();
+        assertThat(service.findObject("bird.jpg")).isEmpty();
+    }
+
+    private static MockMultipartFile image(String name) {
+        return new MockMultipartFile("file", name, "image/jpeg", new byte[]{(byte) 0xff, (byte) 0xd8, (byte) 0xff});
+    }
+
+    private static ImageProcessingMessage job(String key) {
+        return new ImageProcessingMessage(key, "image/jpeg", "local", 3);
+    }
+}
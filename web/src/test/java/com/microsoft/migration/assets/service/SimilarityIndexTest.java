@@ -0,0 +1,150 @@
+package com.microsoft.migration.assets.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SimilarityIndexTest {
+    private static final int[] DISTANCES = {0, 1, 4, 7, 8, 12};
+
+    private final Random random = new Random(42);
+    private final SimilarityIndex index = new SimilarityIndex(new SimpleMeterRegistry());
+    // What the index should hold, searched by brute force
+    private final Map<String, Long> expected = new LinkedHashMap<>();
+
+    @Test
+    void matchesBruteForce() {
+        List<Long> centers = putClusters(150, 12);
+
+        assertMatchesBruteForce(centers);
+    }
+
+    @Test
+    void matchesBruteForceAfterRemovals() {
+        List<Long> centers = putClusters(150, 12);
+        removeEvery(3);
+
+        assertThat(index.indexed()).isEqualTo(expected.size());
+        assertMatchesBruteForce(centers);
+    }
+
+    @Test
+    void matchesBruteForceAfterCompaction() {
+        // Compaction waits until removed entries outnumber both the live ones and 1024
+        List<Long> centers = putClusters(300, 12);
+        List<String> keys = new ArrayList<>(expected.keySet());
+        for (int i = 0; i < keys.size(); i++) {
+            if (i % 8 != 0) {
+                index.remove(keys.get(i));
+                expected.remove(keys.get(i));
+            }
+        }
+        // Entries added after compaction land in the rebuilt tables
+        centers.addAll(putClusters(20, 12));
+
+        assertThat(index.indexed()).isEqualTo(expected.size());
+        assertMatchesBruteForce(centers);
+    }
+
+    @Test
+    void replacesHashOfExistingKey() {
+        index.put("photos/a.jpg", 0L);
+        index.put("photos/a.jpg", -1L);
+
+        assertThat(index.indexed()).isEqualTo(1);
+        assertThat(index.search(0L, SimilarityIndex.MAX_DISTANCE)).isEmpty();
+        assertThat(index.search(-1L, 0)).extracting(SimilarityIndex.Match::getKey).containsExactly("photos/a.jpg");
+    }
+
+    @Test
+    void rejectsDistanceOutOfRange() {
+        assertThatThrownBy(() -> index.search(0L, SimilarityIndex.MAX_DISTANCE + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> index.search(0L, -1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    /**
+     * Index clusters of hashes a few bits apart, so searches find more than exact matches.
+     *
+     * @return the cluster centers
+     */
+    private List<Long> putClusters(int clusters, int perCluster) {
+        List<Long> centers = new ArrayList<>();
+        for (int c = 0; c < clusters; c++) {
+            long center = random.nextLong();
+            centers.add(center);
+            for (int i = 0; i < perCluster; i++) {
+                long hash = flipBits(center, random.nextInt(SimilarityIndex.MAX_DISTANCE + 4));
+                String key = "photos/" + expected.size() + ".jpg";
+                index.put(key, hash);
+                expected.put(key, hash);
+            }
+        }
+        return centers;
+    }
+
+    private void removeEvery(int step) {
+        List<String> keys = new ArrayList<>(expected.keySet());
+        for (int i = 0; i < keys.size(); i += step) {
+            index.remove(keys.get(i));
+            expected.remove(keys.get(i));
+        }
+    }
+
+    private void assertMatchesBruteForce(List<Long> centers) {
+        List<Long> queries = new ArrayList<>();
+        for (long center : centers) {
+            queries.add(center);
+            queries.add(flipBits(center, random.nextInt(6)));
+        }
+        for (int i = 0; i < 50; i++) {
+            queries.add(random.nextLong());
+        }
+        for (long query : queries) {
+            for (int distance : DISTANCES) {
+                assertThat(describe(index.search(query, distance)))
+                        .as("hash %016x within %d", query, distance)
+                        .containsExactlyElementsOf(bruteForce(query, distance));
+            }
+        }
+    }
+
+    private List<String> bruteForce(long query, int maxDistance) {
+        List<SimilarityIndex.Match> matches = new ArrayList<>();
+        expected.forEach((key, hash) -> {
+            int distance = Long.bitCount(query ^ hash);
+            if (distance <= maxDistance) {
+                matches.add(new SimilarityIndex.Match(key, distance));
+            }
+        });
+        matches.sort((a, b) -> a.getDistance() != b.getDistance()
+                ? Integer.compare(a.getDistance(), b.getDistance())
+                : a.getKey().compareTo(b.getKey()));
+        return describe(matches);
+    }
+
+    private static List<String> describe(List<SimilarityIndex.Match> matches) {
+        List<String> described = new ArrayList<>();
+        for (SimilarityIndex.Match match : matches) {
+            described.add(match.getKey() + "@" + match.getDistance());
+        }
+        return described;
+    }
+
+    private long flipBits(long hash, int bits) {
+        long flipped = hash;
+        while (Long.bitCount(flipped ^ hash) < bits) {
+            flipped ^= 1L << random.nextInt(64);
+        }
+        return flipped;
+    }
+}
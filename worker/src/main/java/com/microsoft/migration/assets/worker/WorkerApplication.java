@@ -1,14 +1,18 @@
 package com.microsoft.migration.assets.worker;
 
+import com.microsoft.migration.assets.common.model.ImageMetadata;
 import org.springframework.amqp.rabbit.annotation.EnableRabbit;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.domain.EntityScan;
 import org.springframework.boot.context.ApplicationPidFileWriter;
 import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableScheduling
 @EnableRabbit
+// The catalog entities are shared with the web module
+@EntityScan(basePackageClasses = ImageMetadata.class)
 public class WorkerApplication {
     public static void main(String[] args) {
         SpringApplication application = new SpringApplication(WorkerApplication.class);
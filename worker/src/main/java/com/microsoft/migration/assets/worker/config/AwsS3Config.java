@@ -1,12 +1,21 @@
 package com.microsoft.migration.assets.worker.config;
 
+import com.microsoft.migration.assets.common.storage.KeyPartitioner;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.StringUtils;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.retry.RetryMode;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Locale;
 
 @Configuration
 public class AwsS3Config {
@@ -19,12 +28,35 @@ public class AwsS3Config {
     @Value("${aws.region}")
     private String region;
 
+    @Value("${aws.s3.endpoint:}")
+    private String endpoint;
+
+    // "adaptive" also rate-limits this client when S3 answers 503 SlowDown, rather than
+    // retrying at full speed into the throttled prefix
+    @Value("${aws.s3.retry-mode:adaptive}")
+    private String retryMode;
+
     @Bean
     public S3Client s3Client() {
         AwsBasicCredentials awsCredentials = AwsBasicCredentials.create(accessKeyId, secretKey);
-        return S3Client.builder()
+        S3ClientBuilder builder = S3Client.builder()
                 .region(Region.of(region))
                 .credentialsProvider(StaticCredentialsProvider.create(awsCredentials))
-                .build();
+                .overrideConfiguration(config -> config
+                        .retryPolicy(RetryMode.valueOf(retryMode.toUpperCase(Locale.ROOT))));
+
+        // Optional S3-compatible endpoint (e.g. a local stand-in); these use path-style addressing
+        if (StringUtils.hasText(endpoint)) {
+            builder.endpointOverride(URI.create(endpoint))
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        }
+        return builder.build();
+    }
+
+    @Bean
+    public KeyPartitioner keyPartitioner(@Value("${aws.s3.bucket}") String bucket,
+                                         @Value("${aws.s3.partition.buckets:}") List<String> extraBuckets,
+                                         @Value("${aws.s3.partition.count:16}") int partitions) {
+        return new KeyPartitioner(bucket, extraBuckets, partitions);
     }
 }
\ No newline at end of file
@@ -1,23 +1,36 @@
 package com.microsoft.migration.assets.worker.config;
 
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessageConverter;
+import com.microsoft.migration.assets.worker.service.PermanentProcessingException;
 import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.FanoutExchange;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
-import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.retry.backoff.FixedBackOffPolicy;
+import org.springframework.retry.backoff.ExponentialRandomBackOffPolicy;
 import org.springframework.retry.policy.SimpleRetryPolicy;
 import org.springframework.retry.support.RetryTemplate;
 
+import java.util.Map;
+
 @Configuration
 public class RabbitConfig {
     public static final String QUEUE_NAME = "image-processing";
-    public static final int RETRY_DELAY_MS = 60000; // 1 minute delay
+    public static final String LARGE_QUEUE_NAME = "image-processing-large";
+    public static final String RETRY_QUEUE_NAME = "image-processing-retry";
+    // Attempts a small-lane job has failed, carried through the retry queue
+    public static final String ATTEMPTS_HEADER = "image-processing-attempts";
+    public static final String LARGE_LANE_CONTAINER_FACTORY = "largeLaneContainerFactory";
+    public static final String BATCH_CONTAINER_FACTORY = "batchContainerFactory";
+    public static final String THUMBNAIL_READY_EXCHANGE_NAME = "thumbnail-ready.fanout";
+    public static final int RETRY_DELAY_MS = 60000; // Longest delay between attempts
+    public static final int INITIAL_RETRY_DELAY_MS = 5000;
     public static final int MAX_ATTEMPTS = 3; // Maximum number of retry attempts
 
     @Bean
@@ -26,18 +39,88 @@ public class RabbitConfig {
     }
 
     @Bean
-    public MessageConverter jsonMessageConverter() {
-        return new Jackson2JsonMessageConverter();
+    public Queue largeImageProcessingQueue() {
+        return QueueBuilder.durable(LARGE_QUEUE_NAME).build();
+    }
+
+    /**
+     * Small-lane jobs that failed wait here for the retry delay, then are dead-lettered
+     * back onto the lane for their next attempt.
+     */
+    @Bean
+    public Queue imageProcessingRetryQueue(@Value("${worker.lanes.small.batch.retry-delay-ms:15000}") int retryDelayMs) {
+        return QueueBuilder.durable(RETRY_QUEUE_NAME)
+                .ttl(retryDelayMs)
+                .deadLetterExchange("")
+                .deadLetterRoutingKey(QUEUE_NAME)
+                .build();
+    }
+
+    /**
+     * Finished thumbnails are announced here, for the web's open listings.
+     */
+    @Bean
+    public FanoutExchange thumbnailReadyExchange() {
+        return new FanoutExchange(THUMBNAIL_READY_EXCHANGE_NAME);
+    }
+
+    /**
+     * Reads jobs in the binary encoding or as JSON, whichever the web published them in.
+     */
+    @Bean
+    public MessageConverter messageConverter() {
+        return new ImageProcessingMessageConverter(ImageProcessingMessageConverter.Format.BINARY);
     }
 
     @Bean
     public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(
             ConnectionFactory connectionFactory,
-            SimpleRabbitListenerContainerFactoryConfigurer configurer) {
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            MessageConverter messageConverter) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setMessageConverter(messageConverter);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        return factory;
+    }
+
+    /**
+     * Large images take seconds each, so consumers on the large lane prefetch one
+     * message at a time and never hold back work another consumer could pick up.
+     */
+    @Bean(LARGE_LANE_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory largeLaneContainerFactory(
+            ConnectionFactory connectionFactory,
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            MessageConverter messageConverter) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setMessageConverter(messageConverter);
+        factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setPrefetchCount(1);
+        return factory;
+    }
+
+    /**
+     * Small-lane consumers that take deliveries in batches: up to {@code size} at a time,
+     * closing a batch early once no further delivery arrives within the receive timeout.
+     * The listener settles each delivery itself.
+     */
+    @Bean(BATCH_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory batchContainerFactory(
+            ConnectionFactory connectionFactory,
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            MessageConverter messageConverter,
+            @Value("${worker.lanes.small.batch.size:16}") int batchSize,
+            @Value("${worker.lanes.small.batch.receive-timeout-ms:50}") long receiveTimeoutMs) {
         SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
         configurer.configure(factory, connectionFactory);
-        factory.setMessageConverter(jsonMessageConverter());
+        factory.setMessageConverter(messageConverter);
         factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeoutMs);
         return factory;
     }
     
@@ -45,14 +128,17 @@ public class RabbitConfig {
     public RetryTemplate retryTemplate() {
         RetryTemplate retryTemplate = new RetryTemplate();
         
-        // Configure retry policy (number of attempts)
-        SimpleRetryPolicy retryPolicy = new SimpleRetryPolicy();
-        retryPolicy.setMaxAttempts(MAX_ATTEMPTS);
+        // Configure retry policy (number of attempts); permanent failures are not retried
+        SimpleRetryPolicy retryPolicy = new SimpleRetryPolicy(MAX_ATTEMPTS,
+                Map.of(PermanentProcessingException.class, false), true, true);
         retryTemplate.setRetryPolicy(retryPolicy);
         
-        // Configure backoff policy (delay between retries)
-        FixedBackOffPolicy backOffPolicy = new FixedBackOffPolicy();
-        backOffPolicy.setBackOffPeriod(RETRY_DELAY_MS);
+        // Configure backoff policy (delay between retries): exponential with jitter, so jobs
+        // that failed together on a throttled prefix do not all retry at the same moment
+        ExponentialRandomBackOffPolicy backOffPolicy = new ExponentialRandomBackOffPolicy();
+        backOffPolicy.setInitialInterval(INITIAL_RETRY_DELAY_MS);
+        backOffPolicy.setMultiplier(3);
+        backOffPolicy.setMaxInterval(RETRY_DELAY_MS);
         retryTemplate.setBackOffPolicy(backOffPolicy);
         
         return retryTemplate;
@@ -0,0 +1,28 @@
+package com.microsoft.migration.assets.worker.config;
+
+import com.microsoft.migration.assets.common.image.EncodingProfile;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Encoding profile per rendition, e.g. {@code worker.renditions.profiles.thumbnail.max-bytes=102400}.
+ */
+@Data
+@Component
+@ConfigurationProperties(prefix = "worker.renditions")
+public class RenditionProperties {
+    public static final String THUMBNAIL = "thumbnail";
+
+    private Map<String, EncodingProfile> profiles = new LinkedHashMap<>();
+
+    /**
+     * The configured profile for a rendition, or the defaults if it has none.
+     */
+    public EncodingProfile profile(String rendition) {
+        return profiles.getOrDefault(rendition, new EncodingProfile());
+    }
+}
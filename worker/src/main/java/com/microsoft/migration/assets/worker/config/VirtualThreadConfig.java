@@ -0,0 +1,71 @@
+package com.microsoft.migration.assets.worker.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Opt-in mode ({@code threads.virtual.enabled=true}, JDK 21+) that runs the Rabbit
+ * listener consumers on virtual threads, so time spent blocked on S3 and the
+ * database does not hold a platform thread per consumer.
+ * <p>
+ * The executors are not beans, so Boot's {@code applicationTaskExecutor} stays in place,
+ * and are shut down with the context.
+ * <p>
+ * The module still targets Java 11, so the executor is looked up reflectively and
+ * startup fails fast on an older runtime.
+ */
+@Slf4j
+@Configuration
+@ConditionalOnProperty(name = "threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+
+    @Bean
+    public static BeanPostProcessor virtualThreadListenerContainerPostProcessor() {
+        return new ListenerContainerPostProcessor();
+    }
+
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("threads.virtual.enabled=true requires JDK 21 or later, running on "
+                    + System.getProperty("java.version"), e);
+        }
+    }
+
+    /**
+     * Gives each listener container factory its own executor, shut down with the context
+     * after the containers have stopped.
+     */
+    static class ListenerContainerPostProcessor implements BeanPostProcessor, DisposableBean {
+        private final List<ExecutorService> executors = new CopyOnWriteArrayList<>();
+
+        @Override
+        public Object postProcessBeforeInitialization(Object bean, String beanName) {
+            if (bean instanceof SimpleRabbitListenerContainerFactory) {
+                ExecutorService executor = newVirtualThreadPerTaskExecutor();
+                executors.add(executor);
+                ((SimpleRabbitListenerContainerFactory) bean).setTaskExecutor(executor);
+                log.info("Listener container factory {} runs consumers on virtual threads", beanName);
+            }
+            return bean;
+        }
+
+        @Override
+        public void destroy() {
+            executors.forEach(ExecutorService::shutdown);
+        }
+    }
+}
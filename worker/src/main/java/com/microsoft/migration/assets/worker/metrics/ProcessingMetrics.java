@@ -0,0 +1,219 @@
+package com.microsoft.migration.assets.worker.metrics;
+
+import com.microsoft.migration.assets.common.image.ThumbnailRenderer;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.MessageListenerContainer;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.LARGE_QUEUE_NAME;
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.QUEUE_NAME;
+
+/**
+ * Micrometer meters for the thumbnail pipeline, exposed through the actuator
+ * Prometheus endpoint on the worker's management port.
+ */
+@Slf4j
+@Component
+public class ProcessingMetrics {
+    public static final String STAGE_PROBE = "probe";
+    public static final String STAGE_COPY = "copy";
+    public static final String STAGE_ADMIT = "admit";
+    public static final String STAGE_DOWNLOAD = "download";
+    public static final String STAGE_DECODE = "decode";
+    public static final String STAGE_SCALE = ThumbnailRenderer.STAGE_SCALE;
+    public static final String STAGE_HASH = ThumbnailRenderer.STAGE_HASH;
+    public static final String STAGE_SHARPEN = ThumbnailRenderer.STAGE_SHARPEN;
+    public static final String STAGE_ENCODE = ThumbnailRenderer.STAGE_ENCODE;
+    public static final String STAGE_UPLOAD = "upload";
+    public static final String STAGE_SAVE = "save";
+
+    public static final String OUTCOME_PROCESSED = "processed";
+    public static final String OUTCOME_SKIPPED = "skipped";
+    public static final String OUTCOME_FAILED = "failed";
+    public static final String OUTCOME_REJECTED = "rejected";
+    public static final String OUTCOME_CANCELLED = "cancelled";
+
+    private final MeterRegistry registry;
+    private final ObjectProvider<AmqpAdmin> amqpAdmin;
+    private final ObjectProvider<RabbitListenerEndpointRegistry> listenerRegistry;
+
+    private final Map<String, Timer> stageTimers = new ConcurrentHashMap<>();
+    private final Map<String, Counter> outcomeCounters = new ConcurrentHashMap<>();
+    private final Counter retries;
+    private final DistributionSummary bytesIn;
+    private final DistributionSummary bytesOut;
+    private final DistributionSummary decodedPixels;
+    private final Map<String, Timer> jobTimers = new ConcurrentHashMap<>();
+    private final Map<String, Timer> queueLagTimers = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> queueDepths = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public ProcessingMetrics(MeterRegistry registry,
+                             ObjectProvider<AmqpAdmin> amqpAdmin,
+                             ObjectProvider<RabbitListenerEndpointRegistry> listenerRegistry) {
+        this.registry = registry;
+        this.amqpAdmin = amqpAdmin;
+        this.listenerRegistry = listenerRegistry;
+
+        this.retries = Counter.builder("worker.retries")
+                .description("Retry attempts for thumbnail jobs")
+                .register(registry);
+        this.bytesIn = DistributionSummary.builder("worker.bytes.in")
+                .description("Size of downloaded originals")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.bytesOut = DistributionSummary.builder("worker.bytes.out")
+                .description("Size of generated thumbnails")
+                .baseUnit("bytes")
+                .publishPercentileHistogram()
+                .register(registry);
+        this.decodedPixels = DistributionSummary.builder("worker.pixels.decoded")
+                .description("Pixel count of decoded originals")
+                .baseUnit("pixels")
+                .publishPercentileHistogram()
+                .register(registry);
+
+        Gauge.builder("worker.consumers.busy", inFlight, AtomicInteger::get)
+                .description("Consumers currently processing a job")
+                .register(registry);
+        Gauge.builder("worker.consumers.utilization", this, ProcessingMetrics::consumerUtilization)
+                .description("Busy consumers divided by active consumers")
+                .register(registry);
+        for (String queue : List.of(QUEUE_NAME, LARGE_QUEUE_NAME)) {
+            AtomicLong depth = new AtomicLong();
+            queueDepths.put(queue, depth);
+            Gauge.builder("worker.queue.depth", depth, AtomicLong::get)
+                    .description("Ready messages in an image processing queue")
+                    .tag("queue", queue)
+                    .register(registry);
+        }
+    }
+
+    /**
+     * Start timing a pipeline stage; pass the sample to {@link #stopStage}.
+     */
+    public Timer.Sample startStage() {
+        return Timer.start(registry);
+    }
+
+    public void stopStage(Timer.Sample sample, String stage) {
+        sample.stop(stageTimer(stage));
+    }
+
+    /**
+     * Record a stage timed elsewhere, e.g. by {@link ThumbnailRenderer}.
+     */
+    public void recordStage(String stage, long nanos) {
+        stageTimer(stage).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer stageTimer(String stage) {
+        return stageTimers.computeIfAbsent(stage, name -> Timer.builder("worker.stage.duration")
+                .description("Time spent in each thumbnail pipeline stage")
+                .tag("stage", name)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    /**
+     * Mark the start of a job; the returned sample is passed to {@link #jobFinished}.
+     */
+    public Timer.Sample jobStarted(String queue, Date publishedAt) {
+        if (publishedAt != null) {
+            long lag = System.currentTimeMillis() - publishedAt.getTime();
+            queueLagTimers.computeIfAbsent(queue, name -> Timer.builder("worker.queue.lag")
+                    .description("Time between publish and the start of processing")
+                    .tag("queue", name)
+                    .publishPercentileHistogram()
+                    .register(registry)).record(Duration.ofMillis(Math.max(lag, 0)));
+        }
+        inFlight.incrementAndGet();
+        return Timer.start(registry);
+    }
+
+    public void jobFinished(Timer.Sample sample, String queue, String outcome) {
+        inFlight.decrementAndGet();
+        sample.stop(jobTimers.computeIfAbsent(queue, name -> Timer.builder("worker.job.duration")
+                .description("Wall time a consumer spends on one job, including retries")
+                .tag("queue", name)
+                .publishPercentileHistogram()
+                .register(registry)));
+        outcomeCounters.computeIfAbsent(queue + ":" + outcome, name -> Counter.builder("worker.jobs")
+                .description("Thumbnail jobs by outcome")
+                .tag("queue", queue)
+                .tag("outcome", outcome)
+                .register(registry)).increment();
+    }
+
+    public void retry() {
+        retries.increment();
+    }
+
+    public void bytesIn(long bytes) {
+        bytesIn.record(bytes);
+    }
+
+    public void bytesOut(long bytes) {
+        bytesOut.record(bytes);
+    }
+
+    public void decodedPixels(long pixels) {
+        decodedPixels.record(pixels);
+    }
+
+    /**
+     * Refresh the queue depth gauges; a passive declare per interval keeps scrapes cheap.
+     */
+    @Scheduled(fixedDelayString = "${worker.metrics.queue-depth-interval-ms:10000}")
+    public void refreshQueueDepth() {
+        AmqpAdmin admin = amqpAdmin.getIfAvailable();
+        if (admin == null) {
+            return;
+        }
+        queueDepths.forEach((queue, depth) -> {
+            try {
+                QueueInformation info = admin.getQueueInfo(queue);
+                if (info != null) {
+                    depth.set(info.getMessageCount());
+                }
+            } catch (Exception e) {
+                log.debug("Could not read depth of queue {}: {}", queue, e.getMessage());
+            }
+        });
+    }
+
+    private double consumerUtilization() {
+        RabbitListenerEndpointRegistry endpoints = listenerRegistry.getIfAvailable();
+        if (endpoints == null) {
+            return 0;
+        }
+        int consumers = 0;
+        for (MessageListenerContainer container : endpoints.getListenerContainers()) {
+            if (container instanceof SimpleMessageListenerContainer) {
+                consumers += ((SimpleMessageListenerContainer) container).getActiveConsumerCount();
+            }
+        }
+        return consumers == 0 ? 0 : (double) inFlight.get() / consumers;
+    }
+}
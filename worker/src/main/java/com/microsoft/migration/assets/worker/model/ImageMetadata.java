@@ -1,38 +0,0 @@
-package com.microsoft.migration.assets.worker.model;
-
-import jakarta.persistence.Entity;
-import jakarta.persistence.Id;
-import jakarta.persistence.PrePersist;
-import jakarta.persistence.PreUpdate;
-import lombok.Data;
-import lombok.NoArgsConstructor;
-
-import java.time.LocalDateTime;
-
-@Entity
-@Data
-@NoArgsConstructor
-public class ImageMetadata {
-    @Id
-    private String id;
-    private String filename;
-    private String contentType;
-    private Long size;
-    private String s3Key;
-    private String s3Url;
-    private String thumbnailKey;
-    private String thumbnailUrl;
-    private LocalDateTime uploadedAt;
-    private LocalDateTime lastModified;
-
-    @PrePersist
-    protected void onCreate() {
-        uploadedAt = LocalDateTime.now();
-        lastModified = LocalDateTime.now();
-    }
-
-    @PreUpdate
-    protected void onUpdate() {
-        lastModified = LocalDateTime.now();
-    }
-}
\ No newline at end of file
@@ -1,10 +1,18 @@
 package com.microsoft.migration.assets.worker.repository;
 
-import com.microsoft.migration.assets.worker.model.ImageMetadata;
+import com.microsoft.migration.assets.common.model.ImageMetadata;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
 @Repository
 public interface ImageMetadataRepository extends JpaRepository<ImageMetadata, String> {
     // Basic CRUD operations are automatically provided by JpaRepository
+
+    Optional<ImageMetadata> findByS3Key(String s3Key);
+
+    List<ImageMetadata> findByS3KeyIn(Collection<String> s3Keys);
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package com.microsoft.migration.assets.worker.repository;
+
+import com.microsoft.migration.assets.common.model.Tombstone;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface TombstoneRepository extends JpaRepository<Tombstone, String> {
+    // existsById tells whether a job's original has been deleted
+}
@@ -1,55 +1,340 @@
 package com.microsoft.migration.assets.worker.service;
 
-import com.microsoft.migration.assets.worker.model.ImageProcessingMessage;
+import com.microsoft.migration.assets.common.image.EncodedImage;
+import com.microsoft.migration.assets.common.image.EncodingProfile;
+import com.microsoft.migration.assets.common.image.ImageFormat;
+import com.microsoft.migration.assets.common.image.ImageProbe;
+import com.microsoft.migration.assets.common.image.ImageResizer;
+import com.microsoft.migration.assets.common.image.MappedImageInputStream;
+import com.microsoft.migration.assets.common.image.PerceptualHash;
+import com.microsoft.migration.assets.common.image.ThumbnailEncoder;
+import com.microsoft.migration.assets.common.image.ThumbnailRenderer;
+import com.microsoft.migration.assets.common.messaging.ImageProcessingMessage;
+import com.microsoft.migration.assets.common.messaging.ThumbnailReadyMessage;
+import com.microsoft.migration.assets.worker.config.RenditionProperties;
+import com.microsoft.migration.assets.worker.metrics.ProcessingMetrics;
+import com.microsoft.migration.assets.worker.repository.TombstoneRepository;
 import com.microsoft.migration.assets.worker.util.StorageUtil;
 import com.rabbitmq.client.Channel;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.support.DefaultMessagePropertiesConverter;
+import org.springframework.amqp.rabbit.support.MessagePropertiesConverter;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
 import org.springframework.amqp.support.AmqpHeaders;
+import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.retry.RetryCallback;
 import org.springframework.retry.RetryContext;
 import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.imageio.ImageIO;
-import java.awt.Graphics2D;
-import java.awt.RenderingHints;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.ATTEMPTS_HEADER;
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.BATCH_CONTAINER_FACTORY;
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.LARGE_LANE_CONTAINER_FACTORY;
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.LARGE_QUEUE_NAME;
 import static com.microsoft.migration.assets.worker.config.RabbitConfig.QUEUE_NAME;
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.RETRY_QUEUE_NAME;
 
 @Slf4j
 public abstract class AbstractFileProcessingService implements FileProcessor {
+    private static final int THUMBNAIL_MAX_DIMENSION = 600;
+    // Enough for the dimensions of PNG, GIF and BMP, and of JPEGs with typical EXIF blocks
+    private static final int PROBE_HEADER_BYTES = 64 * 1024;
+    private static final MessagePropertiesConverter PROPERTIES_CONVERTER = new DefaultMessagePropertiesConverter();
 
     @Autowired
     private RetryTemplate retryTemplate;
 
-    @RabbitListener(queues = QUEUE_NAME)
+    @Autowired
+    protected ProcessingMetrics metrics;
+
+    @Autowired
+    private RenditionProperties renditions;
+
+    @Autowired
+    private DecodeAdmission decodeAdmission;
+
+    @Autowired
+    private TiledDownscaler tiledDownscaler;
+
+    @Autowired
+    private TombstoneRepository tombstoneRepository;
+
+    @Autowired
+    private MessageConverter messageConverter;
+
+    @Autowired
+    private ThumbnailReadyPublisher thumbnailReadyPublisher;
+
+    @Value("${worker.lanes.small.batch.parallelism:0}")
+    private int batchParallelism;
+
+    @Value("${worker.lanes.small.batch.max-attempts:5}")
+    private int batchMaxAttempts;
+
+    // Runs the jobs of a batch concurrently; shared by the small lane's consumers
+    private ExecutorService batchExecutor;
+
+    @PostConstruct
+    void startBatchExecutor() {
+        batchExecutor = Executors.newFixedThreadPool(
+                batchParallelism > 0 ? batchParallelism : Runtime.getRuntime().availableProcessors(),
+                new CustomizableThreadFactory("thumbnail-batch-"));
+    }
+
+    @PreDestroy
+    void stopBatchExecutor() {
+        batchExecutor.shutdown();
+    }
+
+    /**
+     * Small-image lane: several consumers so interactive uploads keep a low p99. Replaced
+     * by {@link #processImageBatch} when batch consumption is enabled.
+     */
+    @RabbitListener(queues = QUEUE_NAME, concurrency = "${worker.lanes.small.concurrency:2-4}",
+            autoStartup = "#{!${worker.lanes.small.batch.enabled:true}}")
     public void processImage(final ImageProcessingMessage message, 
                            Channel channel, 
-                           @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+                           @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+                           @Header(name = AmqpHeaders.TIMESTAMP, required = false) Date publishedAt) {
+        handleMessage(QUEUE_NAME, message, channel, deliveryTag, publishedAt);
+    }
+
+    /**
+     * Small-image lane in batches: each consumer takes up to the configured number of
+     * deliveries, or as many as arrive before the receive timeout, and processes them
+     * concurrently. Their thumbnails are recorded in one metadata write, and the batch is
+     * settled with a single multiple-ack for its leading run of successes; deliveries after
+     * the first failure are settled one by one. Each delivery gets a single attempt, so a
+     * failing job never holds the rest of the batch through the retry backoff: it is
+     * rejected if permanent, as in {@link #processImage}, and otherwise moved to the retry
+     * queue, which returns it to the lane after the retry delay. A job that has failed the
+     * configured number of attempts is rejected.
+     */
+    @RabbitListener(queues = QUEUE_NAME, containerFactory = BATCH_CONTAINER_FACTORY,
+            concurrency = "${worker.lanes.small.concurrency:2-4}",
+            autoStartup = "${worker.lanes.small.batch.enabled:true}")
+    public void processImageBatch(List<Message> deliveries, Channel channel) {
+        List<BatchJob> jobs = new ArrayList<>(deliveries.size());
+        for (Message delivery : deliveries) {
+            jobs.add(new BatchJob(delivery, metrics.jobStarted(QUEUE_NAME, delivery.getMessageProperties().getTimestamp())));
+        }
+
+        List<Future<?>> running = new ArrayList<>(jobs.size());
+        for (BatchJob job : jobs) {
+            running.add(batchExecutor.submit(() -> runBatchJob(job)));
+        }
+        for (Future<?> future : running) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // runBatchJob records its own failures
+                log.error("Unexpected failure in batch job", e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                // Unsettled deliveries are redelivered once the channel closes
+                return;
+            }
+        }
+
+        recordBatchMetadata(jobs);
+        settleBatch(jobs, channel);
+        announceThumbnails(jobs);
+    }
+
+    private void runBatchJob(BatchJob job) {
         try {
-            retryTemplate.execute(new RetryCallback<Void, Exception>() {
-                @Override
-                public Void doWithRetry(RetryContext context) throws Exception {
-                    if (context.getRetryCount() > 0) {
-                        log.info("Retry attempt {} for image: {}", context.getRetryCount(), message.getKey());
-                    }
-                    
-                    processImageWithRetry(message);
-                    return null;
-                }
+            // A batch listener names no argument type, so JSON jobs would otherwise be read
+            // as whatever class their type header names
+            job.delivery.getMessageProperties().setInferredArgumentType(ImageProcessingMessage.class);
+            job.message = (ImageProcessingMessage) messageConverter.fromMessage(job.delivery);
+            job.outcome = processImageWithRetry(job.message, (thumbnailKey, thumbnail) -> {
+                // Recorded with the rest of the batch once every job has run
+                job.thumbnailKey = thumbnailKey;
+                job.thumbnail = thumbnail;
             });
-            
+        } catch (Exception e) {
+            job.failure = e;
+        }
+    }
+
+    /**
+     * Record the thumbnails of a batch's successful jobs in one write; if it fails, those
+     * jobs fail with it and are requeued.
+     */
+    private void recordBatchMetadata(List<BatchJob> jobs) {
+        Map<String, EncodedImage> thumbnails = new LinkedHashMap<>();
+        for (BatchJob job : jobs) {
+            if (job.failure == null && job.thumbnail != null) {
+                thumbnails.put(job.thumbnailKey, job.thumbnail);
+            }
+        }
+        if (thumbnails.isEmpty()) {
+            return;
+        }
+        Timer.Sample stage = metrics.startStage();
+        try {
+            saveThumbnailMetadata(thumbnails);
+            metrics.stopStage(stage, ProcessingMetrics.STAGE_SAVE);
+        } catch (Exception e) {
+            log.error("Failed to record {} thumbnails", thumbnails.size(), e);
+            for (BatchJob job : jobs) {
+                if (job.failure == null && job.thumbnail != null) {
+                    job.failure = e;
+                }
+            }
+        }
+    }
+
+    private void settleBatch(List<BatchJob> jobs, Channel channel) {
+        // Deliveries arrive in tag order, so one multiple-ack covers the leading successes
+        int succeeded = 0;
+        while (succeeded < jobs.size() && jobs.get(succeeded).failure == null) {
+            succeeded++;
+        }
+        if (succeeded > 0) {
+            long lastTag = jobs.get(succeeded - 1).delivery.getMessageProperties().getDeliveryTag();
+            try {
+                log.debug("Acknowledging {} messages up to delivery {}", succeeded, lastTag);
+                channel.basicAck(lastTag, true);
+            } catch (IOException e) {
+                log.error("Error acknowledging {} messages up to delivery {}", succeeded, lastTag, e);
+            }
+        }
+        for (int i = 0; i < jobs.size(); i++) {
+            BatchJob job = jobs.get(i);
+            String outcome = i < succeeded ? job.outcome : settle(job, channel);
+            metrics.jobFinished(job.sample, QUEUE_NAME, outcome);
+        }
+    }
+
+    private void announceThumbnails(List<BatchJob> jobs) {
+        List<ThumbnailReadyMessage> ready = new ArrayList<>();
+        for (BatchJob job : jobs) {
+            if (job.failure == null && job.thumbnail != null) {
+                ready.add(new ThumbnailReadyMessage(job.message.getKey(), job.thumbnailKey));
+            }
+        }
+        thumbnailReadyPublisher.publishAll(ready);
+    }
+
+    private String settle(BatchJob job, Channel channel) {
+        long deliveryTag = job.delivery.getMessageProperties().getDeliveryTag();
+        String key = job.message != null ? job.message.getKey() : "delivery " + deliveryTag;
+        try {
+            if (job.failure == null) {
+                channel.basicAck(deliveryTag, false);
+                return job.outcome;
+            } else if (job.failure instanceof PermanentProcessingException || job.message == null) {
+                // Permanent, or not a job at all; requeueing would only feed it back to a consumer
+                log.warn("Rejecting image {}: {}", key, job.failure.getMessage());
+                channel.basicReject(deliveryTag, false);
+                return ProcessingMetrics.OUTCOME_REJECTED;
+            }
+            int attempts = failedAttempts(job.delivery) + 1;
+            if (attempts >= batchMaxAttempts) {
+                log.error("Rejecting image {} after {} failed attempts: {}", key, attempts, job.failure.getMessage());
+                channel.basicReject(deliveryTag, false);
+            } else {
+                log.warn("Retrying image {} later after failed attempt {}: {}", key, attempts, job.failure.getMessage());
+                retryLater(job.delivery, attempts, channel);
+                metrics.retry();
+            }
+            return ProcessingMetrics.OUTCOME_FAILED;
+        } catch (IOException ackEx) {
+            log.error("Error handling RabbitMQ acknowledgment for: {}", key, ackEx);
+            return job.failure == null ? job.outcome : ProcessingMetrics.OUTCOME_FAILED;
+        }
+    }
+
+    private static int failedAttempts(Message delivery) {
+        Object attempts = delivery.getMessageProperties().getHeader(ATTEMPTS_HEADER);
+        return attempts instanceof Number ? ((Number) attempts).intValue() : 0;
+    }
+
+    /**
+     * Move a delivery to the retry queue. The copy is published on the delivery's own
+     * channel ahead of its ack, so the broker holds the copy before it drops the original.
+     */
+    private void retryLater(Message delivery, int attempts, Channel channel) throws IOException {
+        MessageProperties properties = delivery.getMessageProperties();
+        properties.setHeader(ATTEMPTS_HEADER, attempts);
+        channel.basicPublish("", RETRY_QUEUE_NAME,
+                PROPERTIES_CONVERTER.fromMessageProperties(properties, StandardCharsets.UTF_8.name()),
+                delivery.getBody());
+        channel.basicAck(properties.getDeliveryTag(), false);
+    }
+
+    /**
+     * Large-image lane: its own consumers, so big scans make progress without
+     * occupying the consumers that serve the small lane.
+     */
+    @RabbitListener(queues = LARGE_QUEUE_NAME, containerFactory = LARGE_LANE_CONTAINER_FACTORY,
+            concurrency = "${worker.lanes.large.concurrency:1-2}")
+    public void processLargeImage(final ImageProcessingMessage message,
+                                  Channel channel,
+                                  @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag,
+                                  @Header(name = AmqpHeaders.TIMESTAMP, required = false) Date publishedAt) {
+        handleMessage(LARGE_QUEUE_NAME, message, channel, deliveryTag, publishedAt);
+    }
+
+    private void handleMessage(String queue,
+                               final ImageProcessingMessage message,
+                               Channel channel,
+                               long deliveryTag,
+                               Date publishedAt) {
+        Timer.Sample job = metrics.jobStarted(queue, publishedAt);
+        try {
+            String outcome = processWithRetries(message, this::recordThumbnail);
+
             // Success - acknowledge the message
             log.debug("Acknowledging message after successful processing: {}", message.getKey());
             channel.basicAck(deliveryTag, false);
+            metrics.jobFinished(job, queue, outcome);
+            if (ProcessingMetrics.OUTCOME_PROCESSED.equals(outcome)) {
+                thumbnailReadyPublisher.publish(new ThumbnailReadyMessage(message.getKey(),
+                        StorageUtil.getThumbnailKey(message.getKey())));
+            }
+        } catch (PermanentProcessingException e) {
+            // Requeueing would only feed the same image back to a consumer
+            log.warn("Rejecting image {}: {}", message.getKey(), e.getMessage());
+            metrics.jobFinished(job, queue, ProcessingMetrics.OUTCOME_REJECTED);
+            try {
+                channel.basicReject(deliveryTag, false);
+            } catch (IOException ackEx) {
+                log.error("Error handling RabbitMQ acknowledgment for: {}", message.getKey(), ackEx);
+            }
         } catch (Exception e) {
             log.error("All retry attempts failed for image: " + message.getKey(), e);
+            metrics.jobFinished(job, queue, ProcessingMetrics.OUTCOME_FAILED);
             
             try {
                 // After all retries are exhausted, reject the message
@@ -62,43 +347,110 @@ public abstract class AbstractFileProcessingService implements FileProcessor {
         }
     }
     
-    private void processImageWithRetry(ImageProcessingMessage message) {
+    private String processWithRetries(ImageProcessingMessage message, ThumbnailRecorder recorder) throws Exception {
+        return retryTemplate.execute(new RetryCallback<String, Exception>() {
+            @Override
+            public String doWithRetry(RetryContext context) throws Exception {
+                if (context.getRetryCount() > 0) {
+                    log.info("Retry attempt {} for image: {}", context.getRetryCount(), message.getKey());
+                    metrics.retry();
+                }
+
+                return processImageWithRetry(message, recorder);
+            }
+        });
+    }
+
+    private void recordThumbnail(String thumbnailKey, EncodedImage thumbnail) throws Exception {
+        Timer.Sample stage = metrics.startStage();
+        saveThumbnailMetadata(thumbnailKey, thumbnail);
+        metrics.stopStage(stage, ProcessingMetrics.STAGE_SAVE);
+    }
+
+    /**
+     * @return the outcome: processed, skipped if the message belongs to another storage type,
+     * or cancelled if the original has been deleted since the job was queued
+     */
+    private String processImageWithRetry(ImageProcessingMessage message, ThumbnailRecorder recorder) {
         Path tempDir = null;
-        Path originalFile = null;
+        Path downloadedFile = null;
         Path thumbnailFile = null;
 
         try {
             log.info("Processing image: {}", message.getKey());
 
-            tempDir = Files.createTempDirectory("image-processing");
-            originalFile = tempDir.resolve("original" + StorageUtil.getExtension(message.getKey()));
-            thumbnailFile = tempDir.resolve("thumbnail" + StorageUtil.getExtension(message.getKey()));
-
             // Only process if message matches our storage type
             if (message.getStorageType().equals(getStorageType())) {
-                // Download original file
-                downloadOriginal(message.getKey(), originalFile);
+                // Deleted before its job ran; acknowledge it without touching storage
+                if (tombstoneRepository.existsById(message.getKey())) {
+                    log.info("Cancelled job for deleted image: {}", message.getKey());
+                    return ProcessingMetrics.OUTCOME_CANCELLED;
+                }
+
+                String thumbnailKey = StorageUtil.getThumbnailKey(message.getKey());
+
+                // Originals already within the thumbnail bounds are stored as their own thumbnail,
+                // skipping the decode, scale and re-encode that would only make them larger
+                Path originalFile = localOriginal(message.getKey());
+                if (originalFile == null) {
+                    tempDir = Files.createTempDirectory("image-processing");
+                }
+                if (passThroughIfWithinBounds(message.getKey(), thumbnailKey, originalFile, tempDir, recorder)) {
+                    log.info("Successfully processed image: {} (stored as its own thumbnail)", message.getKey());
+                    return ProcessingMetrics.OUTCOME_PROCESSED;
+                }
+
+                // Decode the stored original in place when the storage allows it, else download it
+                if (originalFile == null) {
+                    downloadedFile = tempDir.resolve("original" + StorageUtil.getExtension(message.getKey()));
+                    Timer.Sample stage = metrics.startStage();
+                    downloadOriginal(message.getKey(), downloadedFile);
+                    metrics.stopStage(stage, ProcessingMetrics.STAGE_DOWNLOAD);
+                    originalFile = downloadedFile;
+                }
+                metrics.bytesIn(Files.size(originalFile));
 
                 // Generate thumbnail
-                generateThumbnail(originalFile, thumbnailFile);
+                thumbnailFile = thumbnailStagingPath(thumbnailKey);
+                if (thumbnailFile == null) {
+                    if (tempDir == null) {
+                        tempDir = Files.createTempDirectory("image-processing");
+                    }
+                    thumbnailFile = tempDir.resolve("thumbnail" + StorageUtil.getExtension(message.getKey()));
+                }
+                EncodedImage thumbnail = generateThumbnail(originalFile, thumbnailFile);
+                metrics.bytesOut(thumbnail.getSize());
 
                 // Upload thumbnail
-                String thumbnailKey = StorageUtil.getThumbnailKey(message.getKey());
-                uploadThumbnail(thumbnailFile, thumbnailKey, message.getContentType());
+                Timer.Sample stage = metrics.startStage();
+                uploadThumbnail(thumbnailFile, thumbnailKey, thumbnail.getContentType());
+                metrics.stopStage(stage, ProcessingMetrics.STAGE_UPLOAD);
 
-                log.info("Successfully processed image: {}", message.getKey());
+                // Record the thumbnail against the original's metadata
+                recorder.record(thumbnailKey, thumbnail);
+
+                log.info("Successfully processed image: {} (thumbnail {}, {} bytes)", message.getKey(),
+                        thumbnail.getEncoding(), thumbnail.getSize());
+                return ProcessingMetrics.OUTCOME_PROCESSED;
             } else {
                 log.debug("Skipping message with storage type: {} (we handle {})",
                     message.getStorageType(), getStorageType());
+                return ProcessingMetrics.OUTCOME_SKIPPED;
             }
+        } catch (PermanentProcessingException e) {
+            throw e;
         } catch (Exception e) {
+            if (isNotFound(e)) {
+                // Deleted without a tombstone, or after the check; retrying cannot bring it back
+                throw new PermanentProcessingException("Original no longer exists: " + message.getKey(), e);
+            }
             log.error("Failed to process image: " + message.getKey(), e);
             throw new RuntimeException("Failed to process image: " + message.getKey(), e);
         } finally {
             try {
-                // Cleanup temporary files
-                if (originalFile != null) {
-                    Files.deleteIfExists(originalFile);
+                // Cleanup temporary files; an in-place original is never touched
+                if (downloadedFile != null) {
+                    Files.deleteIfExists(downloadedFile);
                 }
                 if (thumbnailFile != null) {
                     Files.deleteIfExists(thumbnailFile);
@@ -112,187 +464,197 @@ public abstract class AbstractFileProcessingService implements FileProcessor {
         }
     }
 
-    protected abstract String generateUrl(String key);
+    /**
+     * Probe the original's header and, if it already fits the thumbnail bounds, store it
+     * unchanged as the thumbnail. Originals that are not stored locally are probed from a
+     * ranged read of their first bytes, so a small image is never downloaded at all.
+     *
+     * @return true if the thumbnail was stored, false if the full pipeline has to run
+     */
+    private boolean passThroughIfWithinBounds(String key, String thumbnailKey, Path originalFile, Path tempDir,
+                                              ThumbnailRecorder recorder) throws Exception {
+        Timer.Sample stage = metrics.startStage();
+        ImageProbe probe = null;
+        long originalSize;
+        Path header = null;
+        try {
+            if (originalFile != null) {
+                probe = ImageProbe.probe(originalFile);
+                originalSize = Files.size(originalFile);
+            } else {
+                header = tempDir.resolve("header" + StorageUtil.getExtension(key));
+                originalSize = downloadOriginalHeader(key, header, PROBE_HEADER_BYTES);
+                if (originalSize >= 0) {
+                    probe = ImageProbe.probe(header);
+                }
+            }
+            metrics.stopStage(stage, ProcessingMetrics.STAGE_PROBE);
+            if (probe == null || !probe.fitsWithin(THUMBNAIL_MAX_DIMENSION)) {
+                return false;
+            }
 
-    protected void generateThumbnail(Path input, Path output) throws IOException {
-        log.info("Generating thumbnail for: {}", input);
+            log.debug("{} is a {}x{} {}, within the thumbnail bounds", key, probe.getWidth(), probe.getHeight(),
+                    probe.getFormatName());
+            stage = metrics.startStage();
+            if (!copyOriginalAsThumbnail(key, thumbnailKey)) {
+                return false;
+            }
+            metrics.stopStage(stage, ProcessingMetrics.STAGE_COPY);
+            metrics.bytesOut(originalSize);
 
-        // Read the original image
-        BufferedImage originalImage = ImageIO.read(input.toFile());
-        if (originalImage == null) {
-            throw new IOException("Could not read image file: " + input);
-        }
+            // A small original's header read is usually the whole image
+            Path source = originalFile != null ? originalFile
+                    : originalSize <= PROBE_HEADER_BYTES ? header : null;
+            Long perceptualHash = hashOriginal(key, source, tempDir);
 
-        int originalWidth = originalImage.getWidth();
-        int originalHeight = originalImage.getHeight();
+            ImageFormat format = ImageFormat.forFormatName(probe.getFormatName());
+            recorder.record(thumbnailKey, new EncodedImage(probe.getFormatName().toLowerCase(Locale.ROOT),
+                    format != null ? format.getContentType() : null, originalSize, EncodedImage.ENCODING_ORIGINAL,
+                    perceptualHash));
+            return true;
+        } finally {
+            if (header != null) {
+                Files.deleteIfExists(header);
+            }
+        }
+    }
 
-        // Calculate thumbnail dimensions while preserving aspect ratio
-        // Increased size significantly for better clarity (600px max dimension)
-        int maxDimension = 600;
-        int thumbnailWidth, thumbnailHeight;
-        
-        double aspectRatio = (double) originalWidth / originalHeight;
-
-        if (originalWidth > originalHeight) {
-            thumbnailWidth = maxDimension;
-            thumbnailHeight = (int) (maxDimension / aspectRatio);
-        } else {
-            thumbnailHeight = maxDimension;
-            thumbnailWidth = (int) (maxDimension * aspectRatio);
+    /**
+     * Hash an original stored as its own thumbnail, downloading it if {@code source} is
+     * null. It is within the thumbnail bounds, so decoding it is cheap. The hash is only
+     * used for similarity search, so failing to compute it never fails the job.
+     *
+     * @return the perceptual hash, or null if the original could not be decoded
+     */
+    private Long hashOriginal(String key, Path source, Path tempDir) {
+        Timer.Sample stage = metrics.startStage();
+        Path downloaded = null;
+        try {
+            if (source == null) {
+                downloaded = tempDir.resolve("original" + StorageUtil.getExtension(key));
+                downloadOriginal(key, downloaded);
+                source = downloaded;
+            }
+            BufferedImage image = ImageResizer.readSubsampled(source, 1);
+            return image == null ? null : PerceptualHash.of(image);
+        } catch (Exception e) {
+            log.warn("Could not hash {}: {}", key, e.getMessage());
+            return null;
+        } finally {
+            metrics.stopStage(stage, ProcessingMetrics.STAGE_HASH);
+            if (downloaded != null) {
+                try {
+                    Files.deleteIfExists(downloaded);
+                } catch (IOException e) {
+                    log.warn("Could not delete temporary file {}: {}", downloaded, e.getMessage());
+                }
+            }
         }
+    }
 
-        // Multi-step scaling for higher quality
-        // This progressive scaling produces better results than single-step scaling
-        BufferedImage resultImage = progressiveScaling(originalImage, thumbnailWidth, thumbnailHeight);
+    protected abstract String generateUrl(String key);
+
+    /**
+     * Whether a failure means the original does not exist.
+     */
+    protected boolean isNotFound(Exception e) {
+        return e instanceof FileNotFoundException || e instanceof NoSuchFileException;
+    }
 
-        // Sharpen the image to enhance details
-        resultImage = sharpenImage(resultImage);
+    protected EncodedImage generateThumbnail(Path input, Path output) throws IOException {
+        log.info("Generating thumbnail for: {}", input);
 
-        // Determine the output format based on the file extension
-        String extension = StorageUtil.getExtension(output.toString());
-        if (extension.startsWith(".")) {
-            extension = extension.substring(1);
+        // Identify the original by its content; the key's extension may be wrong or missing
+        ImageFormat sourceFormat = ImageFormat.sniff(input);
+        if (sourceFormat == null) {
+            throw new PermanentProcessingException("Unrecognised image format: " + input);
         }
-        if (extension.isEmpty()) {
-            extension = "jpg"; // Default to jpg if no extension found
+
+        ImageProbe probe = ImageProbe.probe(input);
+        if (probe == null) {
+            throw new PermanentProcessingException("Unreadable " + sourceFormat.getFormatName() + " header: " + input);
         }
 
-        // Write the thumbnail with optimized settings for different formats
-        if (extension.equalsIgnoreCase("jpg") || extension.equalsIgnoreCase("jpeg")) {
-            // For JPEG, we need to set compression quality
-            javax.imageio.ImageWriter jpgWriter = javax.imageio.ImageIO.getImageWritersByFormatName("jpg").next();
-            javax.imageio.ImageWriteParam jpgWriteParam = jpgWriter.getDefaultWriteParam();
-            jpgWriteParam.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-            // Higher compression quality (0.95 for maximum clarity)
-            jpgWriteParam.setCompressionQuality(0.95f);
-            
-            javax.imageio.IIOImage outputImage = new javax.imageio.IIOImage(resultImage, null, null);
-            javax.imageio.stream.ImageOutputStream outputStream = 
-                javax.imageio.ImageIO.createImageOutputStream(output.toFile());
-            jpgWriter.setOutput(outputStream);
-            jpgWriter.write(null, outputImage, jpgWriteParam);
-            jpgWriter.dispose();
-            outputStream.close();
-        } else {
-            // For PNG, use compression level 0 (no compression) for best quality
-            javax.imageio.ImageWriteParam pngWriteParam = null;
-            if (extension.equalsIgnoreCase("png")) {
-                javax.imageio.ImageWriter pngWriter = ImageIO.getImageWritersByFormatName("png").next();
-                pngWriteParam = pngWriter.getDefaultWriteParam();
-                if (pngWriteParam.canWriteCompressed()) {
-                    pngWriteParam.setCompressionMode(javax.imageio.ImageWriteParam.MODE_EXPLICIT);
-                    pngWriteParam.setCompressionType("Deflate");
-                    pngWriteParam.setCompressionQuality(0.0f); // 0 = best quality for PNG
-                    
-                    javax.imageio.IIOImage outputImage = new javax.imageio.IIOImage(resultImage, null, null);
-                    javax.imageio.stream.ImageOutputStream outputStream = 
-                        javax.imageio.ImageIO.createImageOutputStream(output.toFile());
-                    pngWriter.setOutput(outputStream);
-                    pngWriter.write(null, outputImage, pngWriteParam);
-                    pngWriter.dispose();
-                    outputStream.close();
-                } else {
-                    ImageIO.write(resultImage, extension, output.toFile());
-                }
-            } else {
-                // For other formats, use regular write method
-                ImageIO.write(resultImage, extension, output.toFile());
-            }
+        // Calculate thumbnail dimensions while preserving aspect ratio
+        // Increased size significantly for better clarity (600px max dimension)
+        Dimension thumbnailSize = ImageResizer.fitWithin(probe.getWidth(), probe.getHeight(), THUMBNAIL_MAX_DIMENSION);
+        int thumbnailWidth = thumbnailSize.width;
+        int thumbnailHeight = thumbnailSize.height;
+
+        // Hold a share of the decode budget for as long as full-size pixels are referenced;
+        // very large images are downscaled in tiles and never held at full size
+        boolean tiled = tiledDownscaler.accepts(probe);
+        String name = input.getFileName().toString();
+        Timer.Sample stage = metrics.startStage();
+        EncodedImage encoded;
+        try (DecodeAdmission.Permit ignored = tiled
+                ? decodeAdmission.admit(name, tiledDownscaler.estimateBytes(probe, thumbnailWidth, thumbnailHeight))
+                : decodeAdmission.admit(name, probe)) {
+            metrics.stopStage(stage, ProcessingMetrics.STAGE_ADMIT);
+            encoded = renderThumbnail(input, sourceFormat, probe, tiled, thumbnailWidth, thumbnailHeight, output);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the decode budget: " + input, e);
         }
 
         log.info("Successfully generated thumbnail: {}", output);
+        return encoded;
     }
     
-    /**
-     * Performs progressive scaling of the image for better quality.
-     * This method gradually scales down the image in multiple steps rather than all at once.
-     */
-    private BufferedImage progressiveScaling(BufferedImage source, int targetWidth, int targetHeight) {
-        // Current dimensions
-        int currentWidth = source.getWidth();
-        int currentHeight = source.getHeight();
-        
-        // Don't scale up images that are already smaller than target size
-        if (currentWidth <= targetWidth && currentHeight <= targetHeight) {
-            return source;
-        }
-        
-        // Use a multi-step approach for higher quality
-        BufferedImage result = source;
-        
-        // Scale down in multiple steps for better quality (not more than 50% each step)
-        while (currentWidth > targetWidth * 1.5 || currentHeight > targetHeight * 1.5) {
-            int newWidth = Math.max(currentWidth / 2, targetWidth);
-            int newHeight = Math.max(currentHeight / 2, targetHeight);
-            
-            result = scaleImage(result, newWidth, newHeight);
-            
-            currentWidth = newWidth;
-            currentHeight = newHeight;
-        }
-        
-        // Final scaling to exact target dimensions
-        if (currentWidth != targetWidth || currentHeight != targetHeight) {
-            result = scaleImage(result, targetWidth, targetHeight);
+    private EncodedImage renderThumbnail(Path input, ImageFormat sourceFormat, ImageProbe probe, boolean tiled,
+                                         int thumbnailWidth, int thumbnailHeight, Path output) throws IOException {
+        EncodingProfile profile = renditions.profile(RenditionProperties.THUMBNAIL);
+        EncodedImage encoded;
+        if (tiled) {
+            // Decoding and scaling are interleaved, so both are timed as the scale stage
+            Timer.Sample stage = metrics.startStage();
+            BufferedImage scaled = tiledDownscaler.downscale(input, sourceFormat, probe, thumbnailWidth, thumbnailHeight);
+            metrics.stopStage(stage, ProcessingMetrics.STAGE_SCALE);
+            metrics.decodedPixels(probe.pixels());
+            encoded = ThumbnailRenderer.finish(scaled, ThumbnailEncoder.chooseFormat(scaled), profile, output,
+                    metrics::recordStage);
+        } else {
+            // Read the original image
+            Timer.Sample stage = metrics.startStage();
+            ImageInputStream in = MappedImageInputStream.open(input);
+            // ImageIO closes the stream itself unless no reader recognises the data
+            BufferedImage originalImage = ImageIO.read(in);
+            if (originalImage == null) {
+                in.close();
+                throw new PermanentProcessingException("No decoder for " + sourceFormat.getFormatName() + " image: " + input);
+            }
+            metrics.stopStage(stage, ProcessingMetrics.STAGE_DECODE);
+            metrics.decodedPixels((long) originalImage.getWidth() * originalImage.getHeight());
+
+            encoded = ThumbnailRenderer.render(originalImage, thumbnailWidth, thumbnailHeight, profile, output,
+                    metrics::recordStage);
         }
-        
-        return result;
+        log.debug("Thumbnail for {} {} image: {}", sourceFormat.getFormatName(), input, encoded.getEncoding());
+        return encoded;
     }
-    
+
     /**
-     * Scale an image to specific dimensions using high quality settings.
+     * Where a job records its thumbnail: straight to the metadata store, or into its batch.
      */
-    private BufferedImage scaleImage(BufferedImage source, int width, int height) {
-        // Create a new BufferedImage for the result
-        BufferedImage result;
-        
-        // Preserve transparency for images with alpha channel
-        if (source.getTransparency() != BufferedImage.OPAQUE) {
-            result = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-        } else {
-            result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-        }
-        
-        // Set up the rendering process with maximum quality settings
-        Graphics2D g2d = result.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        g2d.setRenderingHint(RenderingHints.KEY_COLOR_RENDERING, RenderingHints.VALUE_COLOR_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_DITHERING, RenderingHints.VALUE_DITHER_ENABLE);
-        g2d.setRenderingHint(RenderingHints.KEY_ALPHA_INTERPOLATION, RenderingHints.VALUE_ALPHA_INTERPOLATION_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
-        
-        // Draw the scaled image
-        g2d.drawImage(source, 0, 0, width, height, null);
-        g2d.dispose();
-        
-        return result;
+    private interface ThumbnailRecorder {
+        void record(String thumbnailKey, EncodedImage thumbnail) throws Exception;
     }
-    
+
     /**
-     * Apply a sharpening filter to enhance image clarity
+     * A delivery in a batch and how its job went.
      */
-    private BufferedImage sharpenImage(BufferedImage image) {
-        float[] sharpenMatrix = {
-            0, -0.2f, 0,
-            -0.2f, 1.8f, -0.2f,
-            0, -0.2f, 0
-        };
-        
-        java.awt.image.Kernel kernel = new java.awt.image.Kernel(3, 3, sharpenMatrix);
-        java.awt.image.ConvolveOp convolveOp = new java.awt.image.ConvolveOp(
-            kernel, java.awt.image.ConvolveOp.EDGE_NO_OP, null);
-        
-        // Create a compatible destination image to avoid potential issues with some image types
-        BufferedImage output;
-        if (image.getTransparency() != BufferedImage.OPAQUE) {
-            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        } else {
-            output = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB); 
+    private static class BatchJob {
+        final Message delivery;
+        final Timer.Sample sample;
+        ImageProcessingMessage message;
+        String outcome;
+        String thumbnailKey;
+        EncodedImage thumbnail;
+        Exception failure;
+
+        BatchJob(Message delivery, Timer.Sample sample) {
+            this.delivery = delivery;
+            this.sample = sample;
         }
-        
-        // Apply the filter
-        return convolveOp.filter(image, output);
     }
 }
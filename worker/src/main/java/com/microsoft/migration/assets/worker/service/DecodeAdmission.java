@@ -0,0 +1,107 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.common.image.ImageProbe;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits image decodes against a heap budget, so that consumers working in parallel
+ * cannot together decode more pixels than the JVM can hold.
+ * <p>
+ * Each job's footprint is estimated from its header before any pixels are decoded and
+ * taken from a weighted semaphore, in megabytes. Images over the pixel limit, or whose
+ * estimate alone exceeds the budget, are refused permanently; this is what stops a
+ * decompression bomb from crash-looping the worker. Jobs that fit but cannot be admitted
+ * within the timeout fail with a retryable error and are retried later.
+ */
+@Slf4j
+@Component
+public class DecodeAdmission {
+    private static final long MB = 1024 * 1024;
+
+    private final Semaphore budget;
+    private final int budgetMb;
+    private final long maxPixels;
+    private final long timeoutMs;
+
+    public DecodeAdmission(@Value("${worker.decode.budget-mb:0}") int budgetMb,
+                           @Value("${worker.decode.max-pixels:100000000}") long maxPixels,
+                           @Value("${worker.decode.admission-timeout-ms:30000}") long timeoutMs,
+                           MeterRegistry registry) {
+        // Default to half the heap, leaving the rest for encoded buffers and everything else
+        this.budgetMb = budgetMb > 0 ? budgetMb : (int) (Runtime.getRuntime().maxMemory() / 2 / MB);
+        this.budget = new Semaphore(this.budgetMb, true);
+        this.maxPixels = maxPixels;
+        this.timeoutMs = timeoutMs;
+        log.info("Decode budget {} MB, at most {} pixels per image", this.budgetMb, maxPixels);
+
+        Gauge.builder("worker.decode.budget.used", budget, semaphore -> this.budgetMb - semaphore.availablePermits())
+                .description("Estimated heap held by admitted decodes")
+                .baseUnit("megabytes")
+                .register(registry);
+    }
+
+    /**
+     * Block until the image's estimated footprint, decoded in full, fits the budget.
+     *
+     * @return a permit to close once the decoded pixels are no longer referenced
+     * @throws PermanentProcessingException if the image is over the hard limits
+     * @throws IOException if it could not be admitted in time
+     */
+    public Permit admit(String name, ImageProbe probe) throws IOException, InterruptedException {
+        if (probe.pixels() > maxPixels) {
+            throw new PermanentProcessingException(String.format("%s is %dx%d, over the %d pixel limit",
+                    name, probe.getWidth(), probe.getHeight(), maxPixels));
+        }
+        return admit(name, estimateBytes(probe));
+    }
+
+    /**
+     * Block until an estimated footprint fits the budget, for decodes that do not hold
+     * the full image, such as tiled downscaling.
+     */
+    public Permit admit(String name, long estimatedBytes) throws IOException, InterruptedException {
+        int mb = (int) Math.max(1, (estimatedBytes + MB - 1) / MB);
+        if (mb > budgetMb) {
+            throw new PermanentProcessingException(String.format("%s needs about %d MB to decode, over the %d MB budget",
+                    name, mb, budgetMb));
+        }
+        if (!budget.tryAcquire(mb, timeoutMs, TimeUnit.MILLISECONDS)) {
+            throw new IOException(String.format("Decode budget busy: %s (%d MB) not admitted within %d ms",
+                    name, mb, timeoutMs));
+        }
+        log.debug("Admitted {} ({} MB), {} MB left", name, mb, budget.availablePermits());
+        return new Permit(mb);
+    }
+
+    /**
+     * The decoded image plus the first half-size scaling step, which is held alongside it.
+     */
+    static long estimateBytes(ImageProbe probe) {
+        return probe.pixels() * probe.getBytesPerPixel() + probe.pixels() / 4 * Integer.BYTES;
+    }
+
+    public class Permit implements AutoCloseable {
+        private final int mb;
+        private boolean released;
+
+        private Permit(int mb) {
+            this.mb = mb;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                budget.release(mb);
+            }
+        }
+    }
+}
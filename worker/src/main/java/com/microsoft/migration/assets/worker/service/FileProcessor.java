@@ -1,9 +1,60 @@
 package com.microsoft.migration.assets.worker.service;
 
+import com.microsoft.migration.assets.common.image.EncodedImage;
+
 import java.nio.file.Path;
+import java.util.Map;
 
 public interface FileProcessor {
     void downloadOriginal(String key, Path destination) throws Exception;
     void uploadThumbnail(Path source, String key, String contentType) throws Exception;
     String getStorageType();
-}
\ No newline at end of file
+
+    /**
+     * The stored original if it can be decoded in place, or null if it has to be downloaded first.
+     */
+    default Path localOriginal(String key) throws Exception {
+        return null;
+    }
+
+    /**
+     * Where to write the thumbnail so that {@link #uploadThumbnail} can publish it without
+     * another copy, or null to write it to a temporary file.
+     */
+    default Path thumbnailStagingPath(String key) throws Exception {
+        return null;
+    }
+
+    /**
+     * Fetch the first {@code length} bytes of the original, enough to probe its header.
+     *
+     * @return the original's full size, or -1 if the storage cannot read a prefix of an object
+     */
+    default long downloadOriginalHeader(String key, Path destination, int length) throws Exception {
+        return -1;
+    }
+
+    /**
+     * Store the original unchanged as its thumbnail, without passing it through this
+     * process where the storage allows, or return false if it cannot.
+     */
+    default boolean copyOriginalAsThumbnail(String key, String thumbnailKey) throws Exception {
+        return false;
+    }
+
+    /**
+     * Record the uploaded thumbnail in the metadata store, if this storage type keeps one.
+     */
+    default void saveThumbnailMetadata(String thumbnailKey, EncodedImage thumbnail) throws Exception {
+    }
+
+    /**
+     * Record several uploaded thumbnails, keyed by thumbnail key, in as few writes as the
+     * metadata store allows.
+     */
+    default void saveThumbnailMetadata(Map<String, EncodedImage> thumbnails) throws Exception {
+        for (Map.Entry<String, EncodedImage> thumbnail : thumbnails.entrySet()) {
+            saveThumbnailMetadata(thumbnail.getKey(), thumbnail.getValue());
+        }
+    }
+}
@@ -3,11 +3,14 @@ package com.microsoft.migration.assets.worker.service;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
-import jakarta.annotation.PostConstruct;
+import com.microsoft.migration.assets.common.storage.LocalStorageLayout;
+import javax.annotation.PostConstruct;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.UUID;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -21,6 +24,7 @@ public class LocalFileProcessingService extends AbstractFileProcessingService {
     private String storageDirectory;
     
     private Path rootLocation;
+    private LocalStorageLayout layout;
     
     @PostConstruct
     public void init() throws Exception {
@@ -31,22 +35,69 @@ public class LocalFileProcessingService extends AbstractFileProcessingService {
             Files.createDirectories(rootLocation);
             logger.info("Created local storage directory");
         }
+
+        layout = new LocalStorageLayout(rootLocation);
     }
 
     @Override
     public void downloadOriginal(String key, Path destination) throws Exception {
-        Path sourcePath = rootLocation.resolve(key);
+        Files.copy(localOriginal(key), destination, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @Override
+    public Path localOriginal(String key) throws Exception {
+        Path sourcePath = layout.originalPath(key);
+        if (!Files.exists(sourcePath)) {
+            // Not yet moved out of the flat layout
+            sourcePath = layout.legacyPath(key);
+        }
         if (!Files.exists(sourcePath)) {
             throw new java.io.FileNotFoundException("File not found: " + sourcePath);
         }
-        Files.copy(sourcePath, destination, StandardCopyOption.REPLACE_EXISTING);
+        return sourcePath;
+    }
+
+    @Override
+    public Path thumbnailStagingPath(String key) throws Exception {
+        // A hidden sibling of the final file, so publishing it is a rename on the same filesystem
+        Path destinationPath = layout.thumbnailPath(key);
+        Files.createDirectories(destinationPath.getParent());
+        return destinationPath.resolveSibling(".tmp-" + UUID.randomUUID() + "-" + destinationPath.getFileName());
     }
 
     @Override
     public void uploadThumbnail(Path source, String key, String contentType) throws Exception {
-        Path destinationPath = rootLocation.resolve(key);
+        Path destinationPath = layout.thumbnailPath(key);
         Files.createDirectories(destinationPath.getParent());
-        Files.copy(source, destinationPath, StandardCopyOption.REPLACE_EXISTING);
+        if (!destinationPath.getParent().equals(source.getParent())) {
+            // Not staged next to the destination; copy it there first so the publish stays atomic
+            Path staged = thumbnailStagingPath(key);
+            Files.copy(source, staged);
+            source = staged;
+        }
+        // Readers see either the previous thumbnail or the complete new one, never a partial file
+        Files.move(source, destinationPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        Instant storedAt = Files.getLastModifiedTime(destinationPath).toInstant();
+        layout.recordPut(key, LocalStorageLayout.KIND_THUMBNAIL, Files.size(destinationPath), storedAt, storedAt);
+    }
+
+    @Override
+    public boolean copyOriginalAsThumbnail(String key, String thumbnailKey) throws Exception {
+        Path source = localOriginal(key);
+        Path staged = thumbnailStagingPath(thumbnailKey);
+        try {
+            // A hard link shares the original's blocks; both paths are in the same storage tree
+            Files.createLink(staged, source);
+        } catch (UnsupportedOperationException | java.io.IOException e) {
+            logger.debug("Hard link unavailable for {}, copying instead: {}", thumbnailKey, e.toString());
+            Files.copy(source, staged, StandardCopyOption.REPLACE_EXISTING);
+        }
+        try {
+            uploadThumbnail(staged, thumbnailKey, null);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+        return true;
     }
 
     @Override
@@ -0,0 +1,16 @@
+package com.microsoft.migration.assets.worker.service;
+
+/**
+ * A job that can never succeed, however often it is retried: the message is
+ * rejected without requeueing instead of going back onto the queue.
+ */
+public class PermanentProcessingException extends RuntimeException {
+
+    public PermanentProcessingException(String message) {
+        super(message);
+    }
+
+    public PermanentProcessingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -1,20 +1,31 @@
 package com.microsoft.migration.assets.worker.service;
 
-import com.microsoft.migration.assets.worker.model.ImageMetadata;
+import com.microsoft.migration.assets.common.image.EncodedImage;
+import com.microsoft.migration.assets.common.model.ImageMetadata;
+import com.microsoft.migration.assets.common.storage.KeyPartitioner;
 import com.microsoft.migration.assets.worker.repository.ImageMetadataRepository;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import software.amazon.awssdk.core.sync.RequestBody;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.GetUrlRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
 
 @Service
 @Profile("!dev")
@@ -22,14 +33,13 @@ import java.nio.file.StandardCopyOption;
 public class S3FileProcessingService extends AbstractFileProcessingService {
     private final S3Client s3Client;
     private final ImageMetadataRepository imageMetadataRepository;
-    
-    @Value("${aws.s3.bucket}")
-    private String bucketName;
+    private final KeyPartitioner keyPartitioner;
+    private final PlatformTransactionManager transactionManager;
 
     @Override
     public void downloadOriginal(String key, Path destination) throws Exception {
         GetObjectRequest request = GetObjectRequest.builder()
-                .bucket(bucketName)
+                .bucket(keyPartitioner.bucketFor(key))
                 .key(key)
                 .build();
                 
@@ -38,27 +48,107 @@ public class S3FileProcessingService extends AbstractFileProcessingService {
         }
     }
 
+    @Override
+    public long downloadOriginalHeader(String key, Path destination, int length) throws Exception {
+        GetObjectRequest request = GetObjectRequest.builder()
+                .bucket(keyPartitioner.bucketFor(key))
+                .key(key)
+                .range("bytes=0-" + (length - 1))
+                .build();
+
+        try (var inputStream = s3Client.getObject(request)) {
+            Files.copy(inputStream, destination, StandardCopyOption.REPLACE_EXISTING);
+            // "bytes 0-65535/1048576", or no range at all when the whole object was returned
+            String contentRange = inputStream.response().contentRange();
+            return contentRange != null && contentRange.lastIndexOf('/') > 0
+                    ? Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1))
+                    : inputStream.response().contentLength();
+        }
+    }
+
+    @Override
+    public boolean copyOriginalAsThumbnail(String key, String thumbnailKey) {
+        // Server-side copy: the bytes never leave S3, and the content type is copied with them
+        CopyObjectRequest request = CopyObjectRequest.builder()
+                .sourceBucket(keyPartitioner.bucketFor(key))
+                .sourceKey(key)
+                .destinationBucket(keyPartitioner.bucketFor(thumbnailKey))
+                .destinationKey(thumbnailKey)
+                .build();
+
+        s3Client.copyObject(request);
+        return true;
+    }
+
     @Override
     public void uploadThumbnail(Path source, String key, String contentType) throws Exception {
         PutObjectRequest request = PutObjectRequest.builder()
-                .bucket(bucketName)
+                .bucket(keyPartitioner.bucketFor(key))
                 .key(key)
                 .contentType(contentType)
                 .build();
                 
         s3Client.putObject(request, RequestBody.fromFile(source));
-        
+    }
+
+    @Override
+    public void saveThumbnailMetadata(String key, EncodedImage thumbnail) {
         // Save or update thumbnail metadata
-        ImageMetadata metadata = imageMetadataRepository.findById(extractOriginalKey(key))
-            .orElseGet(() -> {
-                ImageMetadata newMetadata = new ImageMetadata();
-                newMetadata.setId(extractOriginalKey(key));
-                return newMetadata;
+        String originalKey = extractOriginalKey(key);
+        ImageMetadata metadata = imageMetadataRepository.findByS3Key(originalKey)
+            .orElseGet(() -> newMetadata(originalKey));
+
+        applyThumbnail(metadata, key, thumbnail);
+        imageMetadataRepository.save(metadata);
+    }
+
+    /**
+     * Load the rows of a whole batch in one query and update them in one transaction, so
+     * the updates are flushed together rather than committed one job at a time.
+     */
+    @Override
+    public void saveThumbnailMetadata(Map<String, EncodedImage> thumbnails) {
+        Map<String, String> thumbnailKeys = new HashMap<>();
+        thumbnails.keySet().forEach(key -> thumbnailKeys.put(extractOriginalKey(key), key));
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            List<ImageMetadata> rows = new ArrayList<>(thumbnails.size());
+            for (ImageMetadata metadata : imageMetadataRepository.findByS3KeyIn(thumbnailKeys.keySet())) {
+                String key = thumbnailKeys.remove(metadata.getS3Key());
+                if (key != null) {
+                    applyThumbnail(metadata, key, thumbnails.get(key));
+                    rows.add(metadata);
+                }
+            }
+            thumbnailKeys.forEach((originalKey, key) -> {
+                ImageMetadata metadata = newMetadata(originalKey);
+                applyThumbnail(metadata, key, thumbnails.get(key));
+                rows.add(metadata);
             });
+            imageMetadataRepository.saveAll(rows);
+        });
+    }
+
+    private static ImageMetadata newMetadata(String originalKey) {
+        ImageMetadata metadata = new ImageMetadata();
+        metadata.setId(UUID.randomUUID().toString());
+        metadata.setS3Key(originalKey);
+        return metadata;
+    }
 
+    private void applyThumbnail(ImageMetadata metadata, String key, EncodedImage thumbnail) {
         metadata.setThumbnailKey(key);
         metadata.setThumbnailUrl(generateUrl(key));
-        imageMetadataRepository.save(metadata);
+        metadata.setThumbnailSize(thumbnail.getSize());
+        metadata.setThumbnailEncoding(thumbnail.getEncoding());
+        metadata.setThumbnailContentType(thumbnail.getContentType());
+        metadata.setPerceptualHash(thumbnail.getPerceptualHash());
+    }
+
+    @Override
+    protected boolean isNotFound(Exception e) {
+        return e instanceof NoSuchKeyException
+                || (e instanceof S3Exception && ((S3Exception) e).statusCode() == 404)
+                || super.isNotFound(e);
     }
 
     @Override
@@ -69,18 +159,18 @@ public class S3FileProcessingService extends AbstractFileProcessingService {
     @Override
     protected String generateUrl(String key) {
         GetUrlRequest request = GetUrlRequest.builder()
-                .bucket(bucketName)
+                .bucket(keyPartitioner.bucketFor(key))
                 .key(key)
                 .build();
         return s3Client.utilities().getUrl(request).toString();
     }
 
     private String extractOriginalKey(String key) {
-        // Remove _thumbnail suffix if present
+        // Remove _thumbnail suffix if present, keeping the extension
         String suffix = "_thumbnail";
         int suffixIndex = key.lastIndexOf(suffix);
         if (suffixIndex > 0) {
-            return key.substring(0, suffixIndex);
+            return key.substring(0, suffixIndex) + key.substring(suffixIndex + suffix.length());
         }
         return key;
     }
@@ -0,0 +1,50 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.common.messaging.ThumbnailReadyMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+import static com.microsoft.migration.assets.worker.config.RabbitConfig.THUMBNAIL_READY_EXCHANGE_NAME;
+
+/**
+ * Announces recorded thumbnails to the web, which pushes them to open listings. The
+ * thumbnail is already in the catalog by then, so a lost announcement only delays it
+ * until the page is next loaded, and never fails the job.
+ */
+@Slf4j
+@Component
+public class ThumbnailReadyPublisher {
+
+    private final RabbitTemplate rabbitTemplate;
+
+    public ThumbnailReadyPublisher(RabbitTemplate rabbitTemplate) {
+        this.rabbitTemplate = rabbitTemplate;
+    }
+
+    public void publish(ThumbnailReadyMessage message) {
+        publishAll(List.of(message));
+    }
+
+    /**
+     * Publish the announcements of a batch over a single channel.
+     */
+    public void publishAll(List<ThumbnailReadyMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        try {
+            rabbitTemplate.invoke(operations -> {
+                for (ThumbnailReadyMessage message : messages) {
+                    operations.convertAndSend(THUMBNAIL_READY_EXCHANGE_NAME, "", message);
+                }
+                return null;
+            });
+        } catch (AmqpException e) {
+            log.warn("Could not announce {} thumbnails: {}", messages.size(), e.getMessage());
+        }
+    }
+}
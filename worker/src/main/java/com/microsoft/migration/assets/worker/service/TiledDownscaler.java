@@ -0,0 +1,191 @@
+package com.microsoft.migration.assets.worker.service;
+
+import com.microsoft.migration.assets.common.image.ImageFormat;
+import com.microsoft.migration.assets.common.image.ImageProbe;
+import com.microsoft.migration.assets.common.image.ImageResizer;
+import com.microsoft.migration.assets.common.image.MappedImageInputStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Downscales originals too large to decode whole, such as stitched panoramas and scans.
+ * <p>
+ * The decoder subsamples while reading, so only about twice the target resolution is
+ * ever held in memory. The output is split into horizontal bands that are scaled in
+ * parallel on a fork/join pool and stitched together. Tiled TIFFs can be read at any
+ * offset, so each band also decodes its own source region in parallel. Sequential
+ * formats like JPEG and PNG would have to decompress every row above a band again,
+ * so they are decoded in one subsampled pass and only the scaling runs in parallel.
+ */
+@Slf4j
+@Component
+public class TiledDownscaler {
+    // Don't split the output into bands shorter than this
+    private static final int MIN_BAND_ROWS = 64;
+
+    private final ForkJoinPool pool;
+    private final long thresholdPixels;
+    private final long maxPixels;
+
+    public TiledDownscaler(@Value("${worker.decode.tiled.threshold-pixels:40000000}") long thresholdPixels,
+                           @Value("${worker.decode.tiled.max-pixels:1000000000}") long maxPixels,
+                           @Value("${worker.decode.tiled.parallelism:0}") int parallelism) {
+        this.thresholdPixels = thresholdPixels;
+        this.maxPixels = maxPixels;
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Whether an image is large enough to be downscaled in tiles rather than decoded whole.
+     */
+    public boolean accepts(ImageProbe probe) {
+        return probe.pixels() > thresholdPixels;
+    }
+
+    /**
+     * Heap held while downscaling: the subsampled source, its scaled bands and the output.
+     *
+     * @throws PermanentProcessingException if the image is over the tiled pixel limit
+     */
+    public long estimateBytes(ImageProbe probe, int targetWidth, int targetHeight) {
+        if (probe.pixels() > maxPixels) {
+            throw new PermanentProcessingException(String.format("Image is %dx%d, over the %d pixel limit",
+                    probe.getWidth(), probe.getHeight(), maxPixels));
+        }
+        int factor = ImageResizer.subsampling(probe, targetWidth, targetHeight);
+        long decoded = (long) ceilDiv(probe.getWidth(), factor) * ceilDiv(probe.getHeight(), factor);
+        return decoded * probe.getBytesPerPixel() + decoded * Integer.BYTES
+                + (long) targetWidth * targetHeight * Integer.BYTES;
+    }
+
+    public BufferedImage downscale(Path input, ImageFormat format, ImageProbe probe,
+                                   int targetWidth, int targetHeight) throws IOException {
+        int factor = ImageResizer.subsampling(probe, targetWidth, targetHeight);
+        int width = probe.getWidth();
+        int height = probe.getHeight();
+        int bandCount = Math.max(1, Math.min(pool.getParallelism() * 2, targetHeight / MIN_BAND_ROWS));
+        boolean randomAccess = format == ImageFormat.TIFF;
+        log.info("Downscaling {}x{} image in {} bands, subsampled 1:{}{}", width, height, bandCount, factor,
+                randomAccess ? ", decoding bands in parallel" : "");
+
+        BufferedImage whole = randomAccess ? null : read(input, new Rectangle(0, 0, width, height), factor);
+        List<Callable<BufferedImage>> bands = new ArrayList<>(bandCount);
+        int[] outputRows = new int[bandCount + 1];
+        for (int band = 0; band < bandCount; band++) {
+            outputRows[band + 1] = (int) ((long) (band + 1) * targetHeight / bandCount);
+        }
+        for (int band = 0; band < bandCount; band++) {
+            // Source bands start on a multiple of the subsampling factor, so the sampling grid
+            // continues across band boundaries and the bands tile the subsampled image exactly
+            int sourceTop = alignDown((long) outputRows[band] * height / targetHeight, factor);
+            int sourceBottom = band == bandCount - 1 ? height
+                    : alignDown((long) outputRows[band + 1] * height / targetHeight, factor);
+            int rows = outputRows[band + 1] - outputRows[band];
+            bands.add(() -> {
+                BufferedImage source = randomAccess
+                        ? read(input, new Rectangle(0, sourceTop, width, sourceBottom - sourceTop), factor)
+                        : whole.getSubimage(0, sourceTop / factor, whole.getWidth(),
+                                Math.min(whole.getHeight(), ceilDiv(sourceBottom, factor)) - sourceTop / factor);
+                return scale(source, targetWidth, rows);
+            });
+        }
+
+        List<BufferedImage> scaled = new ArrayList<>(bandCount);
+        try {
+            for (Future<BufferedImage> band : pool.invokeAll(bands)) {
+                scaled.add(band.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while downscaling " + input, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to downscale " + input, e.getCause());
+        }
+
+        BufferedImage output = new BufferedImage(targetWidth, targetHeight,
+                scaled.get(0).getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        Graphics2D g2d = output.createGraphics();
+        for (int band = 0; band < bandCount; band++) {
+            g2d.drawImage(scaled.get(band), 0, outputRows[band], null);
+        }
+        g2d.dispose();
+        return output;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static BufferedImage read(Path input, Rectangle region, int factor) throws IOException {
+        try (ImageInputStream in = MappedImageInputStream.open(input)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new PermanentProcessingException("No decoder for image: " + input);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceRegion(region);
+                param.setSourceSubsampling(factor, factor, 0, 0);
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Bicubic downscale in steps of at most half, as in the full-decode pipeline.
+     */
+    private static BufferedImage scale(BufferedImage source, int width, int height) {
+        BufferedImage result = source;
+        int currentWidth = source.getWidth();
+        int currentHeight = source.getHeight();
+        while (currentWidth != width || currentHeight != height) {
+            currentWidth = Math.max(currentWidth / 2, width);
+            currentHeight = Math.max(currentHeight / 2, height);
+            BufferedImage step = new BufferedImage(currentWidth, Math.max(1, currentHeight),
+                    source.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = step.createGraphics();
+            g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g2d.drawImage(result, 0, 0, step.getWidth(), step.getHeight(), null);
+            g2d.dispose();
+            result = step;
+        }
+        return result;
+    }
+
+    private static int alignDown(long value, int factor) {
+        return (int) (value / factor * factor);
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -2,7 +2,8 @@ package com.microsoft.migration.assets.worker.util;
 
 public class StorageUtil {
     /**
-     * Get the thumbnail key for a given key
+     * Get the thumbnail key for a given key. The suffix goes before the extension, so a
+     * partitioned key's prefix, and with it its partition and bucket, is kept.
      */
     public static String getThumbnailKey(String key) {
         int dotIndex = key.lastIndexOf('.');